@@ -1,5 +1,7 @@
 package railway;
 
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 /**
  * <p>
  * An immutable class representing a junction on a railway track.
@@ -14,11 +16,22 @@ package railway;
  */
 public class Junction {
 
+    // sets endPoints at most once, when it is first needed
+    private static final AtomicReferenceFieldUpdater<Junction,
+            JunctionBranch[]> END_POINTS = AtomicReferenceFieldUpdater
+                    .newUpdater(Junction.class, JunctionBranch[].class,
+                            "endPoints");
+
     // the identifier of this junction
     private String junctionIdentifier;
+    // the canonical end-points of this junction, indexed by Branch.ordinal(),
+    // or null if none have been requested yet
+    private volatile JunctionBranch[] endPoints;
 
     /*
-     * invariant: junctionIdentifier != null
+     * invariant: junctionIdentifier != null && (endPoints == null ||
+     * endPoints[b.ordinal()] is an end-point of this junction on branch b for
+     * each branch b)
      */
 
     /**
@@ -46,6 +59,27 @@ public class Junction {
         return junctionIdentifier;
     }
 
+    /**
+     * Returns the canonical end-points of this junction, indexed by
+     * Branch.ordinal(), creating them on the first call. Every call returns
+     * the same array, which must not be modified.
+     */
+    JunctionBranch[] getEndPoints() {
+        JunctionBranch[] result = endPoints;
+        if (result == null) {
+            Branch[] branches = Branch.values();
+            result = new JunctionBranch[branches.length];
+            for (int i = 0; i < branches.length; i++) {
+                result[i] = new JunctionBranch(this, branches[i]);
+            }
+            if (!END_POINTS.compareAndSet(this, null, result)) {
+                // another thread created them first
+                result = endPoints;
+            }
+        }
+        return result;
+    }
+
     @Override
     public String toString() {
         return junctionIdentifier;
@@ -57,6 +91,10 @@ public class Junction {
      */
     @Override
     public boolean equals(Object object) {
+        if (this == object) {
+            // interned junctions (see JunctionRegistry) are compared here
+            return true;
+        }
         if (!(object instanceof Junction)) {
             return false;
         }
@@ -78,7 +116,20 @@ public class Junction {
      * @return true if this class is internally consistent, and false otherwise.
      */
     public boolean checkInvariant() {
-        return (junctionIdentifier != null);
+        if (junctionIdentifier == null) {
+            return false;
+        }
+        JunctionBranch[] current = endPoints;
+        if (current != null) {
+            for (Branch branch : Branch.values()) {
+                JunctionBranch endPoint = current[branch.ordinal()];
+                if (endPoint.getJunction() != this
+                        || endPoint.getBranch() != branch) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
 }
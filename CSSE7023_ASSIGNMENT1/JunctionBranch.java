@@ -5,15 +5,24 @@ package railway;
  * An immutable class used to identify a junction and one of its branches on a
  * railway track.
  * </p>
+ * 
+ * <p>
+ * Instances may be created with the constructor, or obtained from the factory
+ * method of(Junction, Branch), which returns the same instance each time it is
+ * called with the same junction and branch.
+ * </p>
  */
 public class JunctionBranch {
 
     // the junction and its branch
     private Junction junction;
     private Branch branch;
+    // the hash code, computed once since the fields never change
+    private int hash;
 
     /*
-     * invariant: junction!= null && branch != null
+     * invariant: junction!= null && branch != null && hash == the polynomial
+     * hash of junction and branch
      */
 
     /**
@@ -35,6 +44,32 @@ public class JunctionBranch {
         }
         this.junction = junction;
         this.branch = branch;
+        this.hash = hash(junction, branch);
+    }
+
+    /**
+     * Returns the canonical instance of the end-point with the given junction
+     * and branch. The three end-points of a junction are created together on
+     * first use and held by the junction itself, so they are only kept for as
+     * long as the junction is. End-points returned by this method for the same
+     * junction instance (e.g. a junction interned by JunctionRegistry) and
+     * branch are the same instance, so they can be compared by identity.
+     * 
+     * @param junction
+     *            the Junction of the end-point
+     * @param branch
+     *            the Branch of the end-point
+     * @return the canonical end-point for the given junction and branch
+     * @throws NullPointerException
+     *             if either parameter is null
+     */
+    public static JunctionBranch of(Junction junction, Branch branch)
+            throws NullPointerException {
+        if (junction == null || branch == null) {
+            throw new NullPointerException(
+                    "The method paramters cannot be null.");
+        }
+        return junction.getEndPoints()[branch.ordinal()];
     }
 
     /**
@@ -74,6 +109,9 @@ public class JunctionBranch {
      */
     @Override
     public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
         if (!(object instanceof JunctionBranch)) {
             return false;
         }
@@ -84,7 +122,13 @@ public class JunctionBranch {
 
     @Override
     public int hashCode() {
-        // creates a polynomial hash-code based on the fields of the class.
+        return hash;
+    }
+
+    /**
+     * Returns a polynomial hash-code based on the given junction and branch.
+     */
+    private static int hash(Junction junction, Branch branch) {
         final int prime = 31; // an odd base prime
         int result = 1; // the hash code under construction
         result = prime * result + junction.hashCode();
@@ -101,7 +145,8 @@ public class JunctionBranch {
      * @return true if this class is internally consistent, and false otherwise.
      */
     public boolean checkInvariant() {
-        return (junction != null && branch != null);
+        return (junction != null && branch != null
+                && hash == hash(junction, branch));
     }
 
 }
@@ -0,0 +1,216 @@
+package railway;
+
+import java.util.*;
+
+/**
+ * <p>
+ * A mutable class that interns the junctions of a railway track, and gives
+ * each of them a dense integer identifier.
+ * </p>
+ *
+ * <p>
+ * Each junction registered with a registry is represented by a single
+ * canonical Junction instance, and is given the identifier size() at the time
+ * it was registered, so that the identifiers of the junctions in a registry
+ * are 0, 1, ..., size() - 1. Identifiers can therefore be used to index
+ * arrays, and two registered junctions are equivalent if and only if they
+ * have the same identifier.
+ * </p>
+ *
+ * <p>
+ * An end-point (i.e. a junction and one of its branches) of a registered
+ * junction is identified by the integer (junctionId << 2 | branch.ordinal()).
+ * </p>
+ */
+public class JunctionRegistry {
+
+    // the branches, in order of their ordinals (Branch.values() returns a new
+    // copy of them on each call)
+    private static final Branch[] BRANCHES = Branch.values();
+
+    // the canonical instance of each registered junction, indexed by its id
+    private List<Junction> junctions;
+    // the id of each registered junction
+    private Map<Junction, Integer> ids;
+
+    /*
+     * invariant: junctions != null && ids != null && !junctions.contains(null)
+     * && junctions.size() == ids.size() && for each 0 <= i < junctions.size(),
+     * ids.get(junctions.get(i)) == i
+     */
+
+    /**
+     * Creates a new registry with no junctions.
+     */
+    public JunctionRegistry() {
+        junctions = new ArrayList<Junction>();
+        ids = new HashMap<Junction, Integer>();
+    }
+
+    /**
+     * Returns the canonical instance of the given junction, registering it
+     * first if no equivalent junction has been registered.
+     *
+     * @param junction
+     *            the junction to intern
+     * @return the registered junction that is equivalent to the given one
+     * @throws NullPointerException
+     *             if junction is null
+     */
+    public Junction intern(Junction junction) throws NullPointerException {
+        return junctions.get(register(junction));
+    }
+
+    /**
+     * Returns the identifier of the given junction, registering it first if
+     * no equivalent junction has been registered.
+     *
+     * @param junction
+     *            the junction to register
+     * @return the identifier of the junction
+     * @throws NullPointerException
+     *             if junction is null
+     */
+    public int register(Junction junction) throws NullPointerException {
+        if (junction == null) {
+            throw new NullPointerException(
+                    "The parameter junction cannot be null.");
+        }
+        Integer id = ids.get(junction);
+        if (id == null) {
+            id = junctions.size();
+            junctions.add(junction);
+            ids.put(junction, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the identifier of the given junction, or -1 if no equivalent
+     * junction has been registered.
+     *
+     * @param junction
+     *            the junction whose identifier is returned
+     * @return the identifier of the junction, or -1 if it is not registered
+     */
+    public int getId(Junction junction) {
+        Integer id = ids.get(junction);
+        return (id == null) ? -1 : id;
+    }
+
+    /**
+     * Returns the registered junction with the given identifier.
+     *
+     * @param id
+     *            the identifier of the junction
+     * @return the registered junction with the given identifier
+     * @throws IndexOutOfBoundsException
+     *             if id is not the identifier of a registered junction
+     */
+    public Junction getJunction(int id) throws IndexOutOfBoundsException {
+        return junctions.get(id);
+    }
+
+    /**
+     * Returns the number of registered junctions.
+     *
+     * @return the number of registered junctions
+     */
+    public int size() {
+        return junctions.size();
+    }
+
+    /**
+     * Returns the identifier of the given end-point, registering its junction
+     * first if no equivalent junction has been registered.
+     *
+     * @param endPoint
+     *            the end-point to register
+     * @return the identifier of the end-point
+     * @throws NullPointerException
+     *             if endPoint is null
+     */
+    public int register(JunctionBranch endPoint) throws NullPointerException {
+        if (endPoint == null) {
+            throw new NullPointerException(
+                    "The parameter endPoint cannot be null.");
+        }
+        return endPointId(register(endPoint.getJunction()),
+                endPoint.getBranch());
+    }
+
+    /**
+     * Returns the identifier of the given end-point, or -1 if its junction has
+     * not been registered.
+     *
+     * @param endPoint
+     *            the end-point whose identifier is returned
+     * @return the identifier of the end-point, or -1 if its junction is not
+     *         registered
+     * @throws NullPointerException
+     *             if endPoint is null
+     */
+    public int getId(JunctionBranch endPoint) throws NullPointerException {
+        int id = getId(endPoint.getJunction());
+        return (id == -1) ? -1 : endPointId(id, endPoint.getBranch());
+    }
+
+    /**
+     * Returns the identifier of the end-point on the given branch of the
+     * junction with the given identifier.
+     *
+     * @param junctionId
+     *            the identifier of a junction
+     * @param branch
+     *            a branch of the junction
+     * @return the end-point identifier (junctionId << 2 | branch.ordinal())
+     */
+    public static int endPointId(int junctionId, Branch branch) {
+        return junctionId << 2 | branch.ordinal();
+    }
+
+    /**
+     * Returns the identifier of the junction of the end-point with the given
+     * identifier.
+     *
+     * @param endPointId
+     *            the identifier of an end-point
+     * @return the identifier of the junction of the end-point
+     */
+    public static int junctionId(int endPointId) {
+        return endPointId >>> 2;
+    }
+
+    /**
+     * Returns the branch of the end-point with the given identifier.
+     *
+     * @param endPointId
+     *            the identifier of an end-point
+     * @return the branch of the end-point
+     */
+    public static Branch branch(int endPointId) {
+        return BRANCHES[endPointId & 3];
+    }
+
+    /**
+     * Determines whether this class is internally consistent (i.e. it satisfies
+     * its class invariant).
+     *
+     * This method is only intended for testing purposes.
+     *
+     * @return true if this class is internally consistent, and false otherwise.
+     */
+    public boolean checkInvariant() {
+        if (junctions == null || ids == null
+                || junctions.size() != ids.size()) {
+            return false;
+        }
+        for (int i = 0; i < junctions.size(); i++) {
+            if (junctions.get(i) == null || ids.get(junctions.get(i)) != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
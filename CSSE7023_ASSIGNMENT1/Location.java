@@ -27,11 +27,38 @@ package railway;
  * the junction along any branch of the junction. For this reason, the
  * equivalence method of this class is more complex than usual.
  * </p>
+ * 
+ * <p>
+ * To keep the equivalence method cheap, each location also records a
+ * canonical description of itself when it is created: its offset from the
+ * canonical end-point of its section (see Section.getCanonicalEndPoint),
+ * which is zero for every location at a junction, and its hash code.
+ * Equivalent locations have the same canonical offset and hash code, so most
+ * locations that are not equivalent are told apart by comparing two integers.
+ * </p>
  */
 public class Location {
 
-    // REMOVE THIS LINE AND INSERT YOUR INSTANCE VARIABLES AND IMPLEMENTATION
-    // INVARIANT HERE
+    // the section the location lies on
+    private Section section;
+    // the end-point of the section that the offset is measured from
+    private JunctionBranch endPoint;
+    // the distance of the location from the end-point along the section
+    private int offset;
+    // the distance of the location from the canonical end-point of the
+    // section, or zero if the location is at a junction
+    private int canonicalOffset;
+    // the hash code of the location, which is the same for all of its
+    // descriptions
+    private int hash;
+
+    /*
+     * invariant: section != null && endPoint != null &&
+     * section.getEndPoints().contains(endPoint) && 0 <= offset <
+     * section.getLength() && canonicalOffset is the offset of the location
+     * from section.getCanonicalEndPoint() modulo section.getLength() && hash
+     * == hash(section, endPoint, canonicalOffset)
+     */
 
     /**
      * Creates a new location that lies on the given section at a distance of
@@ -55,7 +82,24 @@ public class Location {
      *             not equivalent to an end-point of the given section.
      */
     public Location(Section section, JunctionBranch endPoint, int offset) {
-        // REMOVE THIS LINE AND WRITE THIS METHOD
+        if (section == null || endPoint == null) {
+            throw new NullPointerException(
+                    "The section and end-point cannot be null.");
+        }
+        if (offset < 0 || offset >= section.getLength()) {
+            throw new IllegalArgumentException(
+                    "The offset must be at least zero and less than the "
+                            + "length of the section.");
+        }
+        if (!section.getEndPoints().contains(endPoint)) {
+            throw new IllegalArgumentException(
+                    "The end-point must be an end-point of the section.");
+        }
+        this.section = section;
+        this.endPoint = endPoint;
+        this.offset = offset;
+        this.canonicalOffset = canonicalOffset(section, endPoint, offset);
+        this.hash = hash(section, endPoint, canonicalOffset);
     }
 
     /**
@@ -73,7 +117,7 @@ public class Location {
      * @return a section that this location lies on
      */
     public Section getSection() {
-        return null; // REMOVE THIS LINE AND WRITE THIS METHOD
+        return section;
     }
 
     /**
@@ -91,7 +135,7 @@ public class Location {
      * @return an end-point of this.getSection()
      */
     public JunctionBranch getEndPoint() {
-        return null; // REMOVE THIS LINE AND WRITE THIS METHOD
+        return endPoint;
     }
 
     /**
@@ -116,7 +160,7 @@ public class Location {
      * 
      */
     public int getOffset() {
-        return -1; // REMOVE THIS LINE AND WRITE THIS METHOD
+        return offset;
     }
 
     /**
@@ -126,7 +170,7 @@ public class Location {
      * @return whether or not this location is at a junction
      */
     public boolean atAJunction() {
-        return true; // REMOVE THIS LINE AND WRITE THIS METHOD
+        return offset == 0;
     }
 
     /**
@@ -145,7 +189,18 @@ public class Location {
      * @return true iff this location lies on the given section
      */
     public boolean onSection(Section section) {
-        return true; // REMOVE THIS LINE AND WRITE THIS METHOD
+        if (section == null) {
+            return false;
+        }
+        if (atAJunction()) {
+            for (JunctionBranch other : section.getEndPoints()) {
+                if (other.getJunction().equals(endPoint.getJunction())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return this.section.equals(section);
     }
 
     /**
@@ -173,7 +228,11 @@ public class Location {
      */
     @Override
     public String toString() {
-        return null; // REMOVE THIS LINE AND WRITE THIS METHOD
+        if (atAJunction()) {
+            return endPoint.getJunction().toString();
+        }
+        return "Distance " + offset + " from " + endPoint.getJunction()
+                + " along the " + endPoint.getBranch() + " branch";
     }
 
     /**
@@ -206,12 +265,26 @@ public class Location {
      */
     @Override
     public boolean equals(Object object) {
-        return super.equals(object); // REMOVE THIS LINE AND WRITE THIS METHOD
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof Location)) {
+            return false;
+        }
+        Location other = (Location) object; // the location to compare
+        // (i) - (iii) hold exactly when the canonical descriptions are equal
+        if (hash != other.hash || canonicalOffset != other.canonicalOffset) {
+            return false;
+        }
+        if (canonicalOffset == 0) {
+            return endPoint.getJunction().equals(other.endPoint.getJunction());
+        }
+        return section.equals(other.section);
     }
 
     @Override
     public int hashCode() {
-        return super.hashCode(); // REMOVE THIS LINE AND WRITE THIS METHOD
+        return hash;
     }
 
     /**
@@ -223,7 +296,41 @@ public class Location {
      * @return true if this class is internally consistent, and false otherwise.
      */
     public boolean checkInvariant() {
-        return true; // REMOVE THIS LINE AND WRITE THIS METHOD
+        return (section != null && endPoint != null
+                && section.getEndPoints().contains(endPoint) && offset >= 0
+                && offset < section.getLength()
+                && canonicalOffset == canonicalOffset(section, endPoint,
+                        offset) && hash == hash(section, endPoint,
+                canonicalOffset));
+    }
+
+    /**
+     * Returns the offset from the canonical end-point of the given section of
+     * the location at the given offset from the given end-point, or zero if
+     * the location is at a junction.
+     */
+    private static int canonicalOffset(Section section,
+            JunctionBranch endPoint, int offset) {
+        if (offset == 0 || endPoint.equals(section.getCanonicalEndPoint())) {
+            return offset;
+        }
+        return section.getLength() - offset;
+    }
+
+    /**
+     * Returns the hash code of the location with the given canonical offset
+     * on the given section.
+     */
+    private static int hash(Section section, JunctionBranch endPoint,
+            int canonicalOffset) {
+        if (canonicalOffset == 0) {
+            return endPoint.getJunction().hashCode();
+        }
+        final int prime = 31; // an odd base prime
+        int result = 1; // the hash code under construction
+        result = prime * result + section.hashCode();
+        result = prime * result + canonicalOffset;
+        return result;
     }
 
 }
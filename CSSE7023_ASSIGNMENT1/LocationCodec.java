@@ -0,0 +1,264 @@
+package railway;
+
+/**
+ * <p>
+ * Provides methods that encode the locations on a frozen track (a TrackGraph)
+ * as long values, so that code which handles many locations can work with
+ * primitives, and only create Location objects when they are needed.
+ * </p>
+ *
+ * <p>
+ * The code of a location is its canonical description (as used by
+ * Location.equals) in terms of the numbers of the graph:
+ * </p>
+ *
+ * <ul>
+ * <li>a location at junction j is encoded as (j << 32), and</li>
+ * <li>a location that is not at a junction is encoded as (s << 32 | o), where
+ * s is the number of its section and o is its offset from the first
+ * end-point of the section, graph.endPoint(s, 0), which is its canonical
+ * end-point. Since the location is not at a junction, 0 < o < the length of
+ * the section.</li>
+ * </ul>
+ *
+ * <p>
+ * The offset of a location at a junction is zero, which distinguishes the two
+ * kinds of codes. Two locations on the same track are equivalent if and only
+ * if their codes are equal, and the codes of the locations on a section that
+ * are not at a junction are ordered by their offsets from its canonical
+ * end-point.
+ * </p>
+ */
+public class LocationCodec {
+
+    /**
+     * Returns the code of the location at the junction with the given number.
+     *
+     * @require junction >= 0
+     * @param junction
+     *            the number of a junction
+     * @return the code of the location at the junction
+     */
+    public static long atJunction(int junction) {
+        return (long) junction << 32;
+    }
+
+    /**
+     * Returns the code of the location at the given offset from the canonical
+     * end-point of the section with the given number.
+     *
+     * @require section >= 0 && 0 < offset < the length of the section
+     * @param section
+     *            the number of a section
+     * @param offset
+     *            the distance of the location from the canonical end-point of
+     *            the section
+     * @return the code of the location
+     */
+    public static long alongSection(int section, int offset) {
+        return (long) section << 32 | offset;
+    }
+
+    /**
+     * Returns the code of the given location, or -1 if the section of the
+     * location is not a section of the given graph.
+     *
+     * @param graph
+     *            the graph that the location is on
+     * @param location
+     *            the location to encode
+     * @return the code of the location, or -1
+     * @throws NullPointerException
+     *             if graph or location is null
+     */
+    public static long encode(TrackGraph graph, Location location)
+            throws NullPointerException {
+        int section = graph.sectionNumber(location.getSection());
+        if (section == -1) {
+            return -1;
+        }
+        if (location.atAJunction()) {
+            return atJunction(graph.junctionNumber(location.getEndPoint()
+                    .getJunction()));
+        }
+        int offset = location.getOffset();
+        if (graph.endPointNumber(location.getEndPoint()) != graph.endPoint(
+                section, 0)) {
+            offset = graph.length(section) - offset;
+        }
+        return alongSection(section, offset);
+    }
+
+    /**
+     * Returns a location with the given code. A location at a junction is
+     * returned as the location at offset zero from an end-point of the
+     * junction that is connected to a section.
+     *
+     * @require code is the code of a location on the given graph
+     * @param graph
+     *            the graph that the location is on
+     * @param code
+     *            the code of the location
+     * @return a location with the given code
+     */
+    public static Location decode(TrackGraph graph, long code) {
+        if (atAJunction(code)) {
+            int junction = junction(code);
+            for (Branch branch : Branch.values()) {
+                int endPoint = JunctionRegistry.endPointId(junction, branch);
+                int section = graph.sectionAt(endPoint);
+                if (section != -1) {
+                    return new Location(graph.getSection(section),
+                            graph.getEndPoint(endPoint), 0);
+                }
+            }
+            throw new IllegalArgumentException(
+                    "The junction is not connected to a section.");
+        }
+        int section = section(code);
+        return new Location(graph.getSection(section),
+                graph.getEndPoint(graph.endPoint(section, 0)), offset(code));
+    }
+
+    /**
+     * Returns true if the location with the given code is at a junction.
+     *
+     * @param code
+     *            the code of a location
+     * @return true iff the location is at a junction
+     */
+    public static boolean atAJunction(long code) {
+        return (int) code == 0;
+    }
+
+    /**
+     * Returns the number of the junction of the location with the given code.
+     *
+     * @require atAJunction(code)
+     * @param code
+     *            the code of a location at a junction
+     * @return the number of the junction of the location
+     */
+    public static int junction(long code) {
+        return (int) (code >>> 32);
+    }
+
+    /**
+     * Returns the number of the section of the location with the given code.
+     *
+     * @require !atAJunction(code)
+     * @param code
+     *            the code of a location that is not at a junction
+     * @return the number of the section of the location
+     */
+    public static int section(long code) {
+        return (int) (code >>> 32);
+    }
+
+    /**
+     * Returns the offset of the location with the given code from the
+     * canonical end-point of its section, or zero if the location is at a
+     * junction.
+     *
+     * @param code
+     *            the code of a location
+     * @return the offset of the location
+     */
+    public static int offset(long code) {
+        return (int) code;
+    }
+
+    /**
+     * Returns true if the location with the given code lies on the section
+     * with the given number (as for Location.onSection).
+     *
+     * @param graph
+     *            the graph that the location is on
+     * @param code
+     *            the code of a location
+     * @param section
+     *            the number of a section
+     * @return true iff the location lies on the section
+     */
+    public static boolean onSection(TrackGraph graph, long code, int section) {
+        if (!atAJunction(code)) {
+            return section(code) == section;
+        }
+        int junction = junction(code);
+        return JunctionRegistry.junctionId(graph.endPoint(section, 0))
+                == junction
+                || JunctionRegistry.junctionId(graph.endPoint(section, 1))
+                == junction;
+    }
+
+    /**
+     * Returns the distance of the location with the given code from the
+     * canonical end-point of the section with the given number. A location at
+     * the junction of the canonical end-point has position zero, and a
+     * location at the junction of the other end-point (only) has the length
+     * of the section as its position.
+     *
+     * @require onSection(graph, code, section)
+     * @param graph
+     *            the graph that the location is on
+     * @param code
+     *            the code of a location
+     * @param section
+     *            the number of a section that the location lies on
+     * @return the position of the location along the section
+     */
+    public static int position(TrackGraph graph, long code, int section) {
+        if (!atAJunction(code)) {
+            return offset(code);
+        }
+        int canonical = JunctionRegistry.junctionId(graph.endPoint(section, 0));
+        return (canonical == junction(code)) ? 0 : graph.length(section);
+    }
+
+    /**
+     * Returns the distance along the section with the given number between
+     * the locations with the given codes.
+     *
+     * @require onSection(graph, code1, section) && onSection(graph, code2,
+     *          section)
+     * @param graph
+     *            the graph that the locations are on
+     * @param code1
+     *            the code of a location
+     * @param code2
+     *            the code of another location
+     * @param section
+     *            the number of a section that both locations lie on
+     * @return the distance between the locations along the section
+     */
+    public static int distance(TrackGraph graph, long code1, long code2,
+            int section) {
+        return Math.abs(position(graph, code1, section)
+                - position(graph, code2, section));
+    }
+
+    /**
+     * Compares the positions along the section with the given number of the
+     * locations with the given codes. The result is negative, zero or
+     * positive if the first location is closer to, as close to, or further
+     * from the canonical end-point of the section than the second.
+     *
+     * @require onSection(graph, code1, section) && onSection(graph, code2,
+     *          section)
+     * @param graph
+     *            the graph that the locations are on
+     * @param code1
+     *            the code of a location
+     * @param code2
+     *            the code of another location
+     * @param section
+     *            the number of a section that both locations lie on
+     * @return the order of the locations along the section
+     */
+    public static int compare(TrackGraph graph, long code1, long code2,
+            int section) {
+        return Integer.compare(position(graph, code1, section),
+                position(graph, code2, section));
+    }
+
+}
@@ -0,0 +1,405 @@
+package railway;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.*;
+
+/**
+ * <p>
+ * An immutable view of the layout of a railway track that is stored outside
+ * of the Java heap, created by Track.freezeOffHeap().
+ * </p>
+ *
+ * <p>
+ * The sections, junctions and end-points of the track are numbered as in
+ * TrackGraph, and this class provides the same numeric operations. However,
+ * all of the data, including the junction identifiers and a hash table for
+ * looking junctions up by identifier, is stored in a single direct byte
+ * buffer, so the heap only holds this object and its buffer views no matter
+ * how large the track is.
+ * </p>
+ *
+ * <p>
+ * Section, Junction and JunctionBranch objects are not stored: they are
+ * created when they are returned by a method (e.g. by getSection, or while
+ * iterating over the sections of the track).
+ * </p>
+ */
+public class OffHeapTrackGraph implements TrackView {
+
+    // the number of sections and junctions of the track
+    private int sectionCount;
+    private int junctionCount;
+    // the number of slots of the junction hash table (a power of two)
+    private int tableSize;
+    // the positions in ints of each region of the buffer
+    private int endPointsBase;
+    private int adjacencyBase;
+    private int namesBase;
+    private int tableBase;
+    // the integers of the buffer:
+    // - the length of each section,
+    // - the two end-points of each section,
+    // - the section connected to each end-point, or -1,
+    // - the position in names of the identifier of each junction, followed
+    // by the total length of the identifiers, and
+    // - the hash table: (junction number + 1) in each used slot, 0 otherwise
+    private IntBuffer ints;
+    // the characters of the junction identifiers
+    private CharBuffer names;
+
+    /*
+     * invariant: ints and names are views of direct buffers && the contents
+     * of ints and names describe the same track as the TrackGraph this was
+     * created from
+     */
+
+    /**
+     * Creates an off-heap copy of the given view of a track.
+     *
+     * @require graph != null
+     * @param graph
+     *            the view to copy
+     */
+    OffHeapTrackGraph(TrackGraph graph) {
+        sectionCount = graph.sectionCount();
+        junctionCount = graph.junctionCount();
+        tableSize = 1;
+        while (tableSize < 2 * junctionCount) {
+            tableSize *= 2;
+        }
+        endPointsBase = sectionCount;
+        adjacencyBase = endPointsBase + 2 * sectionCount;
+        namesBase = adjacencyBase + 4 * junctionCount;
+        tableBase = namesBase + junctionCount + 1;
+        int intCount = tableBase + tableSize;
+        int charCount = 0;
+        for (int j = 0; j < junctionCount; j++) {
+            charCount += graph.getJunction(j).getJunctionId().length();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4 * intCount + 2
+                * charCount);
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.limit(4 * intCount);
+        ints = buffer.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+        buffer.limit(buffer.capacity()).position(4 * intCount);
+        names = buffer.slice().order(ByteOrder.nativeOrder()).asCharBuffer();
+
+        for (int s = 0; s < sectionCount; s++) {
+            ints.put(s, graph.length(s));
+            ints.put(endPointsBase + 2 * s, graph.endPoint(s, 0));
+            ints.put(endPointsBase + 2 * s + 1, graph.endPoint(s, 1));
+        }
+        for (int e = 0; e < 4 * junctionCount; e++) {
+            ints.put(adjacencyBase + e, graph.sectionAt(e));
+        }
+        int position = 0; // the position of the next identifier in names
+        for (int j = 0; j < junctionCount; j++) {
+            String name = graph.getJunction(j).getJunctionId();
+            ints.put(namesBase + j, position);
+            for (int i = 0; i < name.length(); i++) {
+                names.put(position++, name.charAt(i));
+            }
+            int slot = slot(name);
+            while (ints.get(tableBase + slot) != 0) {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            ints.put(tableBase + slot, j + 1);
+        }
+        ints.put(namesBase + junctionCount, position);
+    }
+
+    /**
+     * Returns the number of sections of the track.
+     *
+     * @return the number of sections
+     */
+    public int sectionCount() {
+        return sectionCount;
+    }
+
+    /**
+     * Returns the number of junctions of the track.
+     *
+     * @return the number of junctions
+     */
+    public int junctionCount() {
+        return junctionCount;
+    }
+
+    /**
+     * Returns the length of the section with the given number.
+     *
+     * @param section
+     *            the number of a section
+     * @return the length of the section
+     */
+    public int length(int section) {
+        return ints.get(section);
+    }
+
+    /**
+     * Returns the number of the first (which == 0) or second (which == 1)
+     * end-point of the section with the given number. The first end-point is
+     * the canonical end-point of the section.
+     *
+     * @param section
+     *            the number of a section
+     * @param which
+     *            0 or 1
+     * @return the number of the end-point
+     */
+    public int endPoint(int section, int which) {
+        return ints.get(endPointsBase + 2 * section + which);
+    }
+
+    /**
+     * Returns the number of the end-point at the other end of the given
+     * section to the given end-point.
+     *
+     * @param section
+     *            the number of a section
+     * @param endPoint
+     *            the number of an end-point of the section
+     * @return the number of the other end-point of the section
+     */
+    public int otherEndPoint(int section, int endPoint) {
+        int first = endPoint(section, 0);
+        return (first == endPoint) ? endPoint(section, 1) : first;
+    }
+
+    /**
+     * Returns the number of the section connected to the end-point with the
+     * given number, or -1 if there is none.
+     *
+     * @param endPoint
+     *            the number of an end-point of a junction of the track
+     * @return the number of the section connected to the end-point, or -1
+     */
+    public int sectionAt(int endPoint) {
+        return ints.get(adjacencyBase + endPoint);
+    }
+
+    /**
+     * Returns the number of the given junction, or -1 if it is not a junction
+     * of the track.
+     *
+     * @param junction
+     *            the junction whose number is returned
+     * @return the number of the junction, or -1
+     */
+    public int junctionNumber(Junction junction) {
+        if (junction == null || junctionCount == 0) {
+            return -1;
+        }
+        String name = junction.getJunctionId();
+        int slot = slot(name);
+        int entry;
+        while ((entry = ints.get(tableBase + slot)) != 0) {
+            if (nameEquals(entry - 1, name)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & (tableSize - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of the given end-point, or -1 if its junction is not
+     * a junction of the track.
+     *
+     * @param endPoint
+     *            the end-point whose number is returned
+     * @return the number of the end-point, or -1
+     */
+    public int endPointNumber(JunctionBranch endPoint) {
+        int junction = junctionNumber(endPoint.getJunction());
+        return (junction == -1) ? -1 : JunctionRegistry.endPointId(junction,
+                endPoint.getBranch());
+    }
+
+    /**
+     * Returns a junction equivalent to the junction with the given number.
+     *
+     * @param junction
+     *            the number of a junction, 0 <= junction < junctionCount()
+     * @return the junction with the given number
+     */
+    public Junction getJunction(int junction) {
+        int start = ints.get(namesBase + junction);
+        int end = ints.get(namesBase + junction + 1);
+        char[] name = new char[end - start];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = names.get(start + i);
+        }
+        return new Junction(new String(name));
+    }
+
+    /**
+     * Returns the end-point with the given number.
+     *
+     * @param endPoint
+     *            the number of an end-point of a junction of the track
+     * @return the end-point with the given number
+     */
+    public JunctionBranch getEndPoint(int endPoint) {
+        // the junction is new, so a canonical end-point would only add the
+        // other two end-points of the junction to the garbage
+        return new JunctionBranch(
+                getJunction(JunctionRegistry.junctionId(endPoint)),
+                JunctionRegistry.branch(endPoint));
+    }
+
+    /**
+     * Returns a section equivalent to the section with the given number.
+     *
+     * @param section
+     *            the number of a section, 0 <= section < sectionCount()
+     * @return the section with the given number
+     */
+    public Section getSection(int section) {
+        return new Section(length(section), getEndPoint(endPoint(section, 0)),
+                getEndPoint(endPoint(section, 1)));
+    }
+
+    /**
+     * Returns the number of the given section, or -1 if it is not a section
+     * of the track.
+     *
+     * @param section
+     *            the section whose number is returned
+     * @return the number of the section, or -1
+     */
+    public int sectionNumber(Section section) {
+        if (section == null) {
+            return -1;
+        }
+        int number = -1;
+        for (JunctionBranch endPoint : section.getEndPoints()) {
+            int e = endPointNumber(endPoint);
+            int s = (e == -1) ? -1 : sectionAt(e);
+            if (s == -1 || (number != -1 && s != number)) {
+                return -1;
+            }
+            number = s;
+        }
+        return (length(number) == section.getLength()) ? number : -1;
+    }
+
+    @Override
+    public boolean contains(Section section) {
+        return sectionNumber(section) != -1;
+    }
+
+    /**
+     * Returns a new set of junctions equivalent to the junctions of the track.
+     */
+    @Override
+    public Set<Junction> getJunctions() {
+        Set<Junction> junctions = new HashSet<Junction>();
+        for (int j = 0; j < junctionCount; j++) {
+            junctions.add(getJunction(j));
+        }
+        return junctions;
+    }
+
+    @Override
+    public Section getTrackSection(Junction junction, Branch branch) {
+        int number = junctionNumber(junction);
+        if (number == -1) {
+            return null;
+        }
+        int section = sectionAt(JunctionRegistry.endPointId(number, branch));
+        return (section == -1) ? null : getSection(section);
+    }
+
+    /**
+     * Returns an iterator over the sections of the track, in order of their
+     * numbers. Each section is created when it is returned by the iterator.
+     */
+    @Override
+    public Iterator<Section> iterator() {
+        return new Iterator<Section>() {
+
+            // the number of the next section to return
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < sectionCount;
+            }
+
+            @Override
+            public Section next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getSection(next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns the first slot of the hash table to probe for the given
+     * identifier.
+     */
+    private int slot(String name) {
+        int hash = name.hashCode();
+        return (hash ^ (hash >>> 16)) & (tableSize - 1);
+    }
+
+    /**
+     * Returns true if the identifier of the junction with the given number is
+     * the given name.
+     */
+    private boolean nameEquals(int junction, String name) {
+        int start = ints.get(namesBase + junction);
+        int end = ints.get(namesBase + junction + 1);
+        if (end - start != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (names.get(start + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determines whether this class is internally consistent (i.e. it satisfies
+     * its class invariant).
+     *
+     * This method is only intended for testing purposes.
+     *
+     * @return true if this class is internally consistent, and false otherwise.
+     */
+    public boolean checkInvariant() {
+        if (ints == null || names == null || !ints.isDirect()
+                || !names.isDirect()) {
+            return false;
+        }
+        for (int s = 0; s < sectionCount; s++) {
+            for (int which = 0; which < 2; which++) {
+                if (sectionAt(endPoint(s, which)) != s) {
+                    return false;
+                }
+            }
+        }
+        for (int j = 0; j < junctionCount; j++) {
+            if (junctionNumber(getJunction(j)) != j) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
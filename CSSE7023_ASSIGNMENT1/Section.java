@@ -33,8 +33,24 @@ import java.util.*;
  */
 public class Section {
 
-    // REMOVE THIS LINE AND INSERT YOUR INSTANCE VARIABLES AND IMPLEMENTATION
-    // INVARIANT HERE
+    // the length of the section in meters
+    private int length;
+    // the two end-points of the section
+    private JunctionBranch endPoint1;
+    private JunctionBranch endPoint2;
+    // an unmodifiable set of the two end-points, created once since the
+    // end-points never change
+    private Set<JunctionBranch> endPoints;
+    // the end-point that comes first in the order of junction identifiers
+    // and then branches
+    private JunctionBranch canonicalEndPoint;
+
+    /*
+     * invariant: length > 0 && endPoint1 != null && endPoint2 != null &&
+     * !endPoint1.equals(endPoint2) && endPoints is the set {endPoint1,
+     * endPoint2} && canonicalEndPoint is the first of endPoint1 and endPoint2
+     * in the order of junction identifiers and then branches
+     */
 
     /**
      * Creates a new section with the given length (in meters) and end-points.
@@ -57,7 +73,27 @@ public class Section {
     public Section(int length, JunctionBranch endPoint1,
             JunctionBranch endPoint2) throws NullPointerException,
             IllegalArgumentException {
-        // REMOVE THIS LINE AND WRITE THIS METHOD
+        if (endPoint1 == null || endPoint2 == null) {
+            throw new NullPointerException(
+                    "The end-points of a section cannot be null.");
+        }
+        if (length <= 0) {
+            throw new IllegalArgumentException(
+                    "The length of a section must be positive.");
+        }
+        if (endPoint1.equals(endPoint2)) {
+            throw new IllegalArgumentException(
+                    "The end-points of a section must not be equivalent.");
+        }
+        this.length = length;
+        this.endPoint1 = endPoint1;
+        this.endPoint2 = endPoint2;
+        Set<JunctionBranch> set = new HashSet<JunctionBranch>(4);
+        set.add(endPoint1);
+        set.add(endPoint2);
+        this.endPoints = Collections.unmodifiableSet(set);
+        this.canonicalEndPoint = (compare(endPoint1, endPoint2) < 0) ? endPoint1
+                : endPoint2;
     }
 
     /**
@@ -66,7 +102,7 @@ public class Section {
      * @return the length of the section
      */
     public int getLength() {
-        return -1; // REMOVE THIS LINE AND WRITE THIS METHOD
+        return length;
     }
 
     /**
@@ -75,7 +111,21 @@ public class Section {
      * @return a set of the end-points of the section.
      */
     public Set<JunctionBranch> getEndPoints() {
-        return null; // REMOVE THIS LINE AND WRITE THIS METHOD
+        return endPoints;
+    }
+
+    /**
+     * Returns the canonical end-point of the section: the end-point whose
+     * junction has the smallest identifier, or if both end-points are at the
+     * same junction, the end-point whose branch comes first. The choice only
+     * depends on the end-points themselves, so equivalent sections have
+     * equivalent canonical end-points, which can be used to give a single
+     * description of a location on the section.
+     * 
+     * @return the canonical end-point of the section
+     */
+    public JunctionBranch getCanonicalEndPoint() {
+        return canonicalEndPoint;
     }
 
     /**
@@ -91,7 +141,14 @@ public class Section {
      * @return the end-point at the opposite end of the section to endPoint
      */
     public JunctionBranch otherEndPoint(JunctionBranch endPoint) {
-        return null; // REMOVE THIS LINE AND WRITE THIS METHOD
+        if (endPoint1.equals(endPoint)) {
+            return endPoint2;
+        }
+        if (endPoint2.equals(endPoint)) {
+            return endPoint1;
+        }
+        throw new IllegalArgumentException(
+                "The end-point is not an end-point of this section.");
     }
 
     /**
@@ -112,7 +169,7 @@ public class Section {
      */
     @Override
     public String toString() {
-        return null; // REMOVE THIS LINE AND WRITE THIS METHOD
+        return length + " " + endPoint1 + " " + endPoint2;
     }
 
     /**
@@ -130,12 +187,32 @@ public class Section {
      */
     @Override
     public boolean equals(Object object) {
-        return super.equals(object); // REMOVE THIS LINE AND WRITE THIS METHOD
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof Section)) {
+            return false;
+        }
+        Section other = (Section) object; // the section to compare
+        if (length != other.length) {
+            return false;
+        }
+        return (endPoint1.equals(other.endPoint1) && endPoint2
+                .equals(other.endPoint2))
+                || (endPoint1.equals(other.endPoint2) && endPoint2
+                        .equals(other.endPoint1));
     }
 
     @Override
     public int hashCode() {
-        return super.hashCode(); // REMOVE THIS LINE AND WRITE THIS METHOD
+        // the end-points are combined symmetrically, since they may be given
+        // in either order
+        final int prime = 31; // an odd base prime
+        int result = 1; // the hash code under construction
+        result = prime * result + length;
+        result = prime * result
+                + (endPoint1.hashCode() + endPoint2.hashCode());
+        return result;
     }
 
     /**
@@ -147,7 +224,24 @@ public class Section {
      * @return true if this class is internally consistent, and false otherwise.
      */
     public boolean checkInvariant() {
-        return true; // REMOVE THIS LINE AND WRITE THIS METHOD
+        return (length > 0 && endPoint1 != null && endPoint2 != null
+                && !endPoint1.equals(endPoint2) && endPoints != null
+                && endPoints.size() == 2 && endPoints.contains(endPoint1)
+                && endPoints.contains(endPoint2)
+                && canonicalEndPoint == ((compare(endPoint1, endPoint2) < 0)
+                        ? endPoint1 : endPoint2));
+    }
+
+    /**
+     * Orders end-points by junction identifier and then by branch.
+     */
+    private static int compare(JunctionBranch a, JunctionBranch b) {
+        int result = a.getJunction().getJunctionId()
+                .compareTo(b.getJunction().getJunctionId());
+        if (result == 0) {
+            result = a.getBranch().compareTo(b.getBranch());
+        }
+        return result;
     }
 
 }
@@ -19,16 +19,49 @@ import java.util.*;
  * </p>
  *
  */
-public class Track implements Iterable<Section> {
+public class Track implements TrackView {
 
-    // REMOVE THIS LINE AND INSERT YOUR INSTANCE VARIABLES AND IMPLEMENTATION
-    // INVARIANT HERE
+    // the sections of the track
+    private Set<Section> sections;
+    // the junctions of the track: those connected to at least one section
+    private Set<Junction> junctions;
+    // the junctions that have been connected to a section of the track, with
+    // their ids
+    private JunctionRegistry registry;
+    // the section connected to each end-point, indexed by the id of the
+    // end-point in the registry, or null if there is no such section
+    private Section[] adjacency;
+    // the number of sections connected to each junction, indexed by the id of
+    // the junction in the registry
+    private int[] degrees;
+    // the listeners to notify when a section is added or removed
+    private List<TrackListener> listeners;
+
+    /*
+     * invariant: sections != null && !sections.contains(null) && junctions !=
+     * null && registry != null && adjacency.length >= 4 * registry.size() &&
+     * degrees.length >= registry.size() &&
+     * 
+     * for each endPoint of each section in sections, adjacency[the id of
+     * endPoint] is that section, and adjacency has no other non-null elements
+     * &&
+     * 
+     * for each junction in the registry, degrees[its id] is the number of
+     * sections connected to the junction, and it is in junctions if and only
+     * if that number is positive && listeners != null &&
+     * !listeners.contains(null)
+     */
 
     /**
      * Creates a new track with no sections.
      */
     public Track() {
-        // REMOVE THIS LINE AND WRITE THIS METHOD
+        sections = new LinkedHashSet<Section>();
+        junctions = new HashSet<Junction>();
+        registry = new JunctionRegistry();
+        adjacency = new Section[16];
+        degrees = new int[4];
+        listeners = new ArrayList<TrackListener>();
     }
 
     /**
@@ -71,7 +104,32 @@ public class Track implements Iterable<Section> {
      */
     public void addSection(Section section) throws NullPointerException,
             IllegalArgumentException {
-        // REMOVE THIS LINE AND WRITE THIS METHOD
+        if (section == null) {
+            throw new NullPointerException("The section cannot be null.");
+        }
+        if (sections.contains(section)) {
+            return;
+        }
+        for (JunctionBranch endPoint : section.getEndPoints()) {
+            if (getSection(registry.getId(endPoint)) != null) {
+                throw new InvalidTrackException(
+                        "The track already has a section connected to "
+                                + endPoint + ".");
+            }
+        }
+        for (JunctionBranch endPoint : section.getEndPoints()) {
+            int id = registry.register(endPoint);
+            int junctionId = JunctionRegistry.junctionId(id);
+            ensureCapacity(registry.size());
+            adjacency[id] = section;
+            if (degrees[junctionId]++ == 0) {
+                junctions.add(registry.getJunction(junctionId));
+            }
+        }
+        sections.add(section);
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).sectionAdded(section);
+        }
     }
 
     /**
@@ -83,7 +141,49 @@ public class Track implements Iterable<Section> {
      *            the section to be removed from the track
      */
     public void removeSection(Section section) {
-        // REMOVE THIS LINE AND WRITE THIS METHOD
+        if (section == null || !sections.remove(section)) {
+            return;
+        }
+        for (JunctionBranch endPoint : section.getEndPoints()) {
+            int id = registry.getId(endPoint);
+            int junctionId = JunctionRegistry.junctionId(id);
+            adjacency[id] = null;
+            if (--degrees[junctionId] == 0) {
+                junctions.remove(registry.getJunction(junctionId));
+            }
+        }
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).sectionRemoved(section);
+        }
+    }
+
+    /**
+     * Registers the given listener to be notified after each section that is
+     * added to or removed from the track. A listener that is registered more
+     * than once is notified once for each time it was registered.
+     * 
+     * @param listener
+     *            the listener to register
+     * @throws NullPointerException
+     *             if listener is null
+     */
+    public void addListener(TrackListener listener)
+            throws NullPointerException {
+        if (listener == null) {
+            throw new NullPointerException("The listener cannot be null.");
+        }
+        listeners.add(listener);
+    }
+
+    /**
+     * Stops notifying the given listener of changes to the track. If the
+     * listener was not registered, then this method has no effect.
+     * 
+     * @param listener
+     *            the listener to unregister
+     */
+    public void removeListener(TrackListener listener) {
+        listeners.remove(listener);
     }
 
     /**
@@ -95,7 +195,7 @@ public class Track implements Iterable<Section> {
      *         given parameter.
      */
     public boolean contains(Section section) {
-        return false; // REMOVE THIS LINE AND WRITE THIS METHOD
+        return sections.contains(section);
     }
 
     /**
@@ -105,7 +205,7 @@ public class Track implements Iterable<Section> {
      * @return The set of junctions in the track.
      */
     public Set<Junction> getJunctions() {
-        return null; // REMOVE THIS LINE AND WRITE THIS METHOD
+        return Collections.unmodifiableSet(junctions);
     }
 
     /**
@@ -122,7 +222,11 @@ public class Track implements Iterable<Section> {
      *         given branch, if there is one, otherwise null
      */
     public Section getTrackSection(Junction junction, Branch branch) {
-        return null; // REMOVE THIS LINE AND WRITE THIS METHOD
+        int junctionId = registry.getId(junction);
+        if (junctionId == -1) {
+            return null;
+        }
+        return adjacency[JunctionRegistry.endPointId(junctionId, branch)];
     }
 
     /**
@@ -131,7 +235,30 @@ public class Track implements Iterable<Section> {
      */
     @Override
     public Iterator<Section> iterator() {
-        return null; // REMOVE THIS LINE AND WRITE THIS METHOD
+        // the sections cannot be removed through the iterator, since that
+        // would bypass the adjacency index
+        return Collections.unmodifiableSet(sections).iterator();
+    }
+
+    /**
+     * Returns an immutable, array-based view of the current layout of the
+     * track. Later changes to the track are not reflected in the view.
+     * 
+     * @return a view of the sections and junctions of the track
+     */
+    public TrackGraph freeze() {
+        return new TrackGraph(sections);
+    }
+
+    /**
+     * Returns an immutable view of the current layout of the track that is
+     * stored outside of the Java heap. Later changes to the track are not
+     * reflected in the view.
+     * 
+     * @return an off-heap view of the sections and junctions of the track
+     */
+    public OffHeapTrackGraph freezeOffHeap() {
+        return new OffHeapTrackGraph(freeze());
     }
 
     /**
@@ -145,7 +272,15 @@ public class Track implements Iterable<Section> {
      */
     @Override
     public String toString() {
-        return null; // REMOVE THIS LINE AND WRITE THIS METHOD
+        String separator = System.getProperty("line.separator");
+        StringBuilder result = new StringBuilder();
+        for (Section section : sections) {
+            if (result.length() > 0) {
+                result.append(separator);
+            }
+            result.append(section);
+        }
+        return result.toString();
     }
 
     /**
@@ -157,7 +292,58 @@ public class Track implements Iterable<Section> {
      * @return true if this class is internally consistent, and false otherwise.
      */
     public boolean checkInvariant() {
-        return true; // REMOVE THIS LINE AND WRITE THIS METHOD
+        if (sections == null || junctions == null || registry == null
+                || listeners == null || listeners.contains(null)
+                || adjacency.length < 4 * registry.size()
+                || degrees.length < registry.size()) {
+            return false;
+        }
+        int connected = 0; // the number of end-points with a section
+        for (Section section : adjacency) {
+            if (section != null) {
+                connected++;
+            }
+        }
+        if (connected != 2 * sections.size()) {
+            return false;
+        }
+        for (Section section : sections) {
+            for (JunctionBranch endPoint : section.getEndPoints()) {
+                if (getSection(registry.getId(endPoint)) != section) {
+                    return false;
+                }
+            }
+        }
+        for (int id = 0; id < registry.size(); id++) {
+            if ((degrees[id] > 0) != junctions
+                    .contains(registry.getJunction(id))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the section connected to the end-point with the given id, or
+     * null if there is none (or the id is -1).
+     */
+    private Section getSection(int endPointId) {
+        if (endPointId == -1) {
+            return null;
+        }
+        return adjacency[endPointId];
+    }
+
+    /**
+     * Makes sure that the adjacency and degrees arrays have room for the
+     * given number of junctions.
+     */
+    private void ensureCapacity(int junctionCount) {
+        if (degrees.length < junctionCount) {
+            int capacity = Math.max(junctionCount, 2 * degrees.length);
+            degrees = Arrays.copyOf(degrees, capacity);
+            adjacency = Arrays.copyOf(adjacency, 4 * capacity);
+        }
     }
 
 }
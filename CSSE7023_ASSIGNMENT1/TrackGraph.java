@@ -0,0 +1,334 @@
+package railway;
+
+import java.util.*;
+
+/**
+ * <p>
+ * An immutable, array-based view of the layout of a railway track, created by
+ * Track.freeze().
+ * </p>
+ *
+ * <p>
+ * The sections of the track are numbered 0 to sectionCount() - 1 and the
+ * junctions of the track are numbered 0 to junctionCount() - 1. The end-point
+ * on branch b of junction j is numbered (j << 2 | b.ordinal()), as in
+ * JunctionRegistry. The topology of the track is stored in primitive arrays
+ * indexed by these numbers, so that code which walks the track can work with
+ * ints rather than Section, Junction and JunctionBranch objects:
+ * </p>
+ *
+ * <ul>
+ * <li>the length of each section,</li>
+ * <li>the two end-points of each section, with the canonical end-point of the
+ * section (see Section.getCanonicalEndPoint) first, and</li>
+ * <li>the section connected to each end-point, or -1 if there is none.</li>
+ * </ul>
+ *
+ * <p>
+ * Changes to the track after it is frozen are not reflected in the view.
+ * </p>
+ */
+public class TrackGraph implements TrackView {
+
+    // the sections and junctions of the track, indexed by their numbers
+    private Section[] sections;
+    private Junction[] junctions;
+    // the number of each section and junction
+    private Map<Section, Integer> sectionNumbers;
+    private Map<Junction, Integer> junctionNumbers;
+    // the length of each section
+    private int[] lengths;
+    // the two end-points of section s are endPoints[2 * s] and
+    // endPoints[2 * s + 1]
+    private int[] endPoints;
+    // the section connected to each end-point, or -1
+    private int[] adjacency;
+
+    /*
+     * invariant: for each 0 <= s < sections.length, lengths[s] is the length
+     * of sections[s], endPoints[2 * s] and endPoints[2 * s + 1] are the
+     * numbers of its end-points, and adjacency[e] == s for each of those
+     * end-points e && adjacency has no other elements except -1 &&
+     * sectionNumbers and junctionNumbers are the inverses of sections and
+     * junctions
+     */
+
+    /**
+     * Creates a view of the given sections, which must form a valid track.
+     *
+     * @require sections != null && !sections.contains(null) && no two
+     *          sections are equivalent or have a common end-point
+     * @param sections
+     *            the sections of the track
+     */
+    TrackGraph(Collection<Section> sections) {
+        this.sections = sections.toArray(new Section[sections.size()]);
+        sectionNumbers = new HashMap<Section, Integer>();
+        junctionNumbers = new HashMap<Junction, Integer>();
+        List<Junction> junctionList = new ArrayList<Junction>();
+        lengths = new int[this.sections.length];
+        endPoints = new int[2 * this.sections.length];
+        for (int s = 0; s < this.sections.length; s++) {
+            Section section = this.sections[s];
+            sectionNumbers.put(section, s);
+            lengths[s] = section.getLength();
+            JunctionBranch canonical = section.getCanonicalEndPoint();
+            JunctionBranch[] ends = { canonical,
+                    section.otherEndPoint(canonical) };
+            for (int k = 0; k < 2; k++) {
+                JunctionBranch endPoint = ends[k];
+                Integer junction = junctionNumbers.get(endPoint.getJunction());
+                if (junction == null) {
+                    junction = junctionList.size();
+                    junctionList.add(endPoint.getJunction());
+                    junctionNumbers.put(endPoint.getJunction(), junction);
+                }
+                endPoints[2 * s + k] = JunctionRegistry.endPointId(junction,
+                        endPoint.getBranch());
+            }
+        }
+        junctions = junctionList.toArray(new Junction[junctionList.size()]);
+        adjacency = new int[4 * junctions.length];
+        Arrays.fill(adjacency, -1);
+        for (int e = 0; e < endPoints.length; e++) {
+            adjacency[endPoints[e]] = e / 2;
+        }
+    }
+
+    /**
+     * Returns the number of sections of the track.
+     *
+     * @return the number of sections
+     */
+    public int sectionCount() {
+        return sections.length;
+    }
+
+    /**
+     * Returns the number of junctions of the track.
+     *
+     * @return the number of junctions
+     */
+    public int junctionCount() {
+        return junctions.length;
+    }
+
+    /**
+     * Returns the section with the given number.
+     *
+     * @param section
+     *            the number of a section, 0 <= section < sectionCount()
+     * @return the section with the given number
+     */
+    public Section getSection(int section) {
+        return sections[section];
+    }
+
+    /**
+     * Returns the number of the given section, or -1 if it is not a section
+     * of the track.
+     *
+     * @param section
+     *            the section whose number is returned
+     * @return the number of the section, or -1
+     */
+    public int sectionNumber(Section section) {
+        Integer number = sectionNumbers.get(section);
+        return (number == null) ? -1 : number;
+    }
+
+    /**
+     * Returns the junction with the given number.
+     *
+     * @param junction
+     *            the number of a junction, 0 <= junction < junctionCount()
+     * @return the junction with the given number
+     */
+    public Junction getJunction(int junction) {
+        return junctions[junction];
+    }
+
+    /**
+     * Returns the number of the given junction, or -1 if it is not a junction
+     * of the track.
+     *
+     * @param junction
+     *            the junction whose number is returned
+     * @return the number of the junction, or -1
+     */
+    public int junctionNumber(Junction junction) {
+        Integer number = junctionNumbers.get(junction);
+        return (number == null) ? -1 : number;
+    }
+
+    /**
+     * Returns the number of the given end-point, or -1 if its junction is not
+     * a junction of the track.
+     *
+     * @param endPoint
+     *            the end-point whose number is returned
+     * @return the number of the end-point, or -1
+     */
+    public int endPointNumber(JunctionBranch endPoint) {
+        int junction = junctionNumber(endPoint.getJunction());
+        return (junction == -1) ? -1 : JunctionRegistry.endPointId(junction,
+                endPoint.getBranch());
+    }
+
+    /**
+     * Returns the end-point with the given number.
+     *
+     * @param endPoint
+     *            the number of an end-point of a junction of the track
+     * @return the end-point with the given number
+     */
+    public JunctionBranch getEndPoint(int endPoint) {
+        return JunctionBranch.of(
+                junctions[JunctionRegistry.junctionId(endPoint)],
+                JunctionRegistry.branch(endPoint));
+    }
+
+    /**
+     * Returns the length of the section with the given number.
+     *
+     * @param section
+     *            the number of a section
+     * @return the length of the section
+     */
+    public int length(int section) {
+        return lengths[section];
+    }
+
+    /**
+     * Returns the number of the first (which == 0) or second (which == 1)
+     * end-point of the section with the given number. The first end-point is
+     * the canonical end-point of the section.
+     *
+     * @param section
+     *            the number of a section
+     * @param which
+     *            0 or 1
+     * @return the number of the end-point
+     */
+    public int endPoint(int section, int which) {
+        return endPoints[2 * section + which];
+    }
+
+    /**
+     * Returns the number of the end-point at the other end of the given
+     * section to the given end-point.
+     *
+     * @param section
+     *            the number of a section
+     * @param endPoint
+     *            the number of an end-point of the section
+     * @return the number of the other end-point of the section
+     */
+    public int otherEndPoint(int section, int endPoint) {
+        int first = endPoints[2 * section];
+        return (first == endPoint) ? endPoints[2 * section + 1] : first;
+    }
+
+    /**
+     * Returns the number of the section connected to the end-point with the
+     * given number, or -1 if there is none.
+     *
+     * @param endPoint
+     *            the number of an end-point of a junction of the track
+     * @return the number of the section connected to the end-point, or -1
+     */
+    public int sectionAt(int endPoint) {
+        return adjacency[endPoint];
+    }
+
+    /**
+     * Returns the set of junctions of the track.
+     *
+     * @return the junctions of the track
+     */
+    public Set<Junction> getJunctions() {
+        return Collections.unmodifiableSet(junctionNumbers.keySet());
+    }
+
+    /**
+     * Returns the section connected to the given junction on the given
+     * branch, or null if there is none (as for Track.getTrackSection).
+     *
+     * @param junction
+     *            the junction for which the section will be returned
+     * @param branch
+     *            the branch of the junction for which the section will be
+     *            returned
+     * @return the section connected to the junction on the given branch, or
+     *         null
+     */
+    public Section getTrackSection(Junction junction, Branch branch) {
+        int number = junctionNumber(junction);
+        if (number == -1) {
+            return null;
+        }
+        int section = adjacency[JunctionRegistry.endPointId(number, branch)];
+        return (section == -1) ? null : sections[section];
+    }
+
+    /**
+     * Returns true if the track contains a section equivalent to the given
+     * one.
+     *
+     * @param section
+     *            the section to check
+     * @return true iff the track contains the section
+     */
+    public boolean contains(Section section) {
+        return sectionNumbers.containsKey(section);
+    }
+
+    /**
+     * Returns an iterator over the sections of the track, in order of their
+     * numbers.
+     */
+    @Override
+    public Iterator<Section> iterator() {
+        return Collections.unmodifiableList(Arrays.asList(sections))
+                .iterator();
+    }
+
+    /**
+     * Determines whether this class is internally consistent (i.e. it satisfies
+     * its class invariant).
+     *
+     * This method is only intended for testing purposes.
+     *
+     * @return true if this class is internally consistent, and false otherwise.
+     */
+    public boolean checkInvariant() {
+        int connected = 0; // the number of end-points with a section
+        for (int e = 0; e < adjacency.length; e++) {
+            if (adjacency[e] != -1) {
+                connected++;
+                if (endPoints[2 * adjacency[e]] != e
+                        && endPoints[2 * adjacency[e] + 1] != e) {
+                    return false;
+                }
+            }
+        }
+        if (connected != endPoints.length) {
+            return false;
+        }
+        for (int s = 0; s < sections.length; s++) {
+            if (lengths[s] != sections[s].getLength()
+                    || sectionNumbers.get(sections[s]) != s
+                    || !getEndPoint(endPoints[2 * s]).equals(
+                            sections[s].getCanonicalEndPoint())) {
+                return false;
+            }
+        }
+        for (int j = 0; j < junctions.length; j++) {
+            if (junctionNumbers.get(junctions[j]) != j) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
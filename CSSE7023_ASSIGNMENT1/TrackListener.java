@@ -0,0 +1,33 @@
+package railway;
+
+/**
+ * <p>
+ * An object that is notified when sections are added to or removed from a
+ * track that it has been registered with (using Track.addListener).
+ * </p>
+ *
+ * <p>
+ * Listeners are notified after the track has been modified, and only when
+ * the track is actually modified: e.g. adding a section that the track
+ * already contains does not notify the listeners.
+ * </p>
+ */
+public interface TrackListener {
+
+    /**
+     * Called after the given section has been added to the track.
+     *
+     * @param section
+     *            the section that was added
+     */
+    public void sectionAdded(Section section);
+
+    /**
+     * Called after the given section has been removed from the track.
+     *
+     * @param section
+     *            the section that was removed
+     */
+    public void sectionRemoved(Section section);
+
+}
@@ -0,0 +1,53 @@
+package railway;
+
+import java.util.Set;
+
+/**
+ * <p>
+ * The operations for reading the layout of a railway track.
+ * </p>
+ *
+ * <p>
+ * This is the read-only part of the interface of Track. It is also
+ * implemented by the frozen views of a track, TrackGraph and
+ * OffHeapTrackGraph, so that code which only reads a track can work with any
+ * of them.
+ * </p>
+ */
+public interface TrackView extends Iterable<Section> {
+
+    /**
+     * Returns true if the track contains the given section and false
+     * otherwise.
+     *
+     * @param section
+     *            the section whose presence in the track is to be checked
+     * @return true iff the track contains a section that is equivalent to the
+     *         given parameter.
+     */
+    public boolean contains(Section section);
+
+    /**
+     * Returns a set of all the junctions in the track that are connected to at
+     * least one section of the track.
+     *
+     * @return The set of junctions in the track.
+     */
+    public Set<Junction> getJunctions();
+
+    /**
+     * If the track contains a section that is connected to the given junction
+     * on the given branch, then it returns that section, otherwise it returns
+     * null.
+     *
+     * @param junction
+     *            the junction for which the section will be returned
+     * @param branch
+     *            the branch of the junction for which the section will be
+     *            returned
+     * @return the section of track that is connected to the junction on the
+     *         given branch, if there is one, otherwise null
+     */
+    public Section getTrackSection(Junction junction, Branch branch);
+
+}
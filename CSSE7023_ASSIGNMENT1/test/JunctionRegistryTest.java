@@ -0,0 +1,55 @@
+package railway.test;
+
+import railway.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Basic tests for the {@link JunctionRegistry} implementation class.
+ */
+public class JunctionRegistryTest {
+
+    /** Test that equivalent junctions are interned to a single instance */
+    @Test
+    public void testIntern() {
+        JunctionRegistry registry = new JunctionRegistry();
+        Junction j1 = new Junction("j1");
+        Junction j2 = new Junction("j2");
+
+        // junctions are given dense identifiers in the order registered
+        Assert.assertEquals(0, registry.register(j1));
+        Assert.assertEquals(1, registry.register(j2));
+        Assert.assertEquals(0, registry.register(new Junction("j1")));
+        Assert.assertEquals(2, registry.size());
+
+        // equivalent junctions are interned to the first one registered
+        Assert.assertSame(j1, registry.intern(new Junction("j1")));
+        Assert.assertSame(j2, registry.getJunction(1));
+
+        // a junction that has not been registered has no identifier
+        Assert.assertEquals(-1, registry.getId(new Junction("j3")));
+        Assert.assertTrue(registry.checkInvariant());
+    }
+
+    /** Test the identifiers of end-points */
+    @Test
+    public void testEndPointIds() {
+        JunctionRegistry registry = new JunctionRegistry();
+        registry.register(new Junction("j0"));
+        JunctionBranch endPoint =
+                new JunctionBranch(new Junction("j1"), Branch.REVERSE);
+
+        Assert.assertEquals(-1, registry.getId(endPoint));
+        int id = registry.register(endPoint);
+        Assert.assertEquals(1 << 2 | Branch.REVERSE.ordinal(), id);
+        Assert.assertEquals(id, registry.getId(endPoint));
+        Assert.assertEquals(1, JunctionRegistry.junctionId(id));
+        Assert.assertEquals(Branch.REVERSE, JunctionRegistry.branch(id));
+    }
+
+    /** Test registering a null junction **/
+    @Test(expected = NullPointerException.class)
+    public void testNullJunction() {
+        new JunctionRegistry().register((Junction) null);
+    }
+}
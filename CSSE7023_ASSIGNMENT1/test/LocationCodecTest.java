@@ -0,0 +1,71 @@
+package railway.test;
+
+import railway.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Basic tests for the {@link LocationCodec} class.
+ */
+public class LocationCodecTest {
+
+    /** Test encoding and decoding locations on a frozen track */
+    @Test
+    public void testEncode() {
+        Junction j0 = new Junction("j0");
+        Junction j1 = new Junction("j1");
+        Junction j2 = new Junction("j2");
+        Section section1 = new Section(9, new JunctionBranch(j1,
+                Branch.NORMAL), new JunctionBranch(j0, Branch.FACING));
+        Section section2 = new Section(20, new JunctionBranch(j1,
+                Branch.FACING), new JunctionBranch(j2, Branch.REVERSE));
+
+        Track track = new Track();
+        track.addSection(section1);
+        track.addSection(section2);
+        TrackGraph graph = track.freeze();
+        int s1 = graph.sectionNumber(section1);
+        int s2 = graph.sectionNumber(section2);
+
+        // equivalent descriptions of a location have the same code
+        Location location = new Location(section1, new JunctionBranch(j0,
+                Branch.FACING), 3);
+        long code = LocationCodec.encode(graph, location);
+        Assert.assertEquals(code, LocationCodec.encode(graph, new Location(
+                section1, new JunctionBranch(j1, Branch.NORMAL), 6)));
+        Assert.assertFalse(LocationCodec.atAJunction(code));
+        Assert.assertEquals(s1, LocationCodec.section(code));
+        // (j0, FACING) is the canonical end-point of section1
+        Assert.assertEquals(3, LocationCodec.offset(code));
+        Assert.assertEquals(location, LocationCodec.decode(graph, code));
+        Assert.assertTrue(LocationCodec.onSection(graph, code, s1));
+        Assert.assertFalse(LocationCodec.onSection(graph, code, s2));
+
+        // a location at a junction lies on all of its sections
+        long junction = LocationCodec.encode(graph, new Location(section2,
+                new JunctionBranch(j1, Branch.FACING), 0));
+        Assert.assertTrue(LocationCodec.atAJunction(junction));
+        Assert.assertEquals(graph.junctionNumber(j1),
+                LocationCodec.junction(junction));
+        Assert.assertEquals(junction, LocationCodec.encode(graph,
+                new Location(section1, new JunctionBranch(j1, Branch.NORMAL),
+                        0)));
+        Assert.assertTrue(LocationCodec.onSection(graph, junction, s1));
+        Assert.assertTrue(LocationCodec.onSection(graph, junction, s2));
+        Assert.assertEquals(new Location(section1, new JunctionBranch(j1,
+                Branch.NORMAL), 0), LocationCodec.decode(graph, junction));
+
+        // distances along a section
+        Assert.assertEquals(9, LocationCodec.position(graph, junction, s1));
+        Assert.assertEquals(6,
+                LocationCodec.distance(graph, code, junction, s1));
+        Assert.assertTrue(LocationCodec.compare(graph, code, junction, s1) < 0);
+
+        // a location that is not on the track has no code
+        Assert.assertEquals(-1, LocationCodec.encode(graph, new Location(
+                new Section(5, new JunctionBranch(j2, Branch.FACING),
+                        new JunctionBranch(j0, Branch.NORMAL)),
+                new JunctionBranch(j2, Branch.FACING), 1)));
+    }
+
+}
@@ -125,4 +125,38 @@ public class LocationTest {
 
     }
 
+    /**
+     * Check that equivalent descriptions of a location are equal and have the
+     * same hash code, on equivalent sections with their end-points given in
+     * either order.
+     */
+    @Test
+    public void testEquivalentDescriptions() {
+        JunctionBranch endPoint1 =
+                new JunctionBranch(new Junction("j2"), Branch.FACING);
+        JunctionBranch endPoint2 =
+                new JunctionBranch(new Junction("j1"), Branch.REVERSE);
+        Section section1 = new Section(10, endPoint1, endPoint2);
+        Section section2 = new Section(10, endPoint2, endPoint1);
+
+        Location location1 = new Location(section1, endPoint1, 3);
+        Location location2 = new Location(section2, endPoint2, 7);
+        Assert.assertEquals(location1, location2);
+        Assert.assertEquals(location1.hashCode(), location2.hashCode());
+        Assert.assertTrue(location1.checkInvariant());
+        Assert.assertTrue(location2.checkInvariant());
+
+        // locations at the same distance from opposite ends are different
+        Assert.assertNotEquals(location1, new Location(section1, endPoint2, 3));
+
+        // locations at either end of a section are at different junctions
+        Location junction1 = new Location(section1, endPoint1, 0);
+        Location junction2 = new Location(section2, endPoint2, 0);
+        Assert.assertNotEquals(junction1, junction2);
+        Assert.assertEquals(junction2, new Location(new Section(4,
+                new JunctionBranch(new Junction("j1"), Branch.FACING),
+                endPoint1), new JunctionBranch(new Junction("j1"),
+                Branch.FACING), 0));
+    }
+
 }
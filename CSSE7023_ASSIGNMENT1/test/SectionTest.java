@@ -15,4 +15,25 @@ public class SectionTest {
     public void test() {
         Assert.fail();
     }
+
+    /** Check that equivalent sections have the same canonical end-point */
+    @Test
+    public void testCanonicalEndPoint() {
+        JunctionBranch endPoint1 =
+                new JunctionBranch(new Junction("j2"), Branch.FACING);
+        JunctionBranch endPoint2 =
+                new JunctionBranch(new Junction("j1"), Branch.REVERSE);
+        JunctionBranch endPoint3 =
+                new JunctionBranch(new Junction("j1"), Branch.NORMAL);
+
+        Assert.assertEquals(endPoint2,
+                new Section(9, endPoint1, endPoint2).getCanonicalEndPoint());
+        Assert.assertEquals(endPoint2,
+                new Section(9, endPoint2, endPoint1).getCanonicalEndPoint());
+        // both end-points are at the same junction: the branches are compared
+        Assert.assertEquals(endPoint3,
+                new Section(9, endPoint2, endPoint3).getCanonicalEndPoint());
+        Assert.assertTrue(new Section(9, endPoint2, endPoint3)
+                .checkInvariant());
+    }
 }
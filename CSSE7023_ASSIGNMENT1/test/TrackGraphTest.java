@@ -0,0 +1,91 @@
+package railway.test;
+
+import railway.*;
+import java.util.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Basic tests for the {@link TrackGraph} implementation class.
+ */
+public class TrackGraphTest {
+
+    /** Test that a frozen track has the same layout as the track */
+    @Test
+    public void testFreeze() {
+        Junction j0 = new Junction("j0");
+        Junction j1 = new Junction("j1");
+        Junction j2 = new Junction("j2");
+        Section section1 = new Section(9, new JunctionBranch(j0,
+                Branch.FACING), new JunctionBranch(j1, Branch.NORMAL));
+        Section section2 = new Section(20, new JunctionBranch(j1,
+                Branch.FACING), new JunctionBranch(j2, Branch.REVERSE));
+
+        Track track = new Track();
+        track.addSection(section1);
+        track.addSection(section2);
+        TrackGraph graph = track.freeze(); // the view under test
+
+        Assert.assertEquals(2, graph.sectionCount());
+        Assert.assertEquals(3, graph.junctionCount());
+        Assert.assertEquals(track.getJunctions(), graph.getJunctions());
+        Assert.assertEquals(section2, graph.getTrackSection(j1,
+                Branch.FACING));
+        Assert.assertEquals(null, graph.getTrackSection(j1, Branch.REVERSE));
+
+        // walk from (j0, FACING) to j2 using only numbers
+        int endPoint = graph.endPointNumber(new JunctionBranch(j0,
+                Branch.FACING));
+        int section = graph.sectionAt(endPoint);
+        Assert.assertEquals(section1, graph.getSection(section));
+        Assert.assertEquals(9, graph.length(section));
+        int other = graph.otherEndPoint(section, endPoint);
+        Assert.assertEquals(new JunctionBranch(j1, Branch.NORMAL),
+                graph.getEndPoint(other));
+        int next = graph.sectionAt(graph.endPointNumber(new JunctionBranch(
+                j1, Branch.FACING)));
+        Assert.assertEquals(section2, graph.getSection(next));
+        Assert.assertEquals(-1, graph.sectionAt(graph.endPointNumber(
+                new JunctionBranch(j1, Branch.REVERSE))));
+
+        // changes to the track are not reflected in the view
+        track.removeSection(section1);
+        Assert.assertTrue(graph.contains(section1));
+        Assert.assertTrue(graph.checkInvariant());
+    }
+
+    /** Test that an off-heap view has the same layout as the track */
+    @Test
+    public void testFreezeOffHeap() {
+        Junction j0 = new Junction("j0");
+        Junction j1 = new Junction("j1");
+        Junction j2 = new Junction("j2");
+        Section section1 = new Section(9, new JunctionBranch(j0,
+                Branch.FACING), new JunctionBranch(j1, Branch.NORMAL));
+        Section section2 = new Section(20, new JunctionBranch(j1,
+                Branch.FACING), new JunctionBranch(j2, Branch.REVERSE));
+
+        Track track = new Track();
+        track.addSection(section1);
+        track.addSection(section2);
+        OffHeapTrackGraph graph = track.freezeOffHeap(); // the view under test
+
+        Assert.assertEquals(track.getJunctions(), graph.getJunctions());
+        Assert.assertEquals(section2, graph.getTrackSection(j1,
+                Branch.FACING));
+        Assert.assertEquals(null, graph.getTrackSection(j1, Branch.REVERSE));
+        Assert.assertEquals(null, graph.getTrackSection(new Junction("j3"),
+                Branch.FACING));
+        Assert.assertTrue(graph.contains(section1));
+        Assert.assertFalse(graph.contains(new Section(8, new JunctionBranch(
+                j0, Branch.FACING), new JunctionBranch(j1, Branch.NORMAL))));
+
+        Set<Section> sections = new HashSet<>();
+        for (Section section : graph) {
+            sections.add(section);
+        }
+        Assert.assertEquals(new HashSet<>(Arrays.asList(section1, section2)),
+                sections);
+        Assert.assertTrue(graph.checkInvariant());
+    }
+}
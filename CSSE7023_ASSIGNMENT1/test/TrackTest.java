@@ -183,4 +183,86 @@ public class TrackTest {
         Assert.assertTrue(track.checkInvariant());
 
     }
+
+    /**
+     * Test that removing a section frees its end-points, and removes
+     * junctions that are no longer connected to any section.
+     **/
+    @Test
+    public void testRemoveSection() {
+        Junction j0 = new Junction("j0");
+        Junction j1 = new Junction("j1");
+        Junction j2 = new Junction("j2");
+        Section section1 = new Section(9, new JunctionBranch(j0,
+                Branch.FACING), new JunctionBranch(j1, Branch.NORMAL));
+        Section section2 = new Section(20, new JunctionBranch(j1,
+                Branch.FACING), new JunctionBranch(j2, Branch.REVERSE));
+
+        Track track = new Track(); // the track under test
+        track.addSection(section1);
+        track.addSection(section2);
+        // adding an equivalent section does not modify the track
+        track.addSection(new Section(9, new JunctionBranch(j1, Branch.NORMAL),
+                new JunctionBranch(j0, Branch.FACING)));
+
+        // remove an equivalent section to section1
+        track.removeSection(new Section(9, new JunctionBranch(j1,
+                Branch.NORMAL), new JunctionBranch(j0, Branch.FACING)));
+        Assert.assertFalse(track.contains(section1));
+        Assert.assertTrue(track.contains(section2));
+        Assert.assertEquals(null, track.getTrackSection(j0, Branch.FACING));
+        Assert.assertEquals(null, track.getTrackSection(j1, Branch.NORMAL));
+        Assert.assertEquals(section2, track.getTrackSection(j1,
+                Branch.FACING));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(j1, j2)),
+                track.getJunctions());
+        Assert.assertTrue(track.checkInvariant());
+
+        // the end-points of the removed section can be used again
+        Section section3 = new Section(5, new JunctionBranch(j0,
+                Branch.FACING), new JunctionBranch(j1, Branch.NORMAL));
+        track.addSection(section3);
+        Assert.assertEquals(section3, track.getTrackSection(j1,
+                Branch.NORMAL));
+        Assert.assertTrue(track.checkInvariant());
+    }
+
+    /** Test that listeners are notified of changes to the track */
+    @Test
+    public void testListeners() {
+        Junction j0 = new Junction("j0");
+        Junction j1 = new Junction("j1");
+        Section section = new Section(9, new JunctionBranch(j0,
+                Branch.FACING), new JunctionBranch(j1, Branch.NORMAL));
+        final List<String> events = new ArrayList<>();
+        TrackListener listener = new TrackListener() {
+            @Override
+            public void sectionAdded(Section section) {
+                events.add("added " + section);
+            }
+
+            @Override
+            public void sectionRemoved(Section section) {
+                events.add("removed " + section);
+            }
+        };
+
+        Track track = new Track(); // the track under test
+        track.addListener(listener);
+        track.addSection(section);
+        // changes that do not modify the track are not reported
+        track.addSection(section);
+        track.removeSection(new Section(9, new JunctionBranch(j0,
+                Branch.NORMAL), new JunctionBranch(j1, Branch.NORMAL)));
+        track.removeSection(section);
+        Assert.assertEquals(Arrays.asList("added " + section, "removed "
+                + section), events);
+        Assert.assertTrue(track.checkInvariant());
+
+        // a listener that has been removed is not notified
+        track.removeListener(listener);
+        track.addSection(section);
+        Assert.assertEquals(2, events.size());
+        Assert.assertTrue(track.checkInvariant());
+    }
 }
@@ -0,0 +1,54 @@
+package railway;
+
+import java.util.List;
+
+/**
+ * A policy that decides the priority of the trains on the track each time
+ * routes are allocated by Allocator.allocate(occupied, requested, policy).
+ *
+ * The trains are allocated in the order chosen by the policy, in the same
+ * way that Allocator.allocate(occupied, requested) allocates them in order of
+ * their indices: the route allocated to a train does not intersect the routes
+ * occupied by the other trains, or the routes allocated to the trains before
+ * it in the order.
+ */
+public interface AllocationPolicy {
+
+	/**
+	 * Returns the order in which the trains should be allocated: the index of
+	 * the train with the highest priority first, and the index of the train
+	 * with the lowest priority last.
+	 *
+	 * @require occupied != null && requested != null && occupied.size() ==
+	 *          requested.size()
+	 * @param occupied
+	 *            the routes currently occupied by each train
+	 * @param requested
+	 *            the routes requested by each train
+	 * @return a permutation of the indices 0 to occupied.size() - 1
+	 * @throws IllegalArgumentException
+	 *             if the policy orders a fixed number of trains, and
+	 *             occupied.size() is not that number
+	 */
+	int[] order(List<List<Segment>> occupied, List<List<Segment>> requested)
+			throws IllegalArgumentException;
+
+	/**
+	 * Informs the policy of the routes that were allocated to the trains in
+	 * the order it returned, e.g. so that it can age the trains that were not
+	 * allocated their requested routes.
+	 *
+	 * @require requested != null && allocated != null && requested.size() ==
+	 *          allocated.size()
+	 * @param requested
+	 *            the routes requested by each train
+	 * @param allocated
+	 *            the routes allocated to each train
+	 * @throws IllegalArgumentException
+	 *             if the policy orders a fixed number of trains, and
+	 *             requested.size() is not that number
+	 */
+	void allocated(List<List<Segment>> requested,
+			List<List<Segment>> allocated) throws IllegalArgumentException;
+
+}
@@ -0,0 +1,544 @@
+package railway;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * A thread-safe allocator that keeps the routes occupied by, requested by and
+ * allocated to a fixed number of trains, so that several controller threads
+ * can update the trains of their own regions of one shared track at the same
+ * time.
+ * </p>
+ *
+ * <p>
+ * As for IncrementalAllocator, the route allocated to a train is the route
+ * that Allocator.allocate would allocate to it for the current occupied and
+ * requested routes, and only the trains whose allocation may be affected by a
+ * change are allocated again. Once every call to setOccupied and setRequested
+ * has returned, getAllocations returns the same routes as Allocator.allocate.
+ * While calls are in progress, a train may briefly keep a route that will be
+ * cut back because a train with a lower index (i.e. a higher priority) has
+ * been allocated part of it.
+ * </p>
+ *
+ * <p>
+ * There is no global lock. Each section and junction of the track belongs to
+ * one of a fixed number of stripes, and each stripe has its own lock, its own
+ * index of the occupied and allocated routes on its sections and junctions,
+ * and its own record of the trains whose allocation depends on them. A train
+ * is allocated while holding the locks of the stripes of its requested
+ * route and of the segments examined when it was last allocated, which are
+ * always acquired in increasing order. Trains in regions of the track that do
+ * not share a section or junction therefore only contend if their sections
+ * happen to share a stripe.
+ * </p>
+ */
+public class AllocationService {
+
+	// the routes occupied by, requested by and allocated to each train
+	private final AtomicReferenceArray<List<Segment>> occupied;
+	private final AtomicReferenceArray<List<Segment>> requested;
+	private final AtomicReferenceArray<List<Segment>> allocated;
+	// the requested segments that were checked when allocating each train,
+	// which are guarded by the lock of the train
+	private final List<List<Segment>> examined;
+	// the lock of each train, which is held while it is allocated or its
+	// occupied route changes
+	private final ReentrantLock[] trainLocks;
+	// 1 for each train that needs to be allocated again, and 0 otherwise
+	private final AtomicIntegerArray dirty;
+	// the stripes of the track
+	private final Stripe[] stripes;
+
+	/*
+	 * invariant: occupied, requested, allocated, examined, trainLocks and
+	 * dirty all have one element for each train && stripes.length is a power
+	 * of two && each route occupied by or allocated to a train is recorded in
+	 * the stripes of its sections and junctions && when no call is in
+	 * progress, no train is dirty
+	 */
+
+	/**
+	 * Creates a new service for the trains currently occupying the given
+	 * routes, with a number of stripes suited to the number of processors.
+	 *
+	 * @require occupied != null && requested != null &&
+	 *          !occupied.contains(null) && !requested.contains(null) &&
+	 *          occupied.size() == requested.size() && the preconditions of
+	 *          Allocator.allocate hold for occupied and requested
+	 * @param occupied
+	 * 			a list of the routes currently occupied by each train
+	 * @param requested
+	 * 			a list of the routes requested by each train
+	 */
+	public AllocationService(List<List<Segment>> occupied,
+			List<List<Segment>> requested) {
+		this(occupied, requested,
+				16 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new service for the trains currently occupying the given
+	 * routes, which uses at least the given number of stripes.
+	 *
+	 * @require occupied != null && requested != null &&
+	 *          !occupied.contains(null) && !requested.contains(null) &&
+	 *          occupied.size() == requested.size() && the preconditions of
+	 *          Allocator.allocate hold for occupied and requested &&
+	 *          stripes > 0
+	 * @param occupied
+	 * 			a list of the routes currently occupied by each train
+	 * @param requested
+	 * 			a list of the routes requested by each train
+	 * @param stripes
+	 * 			the minimum number of stripes to divide the track into
+	 */
+	public AllocationService(List<List<Segment>> occupied,
+			List<List<Segment>> requested, int stripes) {
+		int trains = occupied.size();
+		this.occupied = new AtomicReferenceArray<List<Segment>>(trains);
+		this.requested = new AtomicReferenceArray<List<Segment>>(trains);
+		this.allocated = new AtomicReferenceArray<List<Segment>>(trains);
+		this.examined = new ArrayList<List<Segment>>(trains);
+		this.trainLocks = new ReentrantLock[trains];
+		this.dirty = new AtomicIntegerArray(trains);
+		this.stripes = new Stripe[Integer.highestOneBit(
+				Math.max(1, stripes - 1)) << 1];
+		for (int i = 0; i < this.stripes.length; i++) {
+			this.stripes[i] = new Stripe();
+		}
+		for (int i = 0; i < trains; i++) {
+			this.occupied.set(i, occupied.get(i));
+			this.requested.set(i, requested.get(i));
+			this.allocated.set(i, Collections.<Segment>emptyList());
+			examined.add(Collections.<Segment>emptyList());
+			trainLocks[i] = new ReentrantLock();
+			record(occupied.get(i), i, false);
+		}
+		TreeSet<Integer> pending = new TreeSet<Integer>();
+		for (int i = 0; i < trains; i++) {
+			mark(i, pending);
+		}
+		settle(pending);
+	}
+
+	/**
+	 * Returns the number of trains managed by this service.
+	 *
+	 * @return the number of trains
+	 */
+	public int size() {
+		return occupied.length();
+	}
+
+	/**
+	 * Records that the given train now occupies the given route, e.g.
+	 * because it has advanced along its allocated route, or released part of
+	 * the route it was occupying, and allocates the trains that are affected
+	 * by the change again.
+	 *
+	 * @require 0 <= train < size() && route != null && !route.contains(null)
+	 *          && route does not intersect the routes occupied by the other
+	 *          trains
+	 * @param train
+	 * 			the index of the train
+	 * @param route
+	 * 			the route that the train now occupies
+	 */
+	public void setOccupied(int train, List<Segment> route) {
+		TreeSet<Integer> pending = new TreeSet<Integer>();
+		trainLocks[train].lock();
+		try {
+			List<Segment> old = occupied.get(train);
+			int[] locked = lock(old, route);
+			try {
+				erase(old, train, false);
+				record(route, train, false);
+				// An occupied route blocks every other train
+				markWatchers(old, -1, pending);
+				markWatchers(route, -1, pending);
+			} finally {
+				unlock(locked);
+			}
+			occupied.set(train, route);
+		} finally {
+			trainLocks[train].unlock();
+		}
+		mark(train, pending);
+		settle(pending);
+	}
+
+	/**
+	 * Records that the given train now requests the given route, and
+	 * allocates the trains that are affected by the change again.
+	 *
+	 * @require 0 <= train < size() && route != null && !route.contains(null)
+	 * @param train
+	 * 			the index of the train
+	 * @param route
+	 * 			the route that the train now requests
+	 */
+	public void setRequested(int train, List<Segment> route) {
+		requested.set(train, route);
+		TreeSet<Integer> pending = new TreeSet<Integer>();
+		mark(train, pending);
+		settle(pending);
+	}
+
+	/**
+	 * Returns the route allocated to the given train.
+	 *
+	 * @require 0 <= train < size()
+	 * @param train
+	 * 			the index of the train
+	 * @return the route allocated to the train
+	 */
+	public List<Segment> getAllocation(int train) {
+		return Collections.unmodifiableList(allocated.get(train));
+	}
+
+	/**
+	 * Returns the routes allocated to each of the trains, in the same form as
+	 * the result of Allocator.allocate.
+	 *
+	 * @return the list of allocated routes
+	 */
+	public List<List<Segment>> getAllocations() {
+		List<List<Segment>> result = new ArrayList<List<Segment>>(size());
+		for (int i = 0; i < size(); i++) {
+			result.add(new ArrayList<Segment>(allocated.get(i)));
+		}
+		return result;
+	}
+
+	/**
+	 * Marks the given train as dirty, and adds it to the given set of trains
+	 * that the current thread will try to allocate again.
+	 */
+	private void mark(int train, TreeSet<Integer> pending) {
+		dirty.set(train, 1);
+		pending.add(train);
+	}
+
+	/**
+	 * Allocates each of the given trains again, in order of priority, unless
+	 * another thread is already allocating it. A thread that holds the lock
+	 * of a train checks whether it is dirty again after releasing the lock,
+	 * so a train that is marked while it is being allocated by another thread
+	 * is always allocated again by one of them.
+	 */
+	private void settle(TreeSet<Integer> pending) {
+		while (!pending.isEmpty()) {
+			int train = pending.pollFirst();
+			while (dirty.get(train) == 1 && trainLocks[train].tryLock()) {
+				try {
+					while (dirty.compareAndSet(train, 1, 0)) {
+						allocate(train, pending);
+					}
+				} finally {
+					trainLocks[train].unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Allocates the given train again, and adds the trains that depend on
+	 * its allocation to pending if it changes.
+	 *
+	 * @require the current thread holds the lock of the train
+	 */
+	private void allocate(int train, TreeSet<Integer> pending) {
+		List<Segment> request = requested.get(train);
+		List<Segment> old = allocated.get(train);
+		List<Segment> oldExamined = examined.get(train);
+		List<Segment> route = new ArrayList<Segment>(request.size());
+		List<Segment> checked = new ArrayList<Segment>();
+		// the allocated route is a prefix of the examined segments, so these
+		// stripes cover every route that is changed
+		int[] locked = lock(request, oldExamined);
+		try {
+			erase(old, train, true);
+			watch(oldExamined, train, false);
+			for (int i = 0; i < request.size(); i++) {
+				Segment segment = request.get(i);
+				checked.add(segment);
+				int blocked = firstBlocked(segment, train);
+				if (blocked == -1) {
+					route.add(segment);
+					continue;
+				}
+				// Only the part of the segment before the blocked location
+				// can be allocated, and none of the segments that follow it
+				if (blocked > segment.getStartOffset()) {
+					route.add(new Segment(segment.getSection(),
+							segment.getDepartingEndPoint(),
+							segment.getStartOffset(), blocked - 1));
+				}
+				break;
+			}
+			record(route, train, true);
+			watch(checked, train, true);
+			if (!route.equals(old)) {
+				// An allocated route only blocks trains with higher indices
+				markWatchers(old, train, pending);
+				markWatchers(route, train, pending);
+			}
+		} finally {
+			unlock(locked);
+		}
+		examined.set(train, checked);
+		allocated.set(train, route);
+	}
+
+	/**
+	 * Returns the offset of the first location of the given segment that is
+	 * covered by a route that blocks the given train, or -1 if there is none,
+	 * as for SectionOccupancyIndex.firstBlocked.
+	 *
+	 * @require the current thread holds the locks of the stripes of the
+	 *          section and junctions of the segment
+	 */
+	private int firstBlocked(Segment segment, int train) {
+		// The index of a stripe only knows about the junctions of its own
+		// sections, so the table of the junction's stripe is checked as well
+		if (segment.getStartOffset() == 0
+				&& junctionStripe(segment.getDepartingEndPoint())
+						.junctions.blocks(segment.getDepartingEndPoint()
+								.getJunction(), train)) {
+			return 0;
+		}
+		int blocked = sectionStripe(segment).index.firstBlocked(segment,
+				train);
+		if (blocked != -1) {
+			return blocked;
+		}
+		if (segment.getEndOffset() == segment.getSection().getLength()
+				&& junctionStripe(segment.getApproachingEndPoint())
+						.junctions.blocks(segment.getApproachingEndPoint()
+								.getJunction(), train)) {
+			return segment.getEndOffset();
+		}
+		return -1;
+	}
+
+	/**
+	 * Records the segments of the given route against the given train in the
+	 * stripes of their sections and junctions.
+	 */
+	private void record(List<Segment> route, int train, boolean granted) {
+		for (int i = 0; i < route.size(); i++) {
+			Segment segment = route.get(i);
+			sectionStripe(segment).index.add(segment, train, granted);
+			if (segment.getStartOffset() == 0) {
+				junctionStripe(segment.getDepartingEndPoint()).junctions
+						.reserve(segment.getDepartingEndPoint().getJunction(),
+								train, granted);
+			}
+			if (segment.getEndOffset() == segment.getSection().getLength()) {
+				junctionStripe(segment.getApproachingEndPoint()).junctions
+						.reserve(segment.getApproachingEndPoint()
+								.getJunction(), train, granted);
+			}
+		}
+	}
+
+	/**
+	 * Removes the segments of the given route that were recorded against the
+	 * given train by record.
+	 */
+	private void erase(List<Segment> route, int train, boolean granted) {
+		for (int i = 0; i < route.size(); i++) {
+			Segment segment = route.get(i);
+			sectionStripe(segment).index.remove(segment, train, granted);
+			if (segment.getStartOffset() == 0) {
+				junctionStripe(segment.getDepartingEndPoint()).junctions
+						.release(segment.getDepartingEndPoint().getJunction(),
+								train, granted);
+			}
+			if (segment.getEndOffset() == segment.getSection().getLength()) {
+				junctionStripe(segment.getApproachingEndPoint()).junctions
+						.release(segment.getApproachingEndPoint()
+								.getJunction(), train, granted);
+			}
+		}
+	}
+
+	/**
+	 * Adds the given train to (or removes it from) the watchers of the
+	 * sections and junctions of the given segments.
+	 */
+	private void watch(List<Segment> segments, int train, boolean add) {
+		for (int i = 0; i < segments.size(); i++) {
+			Segment segment = segments.get(i);
+			Stripe stripe = sectionStripe(segment);
+			update(stripe.sectionWatchers, segment.getSection(), train, add);
+			stripe = junctionStripe(segment.getDepartingEndPoint());
+			update(stripe.junctionWatchers, segment.getDepartingEndPoint()
+					.getJunction(), train, add);
+			stripe = junctionStripe(segment.getApproachingEndPoint());
+			update(stripe.junctionWatchers, segment.getApproachingEndPoint()
+					.getJunction(), train, add);
+		}
+	}
+
+	private static <K> void update(Map<K, NavigableSet<Integer>> watchers,
+			K key, int train, boolean add) {
+		NavigableSet<Integer> trains = watchers.get(key);
+		if (add) {
+			if (trains == null) {
+				trains = new TreeSet<Integer>();
+				watchers.put(key, trains);
+			}
+			trains.add(train);
+		} else if (trains != null && trains.remove(train)
+				&& trains.isEmpty()) {
+			watchers.remove(key);
+		}
+	}
+
+	/**
+	 * Marks each train with an index greater than the given one whose
+	 * allocation depends on a section or junction of the given route.
+	 */
+	private void markWatchers(List<Segment> route, int train,
+			TreeSet<Integer> pending) {
+		for (int i = 0; i < route.size(); i++) {
+			Segment segment = route.get(i);
+			markAll(sectionStripe(segment).sectionWatchers.get(segment
+					.getSection()), train, pending);
+			if (segment.getStartOffset() == 0) {
+				markAll(junctionStripe(segment.getDepartingEndPoint())
+						.junctionWatchers.get(segment.getDepartingEndPoint()
+								.getJunction()), train, pending);
+			}
+			if (segment.getEndOffset() == segment.getSection().getLength()) {
+				markAll(junctionStripe(segment.getApproachingEndPoint())
+						.junctionWatchers.get(segment.getApproachingEndPoint()
+								.getJunction()), train, pending);
+			}
+		}
+	}
+
+	private void markAll(NavigableSet<Integer> watchers, int train,
+			TreeSet<Integer> pending) {
+		if (watchers != null) {
+			for (int watcher : watchers.tailSet(train, false)) {
+				mark(watcher, pending);
+			}
+		}
+	}
+
+	/**
+	 * Locks the stripes of the sections and junctions of the segments of the
+	 * given routes, in increasing order, and returns their numbers.
+	 */
+	private int[] lock(List<Segment> first, List<Segment> second) {
+		int[] numbers = new int[3 * (first.size() + second.size())];
+		int count = addStripes(first, numbers, 0);
+		count = addStripes(second, numbers, count);
+		Arrays.sort(numbers, 0, count);
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			if (distinct == 0 || numbers[distinct - 1] != numbers[i]) {
+				numbers[distinct++] = numbers[i];
+			}
+		}
+		numbers = Arrays.copyOf(numbers, distinct);
+		for (int i = 0; i < numbers.length; i++) {
+			stripes[numbers[i]].lock.lock();
+		}
+		return numbers;
+	}
+
+	private int addStripes(List<Segment> route, int[] numbers, int count) {
+		for (int i = 0; i < route.size(); i++) {
+			Segment segment = route.get(i);
+			numbers[count++] = stripe(segment.getSection().hashCode());
+			numbers[count++] = stripe(segment.getDepartingEndPoint()
+					.getJunction().hashCode());
+			numbers[count++] = stripe(segment.getApproachingEndPoint()
+					.getJunction().hashCode());
+		}
+		return count;
+	}
+
+	private void unlock(int[] numbers) {
+		for (int i = numbers.length - 1; i >= 0; i--) {
+			stripes[numbers[i]].lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of the stripe of an object with the given hash code.
+	 */
+	private int stripe(int hash) {
+		hash ^= hash >>> 16;
+		return hash & (stripes.length - 1);
+	}
+
+	private Stripe sectionStripe(Segment segment) {
+		return stripes[stripe(segment.getSection().hashCode())];
+	}
+
+	private Stripe junctionStripe(JunctionBranch endPoint) {
+		return stripes[stripe(endPoint.getJunction().hashCode())];
+	}
+
+	/**
+	 * Determines whether this class is internally consistent (i.e. it
+	 * satisfies its class invariant).
+	 *
+	 * This method is only intended for testing purposes, and should only be
+	 * called when no other calls are in progress.
+	 *
+	 * @return true if this class is internally consistent, and false
+	 *         otherwise.
+	 */
+	public boolean checkInvariant() {
+		int trains = occupied.length();
+		if (requested.length() != trains || allocated.length() != trains
+				|| examined.size() != trains || trainLocks.length != trains
+				|| dirty.length() != trains
+				|| Integer.bitCount(stripes.length) != 1) {
+			return false;
+		}
+		for (int i = 0; i < trains; i++) {
+			if (dirty.get(i) != 0) {
+				return false;
+			}
+		}
+		for (int i = 0; i < stripes.length; i++) {
+			if (!stripes[i].index.checkInvariant()
+					|| !stripes[i].junctions.checkInvariant()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The state of the sections and junctions that belong to one stripe,
+	 * which is guarded by its lock.
+	 */
+	private static class Stripe {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		// the occupied and allocated routes on the sections of the stripe
+		private final SectionOccupancyIndex index =
+				new SectionOccupancyIndex();
+		// the trains that hold each junction of the stripe
+		private final JunctionReservationTable junctions =
+				new JunctionReservationTable();
+		// the trains whose allocation depends on each section and junction
+		// of the stripe
+		private final Map<Section, NavigableSet<Integer>> sectionWatchers =
+				new HashMap<Section, NavigableSet<Integer>>();
+		private final Map<Junction, NavigableSet<Integer>> junctionWatchers =
+				new HashMap<Junction, NavigableSet<Integer>>();
+	}
+
+}
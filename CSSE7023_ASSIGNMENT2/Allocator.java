@@ -1,9 +1,90 @@
 package railway;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+/**
+ * <p>
+ * Allocates routes to the trains on a track so that they do not collide.
+ * </p>
+ *
+ * <p>
+ * The static allocate methods keep no state between calls: each call builds a
+ * new index of the occupied and allocated routes, which is garbage once the
+ * call returns. A train controller that allocates routes on every tick should
+ * instead create an Allocator and call its allocateAll or allocateInto
+ * method, which clear and reuse the flat arrays of one index. Once that index
+ * has seen the sections of the track, allocateAll only creates the routes
+ * that it returns, and allocateInto, which refills the lists of the previous
+ * allocation, only creates the segments that it cuts short.
+ * </p>
+ *
+ * <p>
+ * The index of an allocator refers only to the sections and junctions of the
+ * routes that it has been given, so it holds no more than one entry for each
+ * section and junction of the track, and all of them are released with the
+ * allocator. A controller that changes tracks should create a new allocator.
+ * An allocator must not be used by more than one thread at a time.
+ * </p>
+ */
 public class Allocator {
 
+	// The index that is cleared and reused by each call to allocateAll or
+	// allocateInto on this allocator
+	private SectionOccupancyIndex index;
+
+	/**
+	 * Creates an allocator with an empty index.
+	 */
+	public Allocator() {
+		index = new SectionOccupancyIndex();
+	}
+
+	/**
+	 * Returns the same allocation as allocate(occupied, requested), reusing
+	 * the index of this allocator.
+	 * 
+	 * @require the preconditions of allocate(occupied, requested)
+	 * @param occupied
+	 *            the routes currently occupied by each train, as for allocate
+	 * @param requested
+	 *            the routes requested by each train, as for allocate
+	 * @return the list of allocated routes
+	 */
+	public List<List<Segment>> allocateAll(List<List<Segment>> occupied,
+			List<List<Segment>> requested) {
+		List<List<Segment>> allocator = new ArrayList<List<Segment>>(
+				requested.size());
+		allocate(occupied, requested, index, allocator);
+		return allocator;
+	}
+
+	/**
+	 * Replaces the contents of the given list with the allocation of
+	 * allocate(occupied, requested), reusing the index of this allocator and
+	 * the routes already in the list: after the call, allocated.get(i) is the
+	 * route allocated to the ith train. Routes are only created for trains
+	 * beyond the size of the list, and segments only for the requested
+	 * segments that are cut short.
+	 * 
+	 * @require the preconditions of allocate(occupied, requested) &&
+	 *          allocated != null && the elements of allocated are distinct,
+	 *          modifiable lists that are not used by any other part of the
+	 *          program
+	 * @param occupied
+	 *            the routes currently occupied by each train, as for allocate
+	 * @param requested
+	 *            the routes requested by each train, as for allocate
+	 * @param allocated
+	 *            the list to write the allocated routes into, usually the
+	 *            list passed to the previous call
+	 */
+	public void allocateInto(List<List<Segment>> occupied,
+			List<List<Segment>> requested, List<List<Segment>> allocated) {
+		allocate(occupied, requested, index, allocated);
+	}
+
 	/**
 	 * This method takes as input a list of the routes that are currently
 	 * occupied by trains on the track, and a list of the routes requested by
@@ -64,276 +145,372 @@ public class Allocator {
 	 */
 	public static List<List<Segment>> allocate(List<List<Segment>> occupied,
 			List<List<Segment>> requested) {
-		// An empty list to store the allocatedOffsets for each segment in the
-		// allocated routes
-		List<ArrayList<ArrayList<Integer>>> allocatedOffsets = 
-				new ArrayList<ArrayList<ArrayList<Integer>>>();
-		allocatedOffsets = getOffsets(requested, occupied);
-		removeZeroOffsets(allocatedOffsets);
 		// An list of all the allocated routes for occupied.size() trains
-		List<List<Segment>> allocator = createSegments(occupied, requested,
-				allocatedOffsets);
+		List<List<Segment>> allocator = new ArrayList<List<Segment>>(
+				requested.size());
+		allocate(occupied, requested, new SectionOccupancyIndex(), allocator);
 		return allocator;
 	}
 
 	/**
-	 * This method takes the list of occupied and requested routes allocates
-	 * offsets to each requested segment for every train by performing a series
-	 * of checks to determine what the offsets should be. It checks if the
-	 * requested segment will intersect with any of the occupied trains and then
-	 * assigns start and end offsets to each of the requested segments
-	 * accordingly.
+	 * Writes the allocation of allocate(occupied, requested) into the given
+	 * list, as for allocateInto, computed with the given index of the routes
+	 * that are occupied by, or allocated to, the trains on the track, which
+	 * is cleared first.
+	 */
+	private static void allocate(List<List<Segment>> occupied,
+			List<List<Segment>> requested, SectionOccupancyIndex index,
+			List<List<Segment>> allocator) {
+		index.clear();
+		for (int i = 0; i < occupied.size(); i++) {
+			index.addRoute(occupied.get(i), i, false);
+		}
+		while (allocator.size() > requested.size()) {
+			allocator.remove(allocator.size() - 1);
+		}
+		for (int n = 0; n < requested.size(); n++) {
+			List<Segment> route;
+			if (n < allocator.size()) {
+				route = allocator.get(n);
+				route.clear();
+			} else {
+				route = new ArrayList<Segment>(requested.get(n).size());
+				allocator.add(route);
+			}
+			allocateRoute(requested.get(n), n, index, null, route);
+			// Trains with a higher index must not intersect this route
+			index.addRoute(route, n, true);
+		}
+	}
+
+	/**
+	 * Returns an allocation of routes to trains in which the priority of the
+	 * trains is decided by the given policy rather than by their indices.
 	 * 
-	 * These offsets will then be used in createSegments to create segments for
-	 * the allocated routes.
+	 * The trains are allocated in the order returned by policy.order, exactly
+	 * as allocate(occupied, requested) allocates them in order of their
+	 * indices: the route allocated to each train is the longest prefix of its
+	 * requested route that does not intersect any of the routes occupied by
+	 * the other trains, or any of the routes allocated to the trains before
+	 * it in that order. The policy is then informed of the allocation.
 	 * 
-	 * @require occupied != null && requested != null &&
-	 *          !occupied.contains(null) && !requested.contains(null) &&
-	 *          occupied.size() == requested.size()
+	 * @require the preconditions of allocate(occupied, requested) && policy
+	 *          != null
+	 * @param occupied
+	 *            the routes currently occupied by each train, as for allocate
 	 * @param requested
-	 * 			a list of the routes requested by each of the occupied.size()
-	 * 			trains
+	 *            the routes requested by each train, as for allocate
+	 * @param policy
+	 *            the policy that orders the trains
+	 * @return the list of allocated routes, where \result.get(i) is the route
+	 *         allocated to the ith train
+	 * @throws IllegalArgumentException
+	 *             if the policy orders a fixed number of trains, and
+	 *             occupied.size() is not that number
+	 */
+	public static List<List<Segment>> allocate(List<List<Segment>> occupied,
+			List<List<Segment>> requested, AllocationPolicy policy)
+			throws IllegalArgumentException {
+		return allocate(occupied, requested, policy,
+				new SectionOccupancyIndex());
+	}
+
+	/**
+	 * Returns the same allocation as allocate(occupied, requested, policy),
+	 * reusing the index of this allocator.
+	 * 
+	 * @require the preconditions of allocate(occupied, requested, policy)
 	 * @param occupied
-	 * 			a list of routes that are currently occupied by occupied.size()
-	 * 			number of trains where occupied.get(i) is the route of the ith
-	 * 			train
-	 * @return the list of new offsets for each allocated segment
+	 *            the routes currently occupied by each train, as for allocate
+	 * @param requested
+	 *            the routes requested by each train, as for allocate
+	 * @param policy
+	 *            the policy that orders the trains
+	 * @return the list of allocated routes, where \result.get(i) is the route
+	 *         allocated to the ith train
+	 * @throws IllegalArgumentException
+	 *             if the policy orders a fixed number of trains, and
+	 *             occupied.size() is not that number
 	 */
-	private static List<ArrayList<ArrayList<Integer>>> getOffsets(
-			List<List<Segment>> requested, List<List<Segment>> occupied) {
-		//An empty array that the final allocated offsets will be added to
-		List<ArrayList<ArrayList<Integer>>> allocatedOffsets = 
-				new ArrayList<ArrayList<ArrayList<Integer>>>();
-		//Integers that will hold the final allocated start and end offsets
-		Integer allocatedStartOffset = Integer.valueOf(0);
-		Integer allocatedEndOffset = Integer.valueOf(0);
-		// Loop through trains in requested list to access their requested route
-		for (int n = 0; n < requested.size(); n++) {
-			// Array to store the list of segment offsets of each allocated 
-			// route 
-			ArrayList<ArrayList<Integer>> segmentOffsets = 
-					new ArrayList<ArrayList<Integer>>();
-			// Loop through segments in train[n]'s requested route
-			for (int m = 0; m < requested.get(n).size(); m++) {
-				// Array to store the list of start and end offsets of each
-				// allocated segment in an allocated route
-				ArrayList<Integer> offsets = new ArrayList<Integer>();
-				allocatedStartOffset = requested.get(n).get(m).getStartOffset();
-				allocatedEndOffset = requested.get(n).get(m).getEndOffset();
-				// Loop through requested trains prior to the current train
-				for (int i = 0; i < n; i++) {
-					// Loop through segments in train[i]'s route
-					for (int j = 0; j < requested.get(i).size(); j++) {
-						// Check if the two segments on the same section
-						if (requested.get(i).get(j).getSection()
-								.equals(requested.get(n).get(m).getSection())) {
-							// Check if the first location of
-							// train[n] is intersecting with train[i]'s route
-							if (requested.get(i).get(j).contains(requested
-									.get(n).get(m).getFirstLocation())) {
-								// No new tracks are allocated so they will not
-								// need new offsets. These are marked as 0 to
-								// be removed later.
-								allocatedStartOffset = 0;
-								allocatedEndOffset = 0;
-							} else if (requested.get(i).get(j)
-									.contains(requested.get(n).get(m)
-											.getLastLocation())) {
-								// Above: Check if the last location of train[n]
-								// is in train[i]'s route
-								// Below: Check if they are going
-								// in opposite directions
-								if (!requested.get(i).get(j)
-										.getApproachingEndPoint()
-										.equals(requested.get(n).get(m)
-												.getApproachingEndPoint())) {
-									allocatedStartOffset = requested.get(n)
-											.get(m).getStartOffset();
-									allocatedEndOffset = requested.get(n).get(m)
-											.getSection().getLength()
-											- requested.get(i).get(j)
-													.getEndOffset()
-											- 1;
-								} else {
-									// Trains are going in the same direction
-									allocatedStartOffset = requested.get(n)
-											.get(m).getStartOffset();
-									allocatedEndOffset = requested.get(i).get(j)
-											.getStartOffset() - 1;
-								}
-							}
-						} else if (atJunction(requested.get(i).get(j),
-								requested.get(n).get(m))) {
-							// Check if train[n] and train[i] are at the
-							// same junction
-							allocatedStartOffset = requested.get(n).get(m)
-									.getStartOffset();
-							allocatedEndOffset = requested.get(n).get(m)
-									.getEndOffset() - 1;
-						}
-					}
-				}
-				// Loop through occupied trains after the current train
-				for (int r = n + 1; r < occupied.size(); r++) {
-					// Loop through segments in train[r]'s route
-					for (int q = 0; q < occupied.get(r).size(); q++) {
-						// Check if the two segments on the same section
-						if (occupied.get(r).get(q).getSection()
-								.equals(requested.get(n).get(m).getSection())) {
-							// Check if the first location of the train[n]'s
-							// segment is intersecting with train[r]'s route
-							if (occupied.get(r).get(q).contains(requested.get(n)
-									.get(m).getFirstLocation())) {
-								// No new tracks are allocated so they will not
-								// need new offsets. These are marked as 0 to
-								// be removed later.
-								allocatedStartOffset = 0;
-								allocatedEndOffset = 0;
-							} else if (occupied.get(r).get(q).contains(requested
-									.get(n).get(m).getLastLocation())) {
-								// Check if the last location of the segment is
-								// intersecting then check if the trains are
-								// going in opposite directions
-								if (!occupied.get(r).get(q)
-										.getApproachingEndPoint()
-										.equals(requested.get(n).get(m)
-												.getApproachingEndPoint())) {
-									allocatedStartOffset = requested.get(n)
-											.get(m).getStartOffset();
-									allocatedEndOffset = requested.get(n).get(m)
-											.getSection().getLength()
-											- occupied.get(r).get(q)
-													.getEndOffset()
-											- 1;
-								} else {
-									// Trains are going in the same direction
-									allocatedStartOffset = requested.get(n)
-											.get(m).getStartOffset();
-									allocatedEndOffset = occupied.get(r).get(q)
-											.getStartOffset() - 1;
-								}
-							}
-						} else if (atJunction(occupied.get(r).get(q),
-								requested.get(n).get(m))) {
-							// Check if two segments are at the same junction
-							allocatedStartOffset = requested.get(n).get(m)
-									.getStartOffset();
-							allocatedEndOffset = requested.get(n).get(m)
-									.getEndOffset() - 1;
-						}
-					}
-				}
-				offsets.add(allocatedStartOffset);
-				offsets.add(allocatedEndOffset);
-				segmentOffsets.add(offsets);
-			}
-			allocatedOffsets.add(segmentOffsets);
+	public List<List<Segment>> allocateAll(List<List<Segment>> occupied,
+			List<List<Segment>> requested, AllocationPolicy policy)
+			throws IllegalArgumentException {
+		return allocate(occupied, requested, policy, index);
+	}
+
+	/**
+	 * Returns the allocation of allocate(occupied, requested, policy),
+	 * computed with the given index, which is cleared first.
+	 */
+	private static List<List<Segment>> allocate(List<List<Segment>> occupied,
+			List<List<Segment>> requested, AllocationPolicy policy,
+			SectionOccupancyIndex index) throws IllegalArgumentException {
+		int[] order = policy.order(occupied, requested);
+		List<List<Segment>> orderedOccupied = new ArrayList<List<Segment>>(
+				order.length);
+		List<List<Segment>> orderedRequested = new ArrayList<List<Segment>>(
+				order.length);
+		for (int k = 0; k < order.length; k++) {
+			orderedOccupied.add(occupied.get(order[k]));
+			orderedRequested.add(requested.get(order[k]));
 		}
-		return allocatedOffsets;
+		List<List<Segment>> ordered = new ArrayList<List<Segment>>(
+				order.length);
+		allocate(orderedOccupied, orderedRequested, index, ordered);
+		List<List<Segment>> allocator = new ArrayList<List<Segment>>(
+				Collections.<List<Segment>>nCopies(order.length, null));
+		for (int k = 0; k < order.length; k++) {
+			allocator.set(order[k], ordered.get(k));
+		}
+		policy.allocated(requested, allocator);
+		return allocator;
 	}
 
 	/**
-	 * This method checks if two segments are at the same junction. This is to
-	 * check if two trains will intersect each other at the same junction.
-	 * If the occupied segment and requested segment are both at the 
-	 * same junction, this method will return true and if not, it will return
-	 * false. 
+	 * Returns the same allocation as allocate(occupied, requested), computed
+	 * in parallel on the given pool.
 	 * 
-	 * @require !occupied.equals(null) && !requested.equals(null)
+	 * The trains are partitioned into groups, where two trains are in the
+	 * same group if their occupied or requested routes share a section or a
+	 * junction, either directly or through other trains of the group. The
+	 * allocation of a train can only depend on the routes of the trains in
+	 * its own group, so each group is allocated independently, with its
+	 * trains in their original order of priority, and the results are put
+	 * back in the order of the trains.
+	 * 
+	 * @require the preconditions of allocate(occupied, requested)
 	 * @param occupied
-	 * 			The occupied segment that is currently being checked
+	 *            the routes currently occupied by each train, as for allocate
 	 * @param requested
-	 * 			The requested segment by a particular train that is currently
-	 * 			being checked against an occupied segment
-	 * @return true if both trains are at the same junction and false if they
-	 * 			are not at the same junction 
+	 *            the routes requested by each train, as for allocate
+	 * @param pool
+	 *            the pool to allocate the groups of trains on
+	 * @return the list of allocated routes
+	 * @throws NullPointerException
+	 *             if pool is null
 	 */
-	private static boolean atJunction(Segment occupied, Segment requested) {
-		// Check if segment ends at a Junction
-		if (requested.getEndOffset() == requested.getSection().getLength()) {
-			if (occupied.getStartOffset() == 0) {
-				if (occupied.getDepartingEndPoint().getJunction().equals(
-						requested.getApproachingEndPoint().getJunction())) {
-					return true;
-				}
-				;
-			} else if (occupied.getEndOffset() == occupied.getSection()
-					.getLength()) {
-				if (occupied.getApproachingEndPoint().getJunction().equals(
-						requested.getApproachingEndPoint().getJunction())) {
-					return true;
+	public static List<List<Segment>> allocateParallel(
+			List<List<Segment>> occupied, List<List<Segment>> requested,
+			ForkJoinPool pool) throws NullPointerException {
+		if (pool == null) {
+			throw new NullPointerException("The pool cannot be null.");
+		}
+		List<int[]> groups = partition(occupied, requested);
+		List<List<Segment>> allocator = new ArrayList<List<Segment>>(
+				Collections.<List<Segment>>nCopies(occupied.size(), null));
+		pool.invoke(new GroupTask(occupied, requested, groups, 0,
+				groups.size(), allocator));
+		return allocator;
+	}
+
+	/**
+	 * Returns the groups of trains whose routes share a section or junction,
+	 * each in increasing order of index, ordered by their first train.
+	 */
+	static List<int[]> partition(List<List<Segment>> occupied,
+			List<List<Segment>> requested) {
+		int trains = occupied.size();
+		// A union-find forest of the trains
+		int[] parents = new int[trains];
+		for (int i = 0; i < trains; i++) {
+			parents[i] = i;
+		}
+		// The first train found to use each section and junction
+		Map<Section, Integer> sectionUsers = new HashMap<Section, Integer>();
+		Map<Junction, Integer> junctionUsers =
+				new HashMap<Junction, Integer>();
+		for (int i = 0; i < trains; i++) {
+			for (List<Segment> route : Arrays.asList(occupied.get(i),
+					requested.get(i))) {
+				for (int m = 0; m < route.size(); m++) {
+					Segment segment = route.get(m);
+					union(parents, i, sectionUsers, segment.getSection());
+					if (segment.getStartOffset() == 0) {
+						union(parents, i, junctionUsers,
+								segment.getDepartingEndPoint().getJunction());
+					}
+					if (segment.getEndOffset() == segment.getSection()
+							.getLength()) {
+						union(parents, i, junctionUsers,
+								segment.getApproachingEndPoint().getJunction());
+					}
 				}
-			} else {
-				return false;
 			}
 		}
-		return false;
+		// Collect the members of each group in increasing order
+		int[] sizes = new int[trains];
+		for (int i = 0; i < trains; i++) {
+			sizes[find(parents, i)]++;
+		}
+		int[][] members = new int[trains][];
+		List<int[]> groups = new ArrayList<int[]>();
+		for (int i = 0; i < trains; i++) {
+			int root = find(parents, i);
+			if (members[root] == null) {
+				members[root] = new int[sizes[root]];
+				groups.add(members[root]);
+				sizes[root] = 0;
+			}
+			members[root][sizes[root]++] = i;
+		}
+		return groups;
 	}
 
 	/**
-	 * This method checks through the allocated offsets to determine whether or
-	 * not a particular segment has not been allocated. If a segment has not 
-	 * been allocated, it will be marked as [0, 0] in the list of allocated
-	 * offsets. This method will check for the marker [0, 0] and remove this
-	 * element from the list of allocated offsets accordingly.
-	 * 
-	 * @require offsets != null && !offsets.contains(null)
-	 * @param offsets
-	 * 			A list of offsets for the allocated segments that correspond 
-	 * 			to the allocated routes of each train
-	 * @return a list of offsets without the marker [0, 0] 
+	 * Joins the group of the given train with the group of the first train
+	 * that used the given key, or records the train as its first user.
 	 */
-	private static List<ArrayList<ArrayList<Integer>>> removeZeroOffsets(
-			List<ArrayList<ArrayList<Integer>>> offsets) {
-		// An array to store the marker [0, 0]
-		ArrayList<Integer> zeroes = new ArrayList<Integer>();
-		zeroes.add(0);
-		zeroes.add(0);
-		for (int i = 0; i < offsets.size(); i++) {
-			if (offsets.get(i).contains(zeroes)) {
-				offsets.get(i).remove(zeroes);
-			}
+	private static <K> void union(int[] parents, int train,
+			Map<K, Integer> users, K key) {
+		Integer user = users.get(key);
+		if (user == null) {
+			users.put(key, train);
+			return;
+		}
+		int first = find(parents, user);
+		int second = find(parents, train);
+		if (first != second) {
+			// The smaller index becomes the root
+			parents[Math.max(first, second)] = Math.min(first, second);
+		}
+	}
+
+	private static int find(int[] parents, int train) {
+		while (parents[train] != train) {
+			parents[train] = parents[parents[train]];
+			train = parents[train];
 		}
-		return offsets;
+		return train;
 	}
 
 	/**
-	 * @require occupied != null && requested != null && offsets != null
-	 *          !occupied.contains(null) && !requested.contains(null) && 
-	 *          !offsets.contains(null) && !offsets.get(i).contains([0,0]) &&
-	 *          occupied.size() == requested.size()
-	 * @param occupied
-	 * 			a list of routes that are currently occupied by occupied.size()
-	 * 			number of trains where occupied.get(i) is the route of the ith
-	 * 			train
+	 * This method returns the longest prefix of the requested route of the
+	 * given train that does not intersect any of the routes in the index that
+	 * block the train: the routes occupied by other trains, and the routes
+	 * allocated to trains with lower indices.
+	 * 
+	 * The requested segments are checked in order, and each check is answered
+	 * by the index, so the cost of allocating a route depends on the number
+	 * of segments in that route rather than on the number of trains.
+	 * 
+	 * @require requested != null && !requested.contains(null) &&
+	 *          index != null
 	 * @param requested
-	 * 			a list of the routes requested by each of the occupied.size()
-	 * 			trains
-	 * @param offsets
-	 * 			A list of offsets for the allocated segments that correspond 
-	 * 			to the allocated routes of each train
-	 * @return a list of allocated routes that correspond to each train in 
-	 * 			occupied
+	 * 			the route requested by the train
+	 * @param train
+	 * 			the index of the train that requested the route
+	 * @param index
+	 * 			an index of the routes occupied by each train, and the routes
+	 * 			allocated to the trains with lower indices
+	 * @param examined
+	 * 			if not null, each requested segment that is checked against
+	 * 			the index is added to this collection
+	 * @return the route allocated to the train
 	 */
-	private static List<List<Segment>> createSegments(
-			List<List<Segment>> occupied, List<List<Segment>> requested,
-			List<ArrayList<ArrayList<Integer>>> offsets) {
-		// An empty list to store the final allocated routes
-		List<List<Segment>> createdSegments = new ArrayList<List<Segment>>();
-		for (int i = 0; i < requested.size(); i++) {
-			// An empty array to store the segments for each route
-			ArrayList<Segment> segments = new ArrayList<Segment>();
-			for (int j = 0; j < offsets.get(i).size(); j++) {
-				Segment s = new Segment(requested.get(i).get(j).getSection(),
-						requested.get(i).get(j).getDepartingEndPoint(),
-						offsets.get(i).get(j).get(0),
-						offsets.get(i).get(j).get(1));
-				segments.add(s);
+	static List<Segment> allocateRoute(List<Segment> requested, int train,
+			SectionOccupancyIndex index, Collection<Segment> examined) {
+		// The allocated segments of the route
+		List<Segment> route = new ArrayList<Segment>(requested.size());
+		allocateRoute(requested, train, index, examined, route);
+		return route;
+	}
+
+	/**
+	 * Adds the segments of the route that allocateRoute(requested, train,
+	 * index, examined) returns to the given empty route.
+	 */
+	private static void allocateRoute(List<Segment> requested, int train,
+			SectionOccupancyIndex index, Collection<Segment> examined,
+			List<Segment> route) {
+		for (int m = 0; m < requested.size(); m++) {
+			Segment segment = requested.get(m);
+			if (examined != null) {
+				examined.add(segment);
+			}
+			int blocked = index.firstBlocked(segment, train);
+			if (blocked == -1) {
+				route.add(segment);
+				continue;
 			}
-			createdSegments.addAll(Arrays.asList(segments));
+			// Only the part of the segment before the blocked location can
+			// be allocated, and none of the segments that follow it
+			if (blocked > segment.getStartOffset()) {
+				route.add(new Segment(segment.getSection(),
+						segment.getDepartingEndPoint(),
+						segment.getStartOffset(), blocked - 1));
+			}
+			break;
+		}
+	}
+
+	/**
+	 * A task that allocates a range of groups of trains, and writes the route
+	 * allocated to each train into the shared result at the index of the
+	 * train. If the range contains more than one group and more than
+	 * THRESHOLD trains, it is split in two and the halves are allocated in
+	 * parallel.
+	 */
+	@SuppressWarnings("serial")
+	private static class GroupTask extends RecursiveAction {
+
+		// The number of trains below which a range is not split
+		private static final int THRESHOLD = 64;
+
+		private List<List<Segment>> occupied;
+		private List<List<Segment>> requested;
+		private List<int[]> groups;
+		// The first group of the range, and the group after the last one
+		private int from;
+		private int to;
+		// The routes allocated to each train
+		private List<List<Segment>> result;
+
+		GroupTask(List<List<Segment>> occupied, List<List<Segment>> requested,
+				List<int[]> groups, int from, int to,
+				List<List<Segment>> result) {
+			this.occupied = occupied;
+			this.requested = requested;
+			this.groups = groups;
+			this.from = from;
+			this.to = to;
+			this.result = result;
 		}
-		return createdSegments;
 
+		@Override
+		protected void compute() {
+			int trains = 0;
+			for (int g = from; g < to && trains <= THRESHOLD; g++) {
+				trains += groups.get(g).length;
+			}
+			if (to - from > 1 && trains > THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new GroupTask(occupied, requested, groups, from,
+						middle, result), new GroupTask(occupied, requested,
+						groups, middle, to, result));
+				return;
+			}
+			// One index is reused for the groups of this task, and released
+			// when it completes
+			SectionOccupancyIndex index = new SectionOccupancyIndex();
+			for (int g = from; g < to; g++) {
+				int[] members = groups.get(g);
+				List<List<Segment>> groupOccupied =
+						new ArrayList<List<Segment>>(members.length);
+				List<List<Segment>> groupRequested =
+						new ArrayList<List<Segment>>(members.length);
+				for (int i = 0; i < members.length; i++) {
+					groupOccupied.add(occupied.get(members[i]));
+					groupRequested.add(requested.get(members[i]));
+				}
+				List<List<Segment>> allocated = new ArrayList<List<Segment>>(
+						members.length);
+				allocate(groupOccupied, groupRequested, index, allocated);
+				for (int i = 0; i < members.length; i++) {
+					// Each train is written by exactly one task
+					result.set(members[i], allocated.get(i));
+				}
+			}
+		}
 	}
 
 }
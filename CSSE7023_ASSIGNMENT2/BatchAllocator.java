@@ -0,0 +1,427 @@
+package railway;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Evaluates many allocation scenarios on the same frozen track, e.g. for
+ * what-if planning with different train priorities or delays. Each scenario
+ * is a pair of occupied and requested lists, and is allocated exactly as by
+ * Allocator.allocate.
+ * </p>
+ *
+ * <p>
+ * The work that does not depend on the scenario is shared between them. The
+ * sections and junctions of the track are numbered once by the TrackGraph, and
+ * the routes of a scenario are indexed in arrays indexed by those numbers,
+ * rather than in hash maps of sections and junctions. The arrays are pooled,
+ * and are cleared in constant time and reused by later scenarios rather than
+ * being allocated again, so allocating a scenario only creates the routes
+ * that it returns. Scenarios are evaluated in parallel on a fork-join pool.
+ * </p>
+ *
+ * <p>
+ * An allocator may be used by more than one thread at a time.
+ * </p>
+ */
+public class BatchAllocator {
+
+	// The largest number of scenarios that a task allocates without splitting
+	private static final int THRESHOLD = 4;
+
+	// the track that the scenarios are on
+	private TrackGraph graph;
+	// indexes that are not currently being used by a task
+	private ConcurrentLinkedQueue<Scratch> idle =
+			new ConcurrentLinkedQueue<Scratch>();
+
+	/*
+	 * invariant: graph != null && each element of idle has arrays sized for
+	 * graph
+	 */
+
+	/**
+	 * Creates a new allocator for scenarios on the given track.
+	 *
+	 * @param graph
+	 *            the track that the scenarios are on
+	 * @throws NullPointerException
+	 *             if graph is null
+	 */
+	public BatchAllocator(TrackGraph graph) throws NullPointerException {
+		if (graph == null) {
+			throw new NullPointerException("The graph cannot be null.");
+		}
+		this.graph = graph;
+	}
+
+	/**
+	 * Returns the allocation of each of the given scenarios, where the ith
+	 * scenario consists of occupied.get(i) and requested.get(i), and the ith
+	 * element of the result is Allocator.allocate(occupied.get(i),
+	 * requested.get(i)).
+	 *
+	 * @require occupied != null && requested != null && occupied.size() ==
+	 *          requested.size() && the preconditions of Allocator.allocate
+	 *          hold for each scenario
+	 * @param occupied
+	 *            the routes occupied by the trains of each scenario
+	 * @param requested
+	 *            the routes requested by the trains of each scenario
+	 * @param pool
+	 *            the pool to evaluate the scenarios on
+	 * @return the allocation of each scenario
+	 * @throws NullPointerException
+	 *             if pool is null
+	 * @throws IllegalArgumentException
+	 *             if a segment of a scenario is not on a section of the track
+	 */
+	public List<List<List<Segment>>> allocate(
+			List<List<List<Segment>>> occupied,
+			List<List<List<Segment>>> requested, ForkJoinPool pool)
+			throws NullPointerException, IllegalArgumentException {
+		if (pool == null) {
+			throw new NullPointerException("The pool cannot be null.");
+		}
+		List<List<List<Segment>>> result = new ArrayList<List<List<Segment>>>(
+				Collections.<List<List<Segment>>>nCopies(occupied.size(),
+						null));
+		pool.invoke(new ScenarioTask(occupied, requested, 0, occupied.size(),
+				result));
+		return result;
+	}
+
+	/**
+	 * Returns the allocation of a single scenario, as for Allocator.allocate.
+	 *
+	 * @require the preconditions of Allocator.allocate
+	 * @param occupied
+	 *            the routes occupied by each train
+	 * @param requested
+	 *            the routes requested by each train
+	 * @return the list of allocated routes
+	 * @throws IllegalArgumentException
+	 *             if a segment is not on a section of the track
+	 */
+	public List<List<Segment>> allocate(List<List<Segment>> occupied,
+			List<List<Segment>> requested) throws IllegalArgumentException {
+		Scratch scratch = acquire();
+		try {
+			return allocate(occupied, requested, scratch);
+		} finally {
+			idle.add(scratch);
+		}
+	}
+
+	/**
+	 * Allocates a scenario using the given index.
+	 */
+	private List<List<Segment>> allocate(List<List<Segment>> occupied,
+			List<List<Segment>> requested, Scratch scratch) {
+		scratch.clear();
+		for (int i = 0; i < occupied.size(); i++) {
+			List<Segment> route = occupied.get(i);
+			for (int m = 0; m < route.size(); m++) {
+				scratch.add(route.get(m), i);
+			}
+		}
+		List<List<Segment>> allocator = new ArrayList<List<Segment>>(
+				requested.size());
+		for (int n = 0; n < requested.size(); n++) {
+			List<Segment> wanted = requested.get(n);
+			List<Segment> route = new ArrayList<Segment>(wanted.size());
+			for (int m = 0; m < wanted.size(); m++) {
+				Segment segment = wanted.get(m);
+				int blocked = scratch.firstBlocked(segment, n);
+				if (blocked == -1) {
+					route.add(segment);
+					continue;
+				}
+				// Only the part of the segment before the blocked location
+				// can be allocated, and none of the segments that follow it
+				if (blocked > segment.getStartOffset()) {
+					route.add(new Segment(segment.getSection(),
+							segment.getDepartingEndPoint(),
+							segment.getStartOffset(), blocked - 1));
+				}
+				break;
+			}
+			// The allocated segments are recorded after the whole route has
+			// been allocated, as in Allocator.allocate
+			for (int m = 0; m < route.size(); m++) {
+				scratch.add(route.get(m), n);
+			}
+			allocator.add(route);
+		}
+		return allocator;
+	}
+
+	/**
+	 * Returns an index that is not being used by another thread.
+	 */
+	private Scratch acquire() {
+		Scratch scratch = idle.poll();
+		return (scratch == null) ? new Scratch(graph) : scratch;
+	}
+
+	/**
+	 * Determines whether this class is internally consistent (i.e. it
+	 * satisfies its class invariant).
+	 *
+	 * This method is only intended for testing purposes.
+	 *
+	 * @return true if this class is internally consistent, and false
+	 *         otherwise.
+	 */
+	public boolean checkInvariant() {
+		if (graph == null) {
+			return false;
+		}
+		for (Scratch scratch : idle) {
+			if (scratch.heads.length != graph.sectionCount()
+					|| scratch.holders.length != graph.junctionCount()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * An index of the routes of one scenario, in arrays indexed by the
+	 * numbers of the sections and junctions of the track. Entries that were
+	 * written for an earlier scenario are recognised by their stamp, so the
+	 * index can be cleared in constant time.
+	 *
+	 * Since Allocator.allocate records each allocated route after all the
+	 * routes of trains with lower indices, every recorded route that does not
+	 * belong to the train being allocated blocks it.
+	 */
+	private static class Scratch {
+
+		// the track that the scenarios are on
+		private TrackGraph graph;
+		// the current scenario
+		private int generation;
+		// the scenario in which each section was last written, and the first
+		// interval on the section (or -1)
+		private int[] sectionStamps;
+		private int[] heads;
+		// the intervals recorded in the current scenario: the next interval
+		// on the same section (or -1), the lowest and highest offsets from the
+		// canonical end-point, and the train
+		private int[] next = new int[64];
+		private int[] lows = new int[64];
+		private int[] highs = new int[64];
+		private int[] trains = new int[64];
+		private int size;
+		// the scenario in which each junction was last written, the first
+		// train recorded at the junction, and whether another train has
+		// been recorded there
+		private int[] junctionStamps;
+		private int[] holders;
+		private boolean[] shared;
+
+		Scratch(TrackGraph graph) {
+			this.graph = graph;
+			sectionStamps = new int[graph.sectionCount()];
+			heads = new int[sectionStamps.length];
+			junctionStamps = new int[graph.junctionCount()];
+			holders = new int[junctionStamps.length];
+			shared = new boolean[junctionStamps.length];
+		}
+
+		/**
+		 * Forgets the routes of the previous scenario.
+		 */
+		void clear() {
+			size = 0;
+			if (++generation == 0) {
+				// the stamps have wrapped around, so none of them can be
+				// trusted
+				Arrays.fill(sectionStamps, 0);
+				Arrays.fill(junctionStamps, 0);
+				generation = 1;
+			}
+		}
+
+		/**
+		 * Records the given segment against the given train.
+		 */
+		void add(Segment segment, int train) {
+			int section = number(segment);
+			int length = graph.length(section);
+			boolean forward = forward(segment);
+			int low = forward ? segment.getStartOffset() : length
+					- segment.getEndOffset();
+			int high = forward ? segment.getEndOffset() : length
+					- segment.getStartOffset();
+			if (sectionStamps[section] != generation) {
+				sectionStamps[section] = generation;
+				heads[section] = -1;
+			}
+			if (size == next.length) {
+				next = Arrays.copyOf(next, 2 * size);
+				lows = Arrays.copyOf(lows, 2 * size);
+				highs = Arrays.copyOf(highs, 2 * size);
+				trains = Arrays.copyOf(trains, 2 * size);
+			}
+			next[size] = heads[section];
+			lows[size] = low;
+			highs[size] = high;
+			trains[size] = train;
+			heads[section] = size++;
+			if (low == 0) {
+				addJunction(junction(section, 0), train);
+			}
+			if (high == length) {
+				addJunction(junction(section, 1), train);
+			}
+		}
+
+		private void addJunction(int junction, int train) {
+			if (junctionStamps[junction] != generation) {
+				junctionStamps[junction] = generation;
+				holders[junction] = train;
+				shared[junction] = false;
+			} else if (holders[junction] != train) {
+				shared[junction] = true;
+			}
+		}
+
+		private boolean junctionBlocked(int junction, int train) {
+			return junctionStamps[junction] == generation
+					&& (holders[junction] != train || shared[junction]);
+		}
+
+		/**
+		 * Returns the offset (from its departing end-point) of the first
+		 * location of the given segment that is covered by a route of
+		 * another train, or -1 if there is none.
+		 */
+		int firstBlocked(Segment segment, int train) {
+			int section = number(segment);
+			int length = graph.length(section);
+			int start = segment.getStartOffset();
+			int end = segment.getEndOffset();
+			boolean forward = forward(segment);
+			// the end of the section that the segment departs from
+			int departing = forward ? 0 : 1;
+			if (start == 0 && junctionBlocked(junction(section, departing),
+					train)) {
+				return 0;
+			}
+			if (sectionStamps[section] == generation) {
+				int low = forward ? start : length - end;
+				int high = forward ? end : length - start;
+				// the lowest or highest blocked offset from the canonical
+				// end-point, for a segment that departs from the canonical
+				// end-point or from the other one
+				int blocked = forward ? Integer.MAX_VALUE : -1;
+				for (int i = heads[section]; i != -1; i = next[i]) {
+					if (trains[i] == train || highs[i] < low
+							|| lows[i] > high) {
+						continue;
+					}
+					if (forward) {
+						blocked = Math.min(blocked, Math.max(lows[i], low));
+					} else {
+						blocked = Math.max(blocked, Math.min(highs[i], high));
+					}
+				}
+				if (forward && blocked != Integer.MAX_VALUE) {
+					return blocked;
+				}
+				if (!forward && blocked != -1) {
+					return length - blocked;
+				}
+			}
+			if (end == length && junctionBlocked(junction(section,
+					1 - departing), train)) {
+				return end;
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns the number of the section of the given segment.
+		 */
+		private int number(Segment segment) {
+			int section = graph.sectionNumber(segment.getSection());
+			if (section == -1) {
+				throw new IllegalArgumentException(
+						"The segments must be on the track.");
+			}
+			return section;
+		}
+
+		/**
+		 * Returns the number of the junction at the canonical (which == 0)
+		 * or other (which == 1) end-point of the given section.
+		 */
+		private int junction(int section, int which) {
+			return JunctionRegistry.junctionId(graph.endPoint(section, which));
+		}
+
+		/**
+		 * Returns true if the given segment departs from the canonical
+		 * end-point of its section.
+		 */
+		private static boolean forward(Segment segment) {
+			return segment.getDepartingEndPoint().equals(
+					segment.getSection().getCanonicalEndPoint());
+		}
+	}
+
+	/**
+	 * A task that allocates a range of scenarios, and writes the allocation
+	 * of each into the shared result at the index of the scenario. If there
+	 * are more than THRESHOLD scenarios, it splits them in two and allocates
+	 * the halves in parallel.
+	 */
+	@SuppressWarnings("serial")
+	private class ScenarioTask extends RecursiveAction {
+
+		private List<List<List<Segment>>> occupied;
+		private List<List<List<Segment>>> requested;
+		// The first scenario of the range, and the scenario after the last
+		private int from;
+		private int to;
+		// The allocation of each scenario
+		private List<List<List<Segment>>> result;
+
+		ScenarioTask(List<List<List<Segment>>> occupied,
+				List<List<List<Segment>>> requested, int from, int to,
+				List<List<List<Segment>>> result) {
+			this.occupied = occupied;
+			this.requested = requested;
+			this.from = from;
+			this.to = to;
+			this.result = result;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ScenarioTask(occupied, requested, from, middle,
+						result), new ScenarioTask(occupied, requested, middle,
+						to, result));
+				return;
+			}
+			Scratch scratch = acquire();
+			try {
+				for (int i = from; i < to; i++) {
+					// Each scenario is written by exactly one task
+					result.set(i, allocate(occupied.get(i), requested.get(i),
+							scratch));
+				}
+			} finally {
+				idle.add(scratch);
+			}
+		}
+	}
+
+}
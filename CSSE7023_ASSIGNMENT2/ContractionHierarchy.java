@@ -0,0 +1,1094 @@
+package railway;
+
+import java.util.*;
+
+/**
+ * <p>
+ * A contraction hierarchy over the layout of a railway track, that answers
+ * the same route queries as RoutePlanner without searching the whole track.
+ * </p>
+ *
+ * <p>
+ * The nodes of the hierarchy are the end-points of the track, where reaching
+ * an end-point means that a train has entered its junction on its branch (as
+ * in RoutePlanner), and there is an edge from one end-point to another if a
+ * train can travel between them along one section without breaking the
+ * junction traversal rule. The nodes are contracted in minimum degree order,
+ * and every pair of higher ranked neighbours of a contracted node is joined
+ * by a shortcut, without witness searches. The weight of each shortcut is the
+ * length of the shortest path between its nodes through lower ranked nodes,
+ * which is computed from the triangles below it. A query is a bidirectional
+ * search that only follows edges towards higher ranked nodes, and the
+ * shortcuts on the route it finds are unpacked into sections.
+ * </p>
+ *
+ * <p>
+ * Since the shortcuts do not depend on the lengths of the sections, the
+ * hierarchy can be kept up to date when sections are added to or removed
+ * from the track (e.g. by registering it as a listener of the track). A
+ * removed section only changes the weights of the edges above it, and an
+ * added section only adds the shortcuts needed to keep the hierarchy closed,
+ * so only the shortcuts that depend on the end-points of the section are
+ * recomputed. Junctions that are added to the track are ranked above all of
+ * the existing junctions, so after many changes the hierarchy may answer
+ * queries more slowly than one that is built from scratch.
+ * </p>
+ *
+ * <p>
+ * The scratch arrays of a query are reused by each query, so a hierarchy must
+ * not be used by more than one thread at a time.
+ * </p>
+ */
+public class ContractionHierarchy implements TrackListener {
+
+	// the weight of a path that does not exist; twice this is still positive
+	private static final long INFINITY = Long.MAX_VALUE / 4;
+
+	// the junctions of the track, with their ids; the end-point ids are the
+	// nodes of the hierarchy
+	private JunctionRegistry registry;
+	// the section connected to each end-point, or null if there is none
+	private Section[] sections;
+	// the end-point at the other end of the section connected to each
+	// end-point, or -1 if there is none
+	private int[] opposites;
+	// the number of nodes of the hierarchy
+	private int nodeCount;
+	// the rank of each node in the contraction order
+	private int[] ranks;
+
+	// the higher ranked neighbours of each node and the edges to them
+	private int[][] upNodes;
+	private int[][] upEdges;
+	private int[] upCounts;
+	// the lower ranked neighbours of each node and the edges to them
+	private int[][] downNodes;
+	private int[][] downEdges;
+	private int[] downCounts;
+
+	// the lower and higher ranked node of each edge
+	private int[] lows;
+	private int[] highs;
+	// the length of the section from the low node to the high node of each
+	// edge, and from the high node to the low node, or INFINITY
+	private long[] inputUp;
+	private long[] inputDown;
+	// the length of the shortest path through lower ranked nodes from the
+	// low node to the high node of each edge, and from the high node to the
+	// low node, and the lowest node on those paths (or -1 if the shortest
+	// path is a section)
+	private long[] weightUp;
+	private long[] weightDown;
+	private int[] middleUp;
+	private int[] middleDown;
+	private int edgeCount;
+
+	// the scratch arrays of the forward and backward searches of a query
+	private Search forward;
+	private Search backward;
+	// the end-point on which the route leaves each node that the backward
+	// search starts from to enter the section of the destination, or -1
+	private int[] targetExits;
+	// the nodes of the route found by a query
+	private int[] path;
+	private int pathLength;
+	// a stack of nodes, reused by unpack and insertEdge
+	private int[] stack;
+
+	/*
+	 * invariant: sections.length == opposites.length == ranks.length ==
+	 * upCounts.length == downCounts.length >= nodeCount == 4 *
+	 * registry.size() && for each node, opposites[node] is the other
+	 * end-point of sections[node] (or -1 if it is null) && the ranks of
+	 * the nodes are a permutation of 0 .. nodeCount - 1 && for each node, the
+	 * higher ranked neighbours of the node are joined by edges && for each
+	 * edge, inputUp, inputDown, weightUp and weightDown are the input and
+	 * shortest path weights described above
+	 */
+
+	/**
+	 * Creates a contraction hierarchy for the current layout of the given
+	 * track. Later changes to the track are not reflected in the hierarchy
+	 * unless they are passed to sectionAdded and sectionRemoved.
+	 *
+	 * @param track
+	 *            the track to create the hierarchy for
+	 * @throws NullPointerException
+	 *             if track is null
+	 */
+	public ContractionHierarchy(TrackView track) throws NullPointerException {
+		if (track == null) {
+			throw new NullPointerException("The track cannot be null.");
+		}
+		registry = new JunctionRegistry();
+		sections = new Section[16];
+		opposites = new int[16];
+		Arrays.fill(opposites, -1);
+		ranks = new int[16];
+		upNodes = new int[16][];
+		upEdges = new int[16][];
+		upCounts = new int[16];
+		downNodes = new int[16][];
+		downEdges = new int[16][];
+		downCounts = new int[16];
+		lows = new int[16];
+		highs = new int[16];
+		inputUp = new long[16];
+		inputDown = new long[16];
+		weightUp = new long[16];
+		weightDown = new long[16];
+		middleUp = new int[16];
+		middleDown = new int[16];
+		stack = new int[16];
+		for (Section section : track) {
+			for (JunctionBranch endPoint : section.getEndPoints()) {
+				registry.register(endPoint);
+			}
+			ensureNodes(4 * registry.size());
+			connect(section);
+		}
+		nodeCount = 4 * registry.size();
+		contract();
+		for (int node = 0; node < nodeCount; node++) {
+			if (sections[node] != null) {
+				for (int branch = 0; branch < 3; branch++) {
+					int from = predecessor(node, branch);
+					if (from != -1) {
+						setInput(from, node, null);
+					}
+				}
+			}
+		}
+		customize();
+		forward = new Search();
+		backward = new Search();
+		targetExits = new int[nodeCount];
+		path = new int[16];
+	}
+
+	/**
+	 * Returns a shortest route from the origin to the destination, or null if
+	 * there is no route from the origin to the destination, as for
+	 * RoutePlanner.route.
+	 *
+	 * @param origin
+	 *            the location the route starts at
+	 * @param destination
+	 *            the location the route ends at
+	 * @return a shortest route from origin to destination, or null if there
+	 *         is none
+	 * @throws NullPointerException
+	 *             if origin or destination is null
+	 * @throws IllegalArgumentException
+	 *             if the section of origin or destination is not a section of
+	 *             the track
+	 */
+	public List<Segment> route(Location origin, Location destination)
+			throws NullPointerException, IllegalArgumentException {
+		if (origin == null || destination == null) {
+			throw new NullPointerException(
+					"The origin and destination cannot be null.");
+		}
+		int originEndPoint = registry.getId(origin.getEndPoint());
+		int targetEndPoint = registry.getId(destination.getEndPoint());
+		if (!onTrack(originEndPoint, origin.getSection())
+				|| !onTrack(targetEndPoint, destination.getSection())) {
+			throw new IllegalArgumentException(
+					"The origin and destination must be on the track.");
+		}
+		if (origin.equals(destination)) {
+			return new ArrayList<Segment>();
+		}
+		forward.start();
+		backward.start();
+		Section target = destination.getSection();
+		// the shortest route found so far, and how it leaves the origin if it
+		// does not pass through a node: directly to the destination (-2) or
+		// on the given end-point of the origin's junction (otherwise -1)
+		long best = INFINITY;
+		int bestExit = -1;
+		int meeting = -1;
+
+		if (origin.atAJunction()) {
+			int junction = JunctionRegistry.junctionId(originEndPoint);
+			for (int branch = 0; branch < 3; branch++) {
+				int exit = junction << 2 | branch;
+				Section section = sections[exit];
+				if (section == null) {
+					continue;
+				}
+				forward.reach(opposites[exit], section.getLength(), -1);
+				if (section.equals(target) && !destination.atAJunction()) {
+					long distance = RoutePlanner.depart(section,
+							endPoint(exit), destination).getEndOffset();
+					if (distance < best) {
+						best = distance;
+						bestExit = exit;
+					}
+				}
+			}
+		} else {
+			Section section = origin.getSection();
+			int length = section.getLength();
+			int offset = origin.getOffset();
+			if (section.equals(target) && !destination.atAJunction()) {
+				Segment direct = RoutePlanner.direct(origin, destination);
+				best = direct.getEndOffset() - direct.getStartOffset();
+				bestExit = -2;
+			}
+			forward.reach(originEndPoint, offset, -1);
+			forward.reach(opposites[originEndPoint], length - offset, -1);
+		}
+
+		if (destination.atAJunction()) {
+			int junction = JunctionRegistry.junctionId(targetEndPoint);
+			for (int branch = 0; branch < 3; branch++) {
+				int node = junction << 2 | branch;
+				if (sections[node] != null) {
+					backward.reach(node, 0, -1);
+					targetExits[node] = -1;
+				}
+			}
+		} else {
+			for (int end = 0; end < 2; end++) {
+				int exitNode = (end == 0) ? targetEndPoint
+						: opposites[targetEndPoint];
+				long distance = RoutePlanner.depart(target, endPoint(exitNode),
+						destination).getEndOffset();
+				int junction = JunctionRegistry.junctionId(exitNode);
+				for (int branch = 0; branch < 3; branch++) {
+					int node = junction << 2 | branch;
+					if (sections[node] != null && turns(node, exitNode)
+							&& backward.reach(node, distance, -1)) {
+						targetExits[node] = exitNode;
+					}
+				}
+			}
+		}
+
+		// alternate between the searches, always advancing the one with the
+		// nearest unsettled node, until neither can find a shorter route
+		while (true) {
+			long forwardKey = forward.peek();
+			long backwardKey = backward.peek();
+			if (Math.min(forwardKey, backwardKey) >= best) {
+				break;
+			}
+			boolean isForward = forwardKey <= backwardKey;
+			Search search = isForward ? forward : backward;
+			Search other = isForward ? backward : forward;
+			int node = search.pop();
+			if (node == -1) {
+				continue;
+			}
+			long distance = search.distances[node];
+			if (other.generations[node] == other.generation
+					&& distance + other.distances[node] < best) {
+				best = distance + other.distances[node];
+				meeting = node;
+				bestExit = -1;
+			}
+			int[] nodes = upNodes[node];
+			int[] edges = upEdges[node];
+			for (int i = 0; i < upCounts[node]; i++) {
+				long weight = isForward ? weightUp[edges[i]]
+						: weightDown[edges[i]];
+				if (weight < INFINITY) {
+					search.reach(nodes[i], distance + weight, edges[i]);
+				}
+			}
+		}
+		if (best >= INFINITY) {
+			return null;
+		}
+
+		List<Segment> route = new ArrayList<Segment>();
+		if (bestExit == -2) {
+			route.add(RoutePlanner.direct(origin, destination));
+			return route;
+		}
+		if (bestExit != -1) {
+			route.add(RoutePlanner.depart(target, endPoint(bestExit),
+					destination));
+			return route;
+		}
+		unpackRoute(meeting);
+		for (int i = 0; i < pathLength; i++) {
+			int node = path[i];
+			route.add(RoutePlanner.arrive(sections[node], endPoint(node),
+					(i == 0 && !origin.atAJunction()) ? origin : null));
+		}
+		int last = path[pathLength - 1];
+		if (!destination.atAJunction()) {
+			route.add(RoutePlanner.depart(target, endPoint(targetExits[last]),
+					destination));
+		}
+		return route;
+	}
+
+	/**
+	 * Updates the hierarchy after the given section has been added to the
+	 * track.
+	 *
+	 * @require section != null && the track of the hierarchy did not contain
+	 *          a section connected to either of the end-points of the
+	 *          section
+	 */
+	@Override
+	public void sectionAdded(Section section) {
+		for (JunctionBranch endPoint : section.getEndPoints()) {
+			registry.register(endPoint);
+		}
+		addNodes(4 * registry.size());
+		connect(section);
+		Set<Integer> changed = new HashSet<Integer>();
+		for (JunctionBranch endPoint : section.getEndPoints()) {
+			updateInputs(registry.getId(endPoint), changed);
+		}
+		update(changed);
+	}
+
+	/**
+	 * Updates the hierarchy after the given section has been removed from the
+	 * track.
+	 *
+	 * @require section != null
+	 */
+	@Override
+	public void sectionRemoved(Section section) {
+		int first = registry.getId(section.getCanonicalEndPoint());
+		if (first == -1 || !section.equals(sections[first])) {
+			return;
+		}
+		int[] nodes = { first, opposites[first] };
+		// the edges are found before the section is removed, since the
+		// section and its end-points are needed to find them: the pairs of
+		// nodes (from, to) of up to three edges into and out of each node
+		int[] pairs = new int[2 * 2 * 6];
+		int pairCount = 0;
+		for (int node : nodes) {
+			for (int branch = 0; branch < 3; branch++) {
+				int from = predecessor(node, branch);
+				if (from != -1) {
+					pairs[pairCount++] = from;
+					pairs[pairCount++] = node;
+				}
+				int to = successor(node, branch);
+				if (to != -1) {
+					pairs[pairCount++] = node;
+					pairs[pairCount++] = to;
+				}
+			}
+		}
+		for (int node : nodes) {
+			sections[node] = null;
+			opposites[node] = -1;
+		}
+		Set<Integer> changed = new HashSet<Integer>();
+		for (int i = 0; i < pairCount; i += 2) {
+			setInput(pairs[i], pairs[i + 1], changed);
+		}
+		update(changed);
+	}
+
+	/**
+	 * Connects the end-points of the given section, whose junctions have
+	 * been registered, to the section.
+	 */
+	private void connect(Section section) {
+		int first = registry.getId(section.getCanonicalEndPoint());
+		int second = registry.getId(section.otherEndPoint(section
+				.getCanonicalEndPoint()));
+		sections[first] = section;
+		sections[second] = section;
+		opposites[first] = second;
+		opposites[second] = first;
+	}
+
+	/**
+	 * Returns true if the given section is connected to the given end-point
+	 * in the track of the hierarchy.
+	 */
+	private boolean onTrack(int endPoint, Section section) {
+		return endPoint != -1 && section.equals(sections[endPoint]);
+	}
+
+	/**
+	 * Returns true if the section of the given location is a section of the
+	 * track, so that it can be the origin or destination of a route.
+	 */
+	boolean onTrack(Location location) {
+		return onTrack(registry.getId(location.getEndPoint()),
+				location.getSection());
+	}
+
+	/**
+	 * Returns the end-point with the given id.
+	 */
+	private JunctionBranch endPoint(int node) {
+		return JunctionBranch.of(
+				registry.getJunction(JunctionRegistry.junctionId(node)),
+				JunctionRegistry.branch(node));
+	}
+
+	/**
+	 * Returns true if a train that entered a junction on the given end-point
+	 * can leave it on the given exit.
+	 */
+	private static boolean turns(int node, int exit) {
+		int facing = Branch.FACING.ordinal();
+		return ((node & 3) == facing) != ((exit & 3) == facing);
+	}
+
+	/**
+	 * Returns the node on the given branch of its junction with an edge to
+	 * the given node (i.e. the end-point from which a train can reach the
+	 * given end-point along its section), or -1 if there is none.
+	 *
+	 * @require sections[node] != null
+	 */
+	private int predecessor(int node, int branch) {
+		int exit = opposites[node];
+		int from = JunctionRegistry.junctionId(exit) << 2 | branch;
+		return (from != node && sections[from] != null && turns(from, exit))
+				? from : -1;
+	}
+
+	/**
+	 * Returns the node with an edge from the given node along the section on
+	 * the given branch of its junction, or -1 if there is none.
+	 */
+	private int successor(int node, int branch) {
+		int exit = JunctionRegistry.junctionId(node) << 2 | branch;
+		if (sections[exit] == null || !turns(node, exit)) {
+			return -1;
+		}
+		int to = opposites[exit];
+		return (to != node) ? to : -1;
+	}
+
+	/**
+	 * Returns the length of the section from one node to the other, or
+	 * INFINITY if there is no edge between them in the track.
+	 */
+	private long inputWeight(int from, int to) {
+		if (from == to || sections[from] == null || sections[to] == null) {
+			return INFINITY;
+		}
+		int exit = opposites[to];
+		if (JunctionRegistry.junctionId(exit) != JunctionRegistry
+				.junctionId(from) || !turns(from, exit)) {
+			return INFINITY;
+		}
+		return sections[to].getLength();
+	}
+
+	/**
+	 * Sets the input weights of all of the edges to and from the given node.
+	 */
+	private void updateInputs(int node, Set<Integer> changed) {
+		for (int branch = 0; branch < 3; branch++) {
+			int from = predecessor(node, branch);
+			if (from != -1) {
+				setInput(from, node, changed);
+			}
+			int to = successor(node, branch);
+			if (to != -1) {
+				setInput(node, to, changed);
+			}
+		}
+	}
+
+	/**
+	 * Sets the input weight of the edge from one node to the other to the
+	 * length of the section between them (if any), adding the edge to the
+	 * hierarchy if it is needed. The edges whose weight must be recomputed
+	 * are added to changed, unless it is null.
+	 */
+	private void setInput(int from, int to, Set<Integer> changed) {
+		long weight = inputWeight(from, to);
+		int edge = findEdge(from, to);
+		if (edge == -1) {
+			if (weight == INFINITY) {
+				return;
+			}
+			edge = insertEdge(from, to, changed);
+		}
+		long[] inputs = (lows[edge] == from) ? inputUp : inputDown;
+		if (inputs[edge] != weight) {
+			inputs[edge] = weight;
+			if (changed != null) {
+				changed.add(edge);
+			}
+		}
+	}
+
+	/**
+	 * Computes the contraction order of the nodes and adds the shortcuts
+	 * between the higher ranked neighbours of each node, by simulating the
+	 * contraction of the node with the fewest neighbours at each step.
+	 */
+	private void contract() {
+		List<Set<Integer>> neighbours = new ArrayList<Set<Integer>>(nodeCount);
+		for (int node = 0; node < nodeCount; node++) {
+			neighbours.add(new HashSet<Integer>());
+		}
+		for (int node = 0; node < nodeCount; node++) {
+			if (sections[node] != null) {
+				for (int branch = 0; branch < 3; branch++) {
+					int from = predecessor(node, branch);
+					if (from != -1) {
+						neighbours.get(node).add(from);
+						neighbours.get(from).add(node);
+					}
+				}
+			}
+		}
+		// the contraction queue, ordered by degree and then by node
+		PriorityQueue<Long> queue = new PriorityQueue<Long>();
+		for (int node = 0; node < nodeCount; node++) {
+			queue.add((long) neighbours.get(node).size() << 32 | node);
+		}
+		boolean[] contracted = new boolean[nodeCount];
+		List<List<Integer>> uppers = new ArrayList<List<Integer>>(nodeCount);
+		for (int node = 0; node < nodeCount; node++) {
+			uppers.add(null);
+		}
+		int rank = 0;
+		while (!queue.isEmpty()) {
+			long entry = queue.poll();
+			int node = (int) entry;
+			Set<Integer> adjacent = neighbours.get(node);
+			if (contracted[node] || (entry >>> 32) != adjacent.size()) {
+				continue; // a stale entry
+			}
+			contracted[node] = true;
+			ranks[node] = rank++;
+			List<Integer> upper = new ArrayList<Integer>(adjacent);
+			uppers.set(node, upper);
+			for (int a : upper) {
+				neighbours.get(a).remove(node);
+				for (int b : upper) {
+					if (a != b) {
+						neighbours.get(a).add(b);
+					}
+				}
+			}
+			for (int a : upper) {
+				queue.add((long) neighbours.get(a).size() << 32 | a);
+			}
+			neighbours.set(node, null);
+		}
+		for (int node = 0; node < nodeCount; node++) {
+			for (int high : uppers.get(node)) {
+				addEdge(node, high);
+			}
+		}
+	}
+
+	/**
+	 * Computes the weights of all of the edges from their input weights, in
+	 * order of the rank of their low nodes.
+	 */
+	private void customize() {
+		for (int edge = 0; edge < edgeCount; edge++) {
+			weightUp[edge] = inputUp[edge];
+			weightDown[edge] = inputDown[edge];
+			middleUp[edge] = -1;
+			middleDown[edge] = -1;
+		}
+		int[] order = new int[nodeCount];
+		for (int node = 0; node < nodeCount; node++) {
+			order[ranks[node]] = node;
+		}
+		for (int middle : order) {
+			int[] nodes = upNodes[middle];
+			int[] edges = upEdges[middle];
+			for (int i = 0; i < upCounts[middle]; i++) {
+				for (int j = 0; j < upCounts[middle]; j++) {
+					if (i != j) {
+						relax(nodes[i], nodes[j], middle, weightDown[edges[i]]
+								+ weightUp[edges[j]]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lowers the weight of the edge from one node to the other to the given
+	 * weight of a path through the given middle node, if it is shorter.
+	 */
+	private void relax(int from, int to, int middle, long weight) {
+		int edge = findEdge(from, to);
+		if (lows[edge] == from) {
+			if (weight < weightUp[edge]) {
+				weightUp[edge] = weight;
+				middleUp[edge] = middle;
+			}
+		} else if (weight < weightDown[edge]) {
+			weightDown[edge] = weight;
+			middleDown[edge] = middle;
+		}
+	}
+
+	/**
+	 * Recomputes the weights of the given edges (identified by their keys)
+	 * and of the edges that depend on them, in order of the rank of their low
+	 * nodes, so that each edge is recomputed after the edges below it.
+	 */
+	private void update(Set<Integer> changed) {
+		TreeSet<Long> queue = new TreeSet<Long>();
+		for (int edge : changed) {
+			queue.add(queueKey(edge));
+		}
+		while (!queue.isEmpty()) {
+			int edge = (int) (long) queue.pollFirst();
+			long up = weightUp[edge];
+			long down = weightDown[edge];
+			recompute(edge);
+			if (up == weightUp[edge] && down == weightDown[edge]) {
+				continue;
+			}
+			// the edge is the lower side of the triangles through its low
+			// node
+			int low = lows[edge];
+			int high = highs[edge];
+			for (int i = 0; i < upCounts[low]; i++) {
+				int other = upNodes[low][i];
+				if (other != high) {
+					queue.add(queueKey(findEdge(high, other)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Recomputes the weights of the given edge from its input weights and
+	 * the triangles below it.
+	 */
+	private void recompute(int edge) {
+		int low = lows[edge];
+		int high = highs[edge];
+		weightUp[edge] = inputUp[edge];
+		weightDown[edge] = inputDown[edge];
+		middleUp[edge] = -1;
+		middleDown[edge] = -1;
+		for (int i = 0; i < downCounts[low]; i++) {
+			int middle = downNodes[low][i];
+			int toHigh = findEdge(middle, high);
+			if (toHigh != -1) {
+				int toLow = downEdges[low][i];
+				relax(low, high, middle, weightDown[toLow] + weightUp[toHigh]);
+				relax(high, low, middle, weightDown[toHigh] + weightUp[toLow]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the edge between the given nodes, or -1 if there is none.
+	 */
+	private int findEdge(int a, int b) {
+		int low = (ranks[a] < ranks[b]) ? a : b;
+		int high = (low == a) ? b : a;
+		int[] nodes = upNodes[low];
+		for (int i = 0; i < upCounts[low]; i++) {
+			if (nodes[i] == high) {
+				return upEdges[low][i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds an edge between the given nodes to the hierarchy, together with
+	 * the shortcuts that are needed to keep the higher ranked neighbours of
+	 * each node joined. The new edges are added to changed, unless it is
+	 * null, and the edge between the given nodes is returned.
+	 */
+	private int insertEdge(int a, int b, Set<Integer> changed) {
+		int result = addEdge(a, b);
+		// the stack holds the new edges whose shortcuts have not been added
+		int size = push(0, result);
+		while (size > 0) {
+			int edge = stack[--size];
+			int low = lows[edge];
+			int high = highs[edge];
+			weightUp[edge] = INFINITY;
+			weightDown[edge] = INFINITY;
+			middleUp[edge] = -1;
+			middleDown[edge] = -1;
+			if (changed != null) {
+				changed.add(edge);
+			}
+			for (int i = 0; i < upCounts[low]; i++) {
+				int other = upNodes[low][i];
+				if (other != high && findEdge(high, other) == -1) {
+					size = push(size, addEdge(high, other));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds an edge with no input weights between the given nodes, and
+	 * returns it.
+	 */
+	private int addEdge(int a, int b) {
+		int low = (ranks[a] < ranks[b]) ? a : b;
+		int high = (low == a) ? b : a;
+		if (edgeCount == lows.length) {
+			int capacity = 2 * edgeCount;
+			lows = Arrays.copyOf(lows, capacity);
+			highs = Arrays.copyOf(highs, capacity);
+			inputUp = Arrays.copyOf(inputUp, capacity);
+			inputDown = Arrays.copyOf(inputDown, capacity);
+			weightUp = Arrays.copyOf(weightUp, capacity);
+			weightDown = Arrays.copyOf(weightDown, capacity);
+			middleUp = Arrays.copyOf(middleUp, capacity);
+			middleDown = Arrays.copyOf(middleDown, capacity);
+		}
+		int edge = edgeCount++;
+		lows[edge] = low;
+		highs[edge] = high;
+		inputUp[edge] = INFINITY;
+		inputDown[edge] = INFINITY;
+		weightUp[edge] = INFINITY;
+		weightDown[edge] = INFINITY;
+		middleUp[edge] = -1;
+		middleDown[edge] = -1;
+		upCounts[low] = append(upNodes, upEdges, upCounts[low], low, high,
+				edge);
+		downCounts[high] = append(downNodes, downEdges, downCounts[high],
+				high, low, edge);
+		return edge;
+	}
+
+	/**
+	 * Appends the given neighbour and edge to the lists of the given node,
+	 * and returns the new length of the lists.
+	 */
+	private static int append(int[][] nodes, int[][] edges, int count,
+			int node, int neighbour, int edge) {
+		if (nodes[node] == null) {
+			nodes[node] = new int[4];
+			edges[node] = new int[4];
+		} else if (count == nodes[node].length) {
+			nodes[node] = Arrays.copyOf(nodes[node], 2 * count);
+			edges[node] = Arrays.copyOf(edges[node], 2 * count);
+		}
+		nodes[node][count] = neighbour;
+		edges[node][count] = edge;
+		return count + 1;
+	}
+
+	/**
+	 * Returns the key of the given edge in the update queue, which orders
+	 * the edges by the rank of their low nodes.
+	 */
+	private long queueKey(int edge) {
+		return (long) ranks[lows[edge]] << 32 | edge;
+	}
+
+	/**
+	 * Adds the nodes of new junctions to the hierarchy, ranked above all of
+	 * the existing nodes.
+	 */
+	private void addNodes(int count) {
+		if (count <= nodeCount) {
+			return;
+		}
+		ensureNodes(count);
+		for (int node = nodeCount; node < count; node++) {
+			ranks[node] = node;
+		}
+		nodeCount = count;
+		forward.ensureCapacity(count);
+		backward.ensureCapacity(count);
+		if (targetExits.length < count) {
+			targetExits = Arrays.copyOf(targetExits, sections.length);
+		}
+	}
+
+	/**
+	 * Makes sure that the node arrays have room for the given number of
+	 * nodes.
+	 */
+	private void ensureNodes(int count) {
+		if (sections.length < count) {
+			int capacity = Math.max(count, 2 * sections.length);
+			int old = opposites.length;
+			sections = Arrays.copyOf(sections, capacity);
+			opposites = Arrays.copyOf(opposites, capacity);
+			Arrays.fill(opposites, old, capacity, -1);
+			ranks = Arrays.copyOf(ranks, capacity);
+			upNodes = Arrays.copyOf(upNodes, capacity);
+			upEdges = Arrays.copyOf(upEdges, capacity);
+			upCounts = Arrays.copyOf(upCounts, capacity);
+			downNodes = Arrays.copyOf(downNodes, capacity);
+			downEdges = Arrays.copyOf(downEdges, capacity);
+			downCounts = Arrays.copyOf(downCounts, capacity);
+		}
+	}
+
+	/**
+	 * Sets path to the nodes of the route through the given meeting node of
+	 * the searches, with the shortcuts unpacked.
+	 */
+	private void unpackRoute(int meeting) {
+		pathLength = 0;
+		// the forward search is followed back to the origin, and then
+		// reversed
+		int node = meeting;
+		while (forward.parents[node] != -1) {
+			int edge = forward.parents[node];
+			int from = lows[edge];
+			unpack(from, node, true);
+			node = from;
+		}
+		addToPath(node);
+		reversePath();
+		node = meeting;
+		while (backward.parents[node] != -1) {
+			int edge = backward.parents[node];
+			int to = lows[edge];
+			unpack(node, to, false);
+			node = to;
+		}
+	}
+
+	/**
+	 * Adds the nodes of the path from one node to the other (excluding the
+	 * first node) to path, in reverse order if reversed is true.
+	 */
+	private void unpack(int from, int to, boolean reversed) {
+		int start = pathLength;
+		// the stack holds the pairs of nodes of the edges still to be
+		// unpacked, with the next pair on top
+		int size = push(push(0, to), from);
+		while (size > 0) {
+			int a = stack[--size];
+			int b = stack[--size];
+			int edge = findEdge(a, b);
+			int middle = (lows[edge] == a) ? middleUp[edge] : middleDown[edge];
+			if (middle == -1) {
+				addToPath(b);
+			} else {
+				size = push(push(size, b), middle);
+				size = push(push(size, middle), a);
+			}
+		}
+		if (reversed) {
+			for (int i = start, j = pathLength - 1; i < j; i++, j--) {
+				int swap = path[i];
+				path[i] = path[j];
+				path[j] = swap;
+			}
+		}
+	}
+
+	/**
+	 * Pushes the given value onto the stack, whose size is given, and
+	 * returns the new size of the stack.
+	 */
+	private int push(int size, int value) {
+		if (size == stack.length) {
+			stack = Arrays.copyOf(stack, 2 * size);
+		}
+		stack[size] = value;
+		return size + 1;
+	}
+
+	private void addToPath(int node) {
+		if (pathLength == path.length) {
+			path = Arrays.copyOf(path, 2 * pathLength);
+		}
+		path[pathLength++] = node;
+	}
+
+	private void reversePath() {
+		for (int i = 0, j = pathLength - 1; i < j; i++, j--) {
+			int swap = path[i];
+			path[i] = path[j];
+			path[j] = swap;
+		}
+	}
+
+	/**
+	 * Determines whether this class is internally consistent (i.e. it
+	 * satisfies its class invariant).
+	 *
+	 * This method is only intended for testing purposes.
+	 *
+	 * @return true if this class is internally consistent, and false
+	 *         otherwise.
+	 */
+	public boolean checkInvariant() {
+		if (nodeCount != 4 * registry.size() || sections.length < nodeCount
+				|| opposites.length != sections.length) {
+			return false;
+		}
+		boolean[] ranked = new boolean[nodeCount];
+		for (int node = 0; node < nodeCount; node++) {
+			if (ranks[node] < 0 || ranks[node] >= nodeCount
+					|| ranked[ranks[node]]) {
+				return false;
+			}
+			ranked[ranks[node]] = true;
+			if ((sections[node] == null) != (opposites[node] == -1)
+					|| (sections[node] != null && !sections[node]
+							.equals(sections[opposites[node]]))) {
+				return false;
+			}
+			for (int i = 0; i < upCounts[node]; i++) {
+				for (int j = 0; j < upCounts[node]; j++) {
+					if (i != j && findEdge(upNodes[node][i],
+							upNodes[node][j]) == -1) {
+						return false;
+					}
+				}
+			}
+		}
+		for (int edge = 0; edge < edgeCount; edge++) {
+			if (inputUp[edge] != inputWeight(lows[edge], highs[edge])
+					|| inputDown[edge] != inputWeight(highs[edge],
+							lows[edge])) {
+				return false;
+			}
+			long up = weightUp[edge];
+			long down = weightDown[edge];
+			int upMiddle = middleUp[edge];
+			int downMiddle = middleDown[edge];
+			recompute(edge);
+			boolean consistent = up == weightUp[edge]
+					&& down == weightDown[edge];
+			middleUp[edge] = upMiddle;
+			middleDown[edge] = downMiddle;
+			if (!consistent) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The scratch arrays of one direction of a query: a Dijkstra search over
+	 * the edges to higher ranked nodes.
+	 */
+	private class Search {
+
+		// the distance to each node in the current search
+		private long[] distances;
+		// the edge on which each node was reached, or -1 if the search
+		// started at the node
+		private int[] parents;
+		// the search in which the distance to each node was last set
+		private int[] generations;
+		// the number of the current search
+		private int generation;
+		// a binary heap of (distance, node) pairs, with stale entries
+		private long[] heapKeys;
+		private int[] heapNodes;
+		private int heapSize;
+
+		private Search() {
+			distances = new long[nodeCount];
+			parents = new int[nodeCount];
+			generations = new int[nodeCount];
+			heapKeys = new long[16];
+			heapNodes = new int[16];
+		}
+
+		private void ensureCapacity(int count) {
+			if (distances.length < count) {
+				distances = Arrays.copyOf(distances, sections.length);
+				parents = Arrays.copyOf(parents, sections.length);
+				generations = Arrays.copyOf(generations, sections.length);
+			}
+		}
+
+		/**
+		 * Starts a new search, forgetting the distances of the previous one.
+		 */
+		private void start() {
+			heapSize = 0;
+			if (++generation == 0) {
+				Arrays.fill(generations, 0);
+				generation = 1;
+			}
+		}
+
+		/**
+		 * Records that the given node can be reached at the given distance on
+		 * the given edge, and returns true if that is shorter than the
+		 * distance found so far.
+		 */
+		private boolean reach(int node, long distance, int edge) {
+			if (generations[node] == generation
+					&& distances[node] <= distance) {
+				return false;
+			}
+			generations[node] = generation;
+			distances[node] = distance;
+			parents[node] = edge;
+			if (heapSize == heapKeys.length) {
+				heapKeys = Arrays.copyOf(heapKeys, 2 * heapSize);
+				heapNodes = Arrays.copyOf(heapNodes, 2 * heapSize);
+			}
+			int i = heapSize++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (heapKeys[parent] <= distance) {
+					break;
+				}
+				heapKeys[i] = heapKeys[parent];
+				heapNodes[i] = heapNodes[parent];
+				i = parent;
+			}
+			heapKeys[i] = distance;
+			heapNodes[i] = node;
+			return true;
+		}
+
+		/**
+		 * Returns the smallest distance in the heap, or INFINITY if the heap
+		 * is empty.
+		 */
+		private long peek() {
+			return (heapSize == 0) ? INFINITY : heapKeys[0];
+		}
+
+		/**
+		 * Removes the entry with the smallest distance from the heap, and
+		 * returns its node, or -1 if the entry is stale.
+		 */
+		private int pop() {
+			long top = heapKeys[0];
+			int result = heapNodes[0];
+			long key = heapKeys[--heapSize];
+			int node = heapNodes[heapSize];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= heapSize) {
+					break;
+				}
+				if (child + 1 < heapSize
+						&& heapKeys[child + 1] < heapKeys[child]) {
+					child++;
+				}
+				if (key <= heapKeys[child]) {
+					break;
+				}
+				heapKeys[i] = heapKeys[child];
+				heapNodes[i] = heapNodes[child];
+				i = child;
+			}
+			heapKeys[i] = key;
+			heapNodes[i] = node;
+			return (top > distances[result]) ? -1 : result;
+		}
+	}
+
+}
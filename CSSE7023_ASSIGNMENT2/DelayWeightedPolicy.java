@@ -0,0 +1,111 @@
+package railway;
+
+/**
+ * A policy that gives the highest priority to the train with the greatest
+ * weighted delay: its current delay multiplied by its weight (e.g. the number
+ * of passengers on board, or the cost of delaying its freight).
+ */
+public class DelayWeightedPolicy extends SortingAllocationPolicy {
+
+	// the current delay and the weight of each train
+	private long[] delays;
+	private double[] weights;
+
+	/*
+	 * invariant: delays.length == weights.length == getTrainCount() && each
+	 * weight is finite and non-negative
+	 */
+
+	/**
+	 * Creates a new policy for the given number of trains, which all have a
+	 * delay of zero and a weight of one.
+	 *
+	 * @param trains
+	 *            the number of trains
+	 * @throws IllegalArgumentException
+	 *             if trains < 0
+	 */
+	public DelayWeightedPolicy(int trains) throws IllegalArgumentException {
+		super(trains);
+		delays = new long[trains];
+		weights = new double[trains];
+		for (int i = 0; i < trains; i++) {
+			weights[i] = 1;
+		}
+	}
+
+	/**
+	 * Sets the current delay of the given train.
+	 *
+	 * @require 0 <= train < the number of trains
+	 * @param train
+	 *            the index of the train
+	 * @param delay
+	 *            the current delay of the train
+	 */
+	public void setDelay(int train, long delay) {
+		delays[train] = delay;
+	}
+
+	/**
+	 * Sets the weight of the given train.
+	 *
+	 * @require 0 <= train < the number of trains
+	 * @param train
+	 *            the index of the train
+	 * @param weight
+	 *            the weight of the train
+	 * @throws IllegalArgumentException
+	 *             if weight is negative, infinite or NaN
+	 */
+	public void setWeight(int train, double weight)
+			throws IllegalArgumentException {
+		if (!(weight >= 0) || Double.isInfinite(weight)) {
+			throw new IllegalArgumentException(
+					"The weight must be finite and non-negative.");
+		}
+		weights[train] = weight;
+	}
+
+	/**
+	 * Returns the weighted delay of the given train.
+	 *
+	 * @require 0 <= train < the number of trains
+	 * @param train
+	 *            the index of the train
+	 * @return the delay of the train multiplied by its weight
+	 */
+	public double getWeightedDelay(int train) {
+		return delays[train] * weights[train];
+	}
+
+	@Override
+	protected int compare(int train1, int train2) {
+		// the greater weighted delay comes first
+		return Double.compare(getWeightedDelay(train2),
+				getWeightedDelay(train1));
+	}
+
+	/**
+	 * Determines whether this class is internally consistent (i.e. it
+	 * satisfies its class invariant).
+	 *
+	 * This method is only intended for testing purposes.
+	 *
+	 * @return true if this class is internally consistent, and false
+	 *         otherwise.
+	 */
+	public boolean checkInvariant() {
+		if (delays.length != weights.length
+				|| delays.length != getTrainCount()) {
+			return false;
+		}
+		for (int i = 0; i < weights.length; i++) {
+			if (!(weights[i] >= 0) || Double.isInfinite(weights[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,73 @@
+package railway;
+
+/**
+ * A policy that gives the highest priority to the train with the earliest
+ * deadline (e.g. the time it is due at its next stop).
+ */
+public class EarliestDeadlinePolicy extends SortingAllocationPolicy {
+
+	// the deadline of each train
+	private long[] deadlines;
+
+	/*
+	 * invariant: deadlines != null && deadlines.length == getTrainCount()
+	 */
+
+	/**
+	 * Creates a new policy for the given number of trains, which all have a
+	 * deadline of zero.
+	 *
+	 * @param trains
+	 *            the number of trains
+	 * @throws IllegalArgumentException
+	 *             if trains < 0
+	 */
+	public EarliestDeadlinePolicy(int trains) throws IllegalArgumentException {
+		super(trains);
+		deadlines = new long[trains];
+	}
+
+	/**
+	 * Sets the deadline of the given train.
+	 *
+	 * @require 0 <= train < the number of trains
+	 * @param train
+	 *            the index of the train
+	 * @param deadline
+	 *            the new deadline of the train
+	 */
+	public void setDeadline(int train, long deadline) {
+		deadlines[train] = deadline;
+	}
+
+	/**
+	 * Returns the deadline of the given train.
+	 *
+	 * @require 0 <= train < the number of trains
+	 * @param train
+	 *            the index of the train
+	 * @return the deadline of the train
+	 */
+	public long getDeadline(int train) {
+		return deadlines[train];
+	}
+
+	@Override
+	protected int compare(int train1, int train2) {
+		return Long.compare(deadlines[train1], deadlines[train2]);
+	}
+
+	/**
+	 * Determines whether this class is internally consistent (i.e. it
+	 * satisfies its class invariant).
+	 *
+	 * This method is only intended for testing purposes.
+	 *
+	 * @return true if this class is internally consistent, and false
+	 *         otherwise.
+	 */
+	public boolean checkInvariant() {
+		return deadlines != null && deadlines.length == getTrainCount();
+	}
+
+}
@@ -0,0 +1,260 @@
+package railway;
+
+import java.util.*;
+
+/**
+ * A mutable allocator that keeps the routes occupied by, requested by and
+ * allocated to a fixed number of trains between calls.
+ *
+ * The routes allocated by this class are the same as the routes that would
+ * be returned by Allocator.allocate for the current occupied and requested
+ * routes. However, when the route occupied or requested by a train changes,
+ * only the trains whose allocation may be affected by that change are
+ * allocated again, rather than every train on the track.
+ *
+ * The allocation of a train can only change if one of the sections or
+ * junctions that were checked while allocating its route is touched by a
+ * route that changed: either a route occupied by any other train, or a route
+ * allocated to a train with a lower index.
+ */
+public class IncrementalAllocator {
+
+	// the routes occupied by, requested by and allocated to each train
+	private List<List<Segment>> occupied;
+	private List<List<Segment>> requested;
+	private List<List<Segment>> allocated;
+	// the requested segments that were checked when allocating each train
+	private List<List<Segment>> examined;
+	// an index of the occupied and allocated routes of the trains
+	private SectionOccupancyIndex index = new SectionOccupancyIndex();
+	// the trains whose allocation depends on each section and junction
+	private Map<Section, NavigableSet<Integer>> sectionWatchers =
+			new HashMap<Section, NavigableSet<Integer>>();
+	private Map<Junction, NavigableSet<Integer>> junctionWatchers =
+			new HashMap<Junction, NavigableSet<Integer>>();
+	// the trains that need to be allocated again, in order of priority
+	private TreeSet<Integer> dirty = new TreeSet<Integer>();
+
+	/*
+	 * invariant: occupied, requested, allocated and examined all have one
+	 * element for each train && the index contains exactly the occupied
+	 * routes and the allocated routes && for each train i not in dirty,
+	 * allocated.get(i) is the route Allocator.allocate would allocate to
+	 * train i
+	 */
+
+	/**
+	 * Creates a new allocator for the trains currently occupying the given
+	 * routes.
+	 *
+	 * @require occupied != null && requested != null &&
+	 *          !occupied.contains(null) && !requested.contains(null) &&
+	 *          occupied.size() == requested.size() && the preconditions of
+	 *          Allocator.allocate hold for occupied and requested
+	 * @param occupied
+	 * 			a list of the routes currently occupied by each train
+	 * @param requested
+	 * 			a list of the routes requested by each train
+	 */
+	public IncrementalAllocator(List<List<Segment>> occupied,
+			List<List<Segment>> requested) {
+		this.occupied = new ArrayList<List<Segment>>(occupied);
+		this.requested = new ArrayList<List<Segment>>(requested);
+		this.allocated = new ArrayList<List<Segment>>(occupied.size());
+		this.examined = new ArrayList<List<Segment>>(occupied.size());
+		for (int i = 0; i < occupied.size(); i++) {
+			index.addRoute(occupied.get(i), i, false);
+			allocated.add(Collections.<Segment>emptyList());
+			examined.add(Collections.<Segment>emptyList());
+			dirty.add(i);
+		}
+	}
+
+	/**
+	 * Returns the number of trains managed by this allocator.
+	 *
+	 * @return the number of trains
+	 */
+	public int size() {
+		return occupied.size();
+	}
+
+	/**
+	 * Records that the given train now occupies the given route, e.g.
+	 * because it has advanced along its allocated route, or released part of
+	 * the route it was occupying.
+	 *
+	 * @require 0 <= train < size() && route != null && !route.contains(null)
+	 *          && route does not intersect the routes occupied by the other
+	 *          trains
+	 * @param train
+	 * 			the index of the train
+	 * @param route
+	 * 			the route that the train now occupies
+	 */
+	public void setOccupied(int train, List<Segment> route) {
+		List<Segment> old = occupied.get(train);
+		index.removeRoute(old, train, false);
+		index.addRoute(route, train, false);
+		occupied.set(train, route);
+		// An occupied route blocks every other train
+		markWatchers(old, -1);
+		markWatchers(route, -1);
+		dirty.add(train);
+	}
+
+	/**
+	 * Records that the given train now requests the given route.
+	 *
+	 * @require 0 <= train < size() && route != null && !route.contains(null)
+	 * @param train
+	 * 			the index of the train
+	 * @param route
+	 * 			the route that the train now requests
+	 */
+	public void setRequested(int train, List<Segment> route) {
+		requested.set(train, route);
+		dirty.add(train);
+	}
+
+	/**
+	 * Returns the route allocated to the given train.
+	 *
+	 * @require 0 <= train < size()
+	 * @param train
+	 * 			the index of the train
+	 * @return the route allocated to the train
+	 */
+	public List<Segment> getAllocation(int train) {
+		update();
+		return Collections.unmodifiableList(allocated.get(train));
+	}
+
+	/**
+	 * Returns the routes allocated to each of the trains, in the same form as
+	 * the result of Allocator.allocate.
+	 *
+	 * @return the list of allocated routes
+	 */
+	public List<List<Segment>> getAllocations() {
+		update();
+		List<List<Segment>> result = new ArrayList<List<Segment>>(size());
+		for (int i = 0; i < size(); i++) {
+			result.add(new ArrayList<Segment>(allocated.get(i)));
+		}
+		return result;
+	}
+
+	/**
+	 * Allocates each dirty train again, in order of priority. When the route
+	 * allocated to a train changes, the lower priority trains that depend on
+	 * it are marked as dirty.
+	 */
+	private void update() {
+		while (!dirty.isEmpty()) {
+			int train = dirty.pollFirst();
+			List<Segment> old = allocated.get(train);
+			index.removeRoute(old, train, true);
+			unwatch(train);
+			List<Segment> checked = new ArrayList<Segment>();
+			List<Segment> route = Allocator.allocateRoute(
+					requested.get(train), train, index, checked);
+			index.addRoute(route, train, true);
+			allocated.set(train, route);
+			examined.set(train, checked);
+			watch(train);
+			if (!route.equals(old)) {
+				// An allocated route only blocks trains with higher indices
+				markWatchers(old, train);
+				markWatchers(route, train);
+			}
+		}
+	}
+
+	/**
+	 * Marks as dirty each train with an index greater than the given one
+	 * whose allocation depends on a section or junction of the given route.
+	 */
+	private void markWatchers(List<Segment> route, int train) {
+		for (int i = 0; i < route.size(); i++) {
+			Segment segment = route.get(i);
+			markAll(sectionWatchers.get(segment.getSection()), train);
+			if (segment.getStartOffset() == 0) {
+				markAll(junctionWatchers.get(
+						segment.getDepartingEndPoint().getJunction()), train);
+			}
+			if (segment.getEndOffset() == segment.getSection().getLength()) {
+				markAll(junctionWatchers.get(
+						segment.getApproachingEndPoint().getJunction()), train);
+			}
+		}
+	}
+
+	private void markAll(NavigableSet<Integer> watchers, int train) {
+		if (watchers != null) {
+			dirty.addAll(watchers.tailSet(train, false));
+		}
+	}
+
+	/**
+	 * Records that the allocation of the given train depends on the
+	 * sections and junctions of the segments examined when allocating it.
+	 */
+	private void watch(int train) {
+		List<Segment> segments = examined.get(train);
+		for (int i = 0; i < segments.size(); i++) {
+			Segment segment = segments.get(i);
+			add(sectionWatchers, segment.getSection(), train);
+			add(junctionWatchers,
+					segment.getDepartingEndPoint().getJunction(), train);
+			add(junctionWatchers,
+					segment.getApproachingEndPoint().getJunction(), train);
+		}
+	}
+
+	private void unwatch(int train) {
+		List<Segment> segments = examined.get(train);
+		for (int i = 0; i < segments.size(); i++) {
+			Segment segment = segments.get(i);
+			remove(sectionWatchers, segment.getSection(), train);
+			remove(junctionWatchers,
+					segment.getDepartingEndPoint().getJunction(), train);
+			remove(junctionWatchers,
+					segment.getApproachingEndPoint().getJunction(), train);
+		}
+	}
+
+	private static <K> void add(Map<K, NavigableSet<Integer>> watchers, K key,
+			int train) {
+		NavigableSet<Integer> trains = watchers.get(key);
+		if (trains == null) {
+			trains = new TreeSet<Integer>();
+			watchers.put(key, trains);
+		}
+		trains.add(train);
+	}
+
+	private static <K> void remove(Map<K, NavigableSet<Integer>> watchers,
+			K key, int train) {
+		NavigableSet<Integer> trains = watchers.get(key);
+		if (trains != null && trains.remove(train) && trains.isEmpty()) {
+			watchers.remove(key);
+		}
+	}
+
+	/**
+	 * Determines whether this class is internally consistent (i.e. it
+	 * satisfies its class invariant).
+	 *
+	 * This method is only intended for testing purposes.
+	 *
+	 * @return true if this class is internally consistent, and false
+	 *         otherwise.
+	 */
+	public boolean checkInvariant() {
+		return occupied.size() == requested.size()
+				&& occupied.size() == allocated.size()
+				&& occupied.size() == examined.size();
+	}
+
+}
@@ -0,0 +1,26 @@
+package railway;
+
+import java.util.List;
+
+/**
+ * The policy used by Allocator.allocate(occupied, requested): trains with
+ * lower indices have higher priority.
+ */
+public class IndexPriorityPolicy implements AllocationPolicy {
+
+	@Override
+	public int[] order(List<List<Segment>> occupied,
+			List<List<Segment>> requested) {
+		int[] order = new int[occupied.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		return order;
+	}
+
+	@Override
+	public void allocated(List<List<Segment>> requested,
+			List<List<Segment>> allocated) {
+	}
+
+}
@@ -0,0 +1,287 @@
+package railway;
+
+import java.util.*;
+
+/**
+ * <p>
+ * A table of the trains that hold each junction of a track at the current
+ * tick of the train controller: the trains whose occupied routes, or whose
+ * allocated routes, pass through or end at the junction.
+ * </p>
+ *
+ * <p>
+ * Junctions are identified using a JunctionRegistry, and the reservations of
+ * each junction are kept in sorted arrays indexed by its identifier, so
+ * whether a junction is held by a train that blocks a given train is
+ * determined in constant time. As in the Allocator, a reservation blocks a
+ * train if it belongs to another train and either it is occupied, or it has
+ * been allocated to a train with a lower index.
+ * </p>
+ *
+ * <p>
+ * A train may reserve the same junction more than once (e.g. for the segment
+ * that enters it and the segment that leaves it), and each reservation must
+ * be released separately. Clearing the table keeps its storage, so a table
+ * that is reused for the same track stops creating objects once each of the
+ * junctions used has been reserved.
+ * </p>
+ */
+public class JunctionReservationTable {
+
+	// the identifiers of the junctions that have been reserved
+	private JunctionRegistry registry = new JunctionRegistry();
+	// the trains that occupy each junction, in increasing order, with one
+	// element for each reservation
+	private int[][] occupants = new int[16][];
+	private int[] occupantCounts = new int[16];
+	// the trains that have been allocated each junction, in increasing
+	// order, with one element for each reservation
+	private int[][] grants = new int[16][];
+	private int[] grantCounts = new int[16];
+	// the identifiers of the junctions that have been reserved since the
+	// table was last cleared, and whether each junction is one of them
+	private int[] used = new int[16];
+	private int usedCount;
+	private boolean[] listed = new boolean[16];
+
+	/*
+	 * invariant: occupants, occupantCounts, grants, grantCounts, used and
+	 * listed have the same length, which is at least registry.size() && for
+	 * each identifier id, occupants[id][0 .. occupantCounts[id] - 1] and
+	 * grants[id][0 .. grantCounts[id] - 1] are sorted in increasing order &&
+	 * used[0 .. usedCount - 1] are the identifiers id with listed[id], and
+	 * include each junction that is reserved
+	 */
+
+	/**
+	 * Records that the given junction is held by the given train.
+	 *
+	 * @require junction != null && train >= 0
+	 * @param junction
+	 *            the junction to reserve
+	 * @param train
+	 *            the index of the train that holds the junction
+	 * @param granted
+	 *            true if the junction has been allocated to the train, and
+	 *            false if it is currently occupied by the train
+	 */
+	public void reserve(Junction junction, int train, boolean granted) {
+		int id = registry.register(junction);
+		if (id == occupants.length) {
+			int length = 2 * id;
+			occupants = Arrays.copyOf(occupants, length);
+			occupantCounts = Arrays.copyOf(occupantCounts, length);
+			grants = Arrays.copyOf(grants, length);
+			grantCounts = Arrays.copyOf(grantCounts, length);
+			used = Arrays.copyOf(used, length);
+			listed = Arrays.copyOf(listed, length);
+		}
+		if (!listed[id]) {
+			listed[id] = true;
+			used[usedCount++] = id;
+		}
+		if (granted) {
+			grants[id] = insert(grants[id], grantCounts[id]++, train);
+		} else {
+			occupants[id] = insert(occupants[id], occupantCounts[id]++, train);
+		}
+	}
+
+	/**
+	 * Removes one reservation of the given junction by the given train, if
+	 * there is one.
+	 *
+	 * @require junction != null
+	 * @param junction
+	 *            the junction to release
+	 * @param train
+	 *            the index of the train that holds the junction
+	 * @param granted
+	 *            the value the junction was reserved with
+	 */
+	public void release(Junction junction, int train, boolean granted) {
+		int id = registry.getId(junction);
+		if (id == -1) {
+			return;
+		}
+		if (granted) {
+			if (delete(grants[id], grantCounts[id], train)) {
+				grantCounts[id]--;
+			}
+		} else {
+			if (delete(occupants[id], occupantCounts[id], train)) {
+				occupantCounts[id]--;
+			}
+		}
+	}
+
+	/**
+	 * Removes all of the reservations from the table, keeping the storage
+	 * that was created for them so that it can be reused.
+	 */
+	public void clear() {
+		for (int i = 0; i < usedCount; i++) {
+			occupantCounts[used[i]] = 0;
+			grantCounts[used[i]] = 0;
+			listed[used[i]] = false;
+		}
+		usedCount = 0;
+	}
+
+	/**
+	 * Returns true if the given junction is held by a train that blocks the
+	 * given train: a different train that occupies the junction, or a train
+	 * with a lower index that has been allocated the junction.
+	 *
+	 * @require junction != null
+	 * @param junction
+	 *            the junction to check
+	 * @param train
+	 *            the index of the train that requires the junction
+	 * @return true iff the junction is held by a train that blocks the given
+	 *         train
+	 */
+	public boolean blocks(Junction junction, int train) {
+		int id = registry.getId(junction);
+		if (id == -1) {
+			return false;
+		}
+		int count = occupantCounts[id];
+		if (count > 0
+				&& (occupants[id][0] != train
+						|| occupants[id][count - 1] != train)) {
+			return true;
+		}
+		return grantCounts[id] > 0 && grants[id][0] < train;
+	}
+
+	/**
+	 * Returns the train that holds the given junction: the train with the
+	 * lowest index that occupies it if there is one, and otherwise the train
+	 * with the lowest index that has been allocated it.
+	 *
+	 * @require junction != null
+	 * @param junction
+	 *            the junction to check
+	 * @return the index of the train that holds the junction, or -1 if the
+	 *         junction is not held by any train
+	 */
+	public int getHolder(Junction junction) {
+		int id = registry.getId(junction);
+		if (id == -1) {
+			return -1;
+		}
+		if (occupantCounts[id] > 0) {
+			return occupants[id][0];
+		}
+		return (grantCounts[id] > 0) ? grants[id][0] : -1;
+	}
+
+	/**
+	 * Returns the trains that occupy, or have been allocated, the given
+	 * junction.
+	 *
+	 * @require junction != null
+	 * @param junction
+	 *            the junction to check
+	 * @return the indices of the trains that hold the junction
+	 */
+	public SortedSet<Integer> getTrains(Junction junction) {
+		SortedSet<Integer> trains = new TreeSet<Integer>();
+		int id = registry.getId(junction);
+		if (id != -1) {
+			for (int i = 0; i < occupantCounts[id]; i++) {
+				trains.add(occupants[id][i]);
+			}
+			for (int i = 0; i < grantCounts[id]; i++) {
+				trains.add(grants[id][i]);
+			}
+		}
+		return trains;
+	}
+
+	/**
+	 * Inserts the given train into the first size elements of the given
+	 * sorted array, growing the array if it is null or full, and returns the
+	 * array.
+	 */
+	private static int[] insert(int[] trains, int size, int train) {
+		if (trains == null) {
+			trains = new int[2];
+		} else if (size == trains.length) {
+			trains = Arrays.copyOf(trains, 2 * size);
+		}
+		int i = size;
+		while (i > 0 && trains[i - 1] > train) {
+			trains[i] = trains[i - 1];
+			i--;
+		}
+		trains[i] = train;
+		return trains;
+	}
+
+	/**
+	 * Removes one occurrence of the given train from the first size elements
+	 * of the given sorted array, and returns true if there was one.
+	 */
+	private static boolean delete(int[] trains, int size, int train) {
+		for (int i = 0; i < size; i++) {
+			if (trains[i] == train) {
+				System.arraycopy(trains, i + 1, trains, i, size - i - 1);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Determines whether this class is internally consistent (i.e. it
+	 * satisfies its class invariant).
+	 *
+	 * This method is only intended for testing purposes.
+	 *
+	 * @return true if this class is internally consistent, and false
+	 *         otherwise.
+	 */
+	public boolean checkInvariant() {
+		int length = occupants.length;
+		if (occupantCounts.length != length || grants.length != length
+				|| grantCounts.length != length || used.length != length
+				|| listed.length != length || usedCount > length
+				|| registry.size() > length || !registry.checkInvariant()) {
+			return false;
+		}
+		int listedCount = 0;
+		for (int id = 0; id < registry.size(); id++) {
+			if (!sorted(occupants[id], occupantCounts[id])
+					|| !sorted(grants[id], grantCounts[id])
+					|| (occupantCounts[id] + grantCounts[id] > 0
+							&& !listed[id])) {
+				return false;
+			}
+			if (listed[id]) {
+				listedCount++;
+			}
+		}
+		for (int i = 0; i < usedCount; i++) {
+			if (!listed[used[i]]) {
+				return false;
+			}
+		}
+		return listedCount == usedCount;
+	}
+
+	private static boolean sorted(int[] trains, int size) {
+		if (size < 0
+				|| (size > 0 && (trains == null || trains.length < size))) {
+			return false;
+		}
+		for (int i = 1; i < size; i++) {
+			if (trains[i - 1] > trains[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,367 @@
+package railway;
+
+import java.util.*;
+
+/**
+ * <p>
+ * An allocator that avoids granting routes that would leave two trains
+ * facing each other on a single-track part of the track, where neither could
+ * proceed until the other had moved.
+ * </p>
+ *
+ * <p>
+ * A junction is a through junction if a train can pass through it in only
+ * one way: its FACING branch and exactly one of its NORMAL and REVERSE
+ * branches are connected to sections. Every other junction is a passing
+ * point (a junction with a siding or passing loop, where a train can wait
+ * clear of the track used by other trains) or the end of a line. The sections
+ * of the track are divided into runs: maximal chains of sections connected by
+ * through junctions. Trains travelling in opposite directions cannot pass
+ * each other within a run.
+ * </p>
+ *
+ * <p>
+ * Each train is first allocated the route that Allocator.allocate would
+ * allocate to it, given the routes that have been allocated so far. The
+ * requested route of the train is then followed to the last junction at
+ * which it enters a run from a passing point or the end of a line, and that
+ * the allocated route reaches. If the allocated route would leave the train
+ * in that run, or waiting at that junction, it is withheld when another train
+ * travelling in the opposite direction is already in the run, or has been
+ * allocated part of it with a higher priority. A train is in a run if it
+ * occupies part of it, and it travels in the direction of its occupied route
+ * and of its requested route up to the first junction at which it enters
+ * another run.
+ * </p>
+ *
+ * <p>
+ * A withheld route is cut back to end one unit before the junction at which
+ * it enters the run, so that the waiting train does not prevent the trains
+ * in the run from leaving it through that junction. A train that is already
+ * in a run is never withheld from leaving it, and since otherwise the train
+ * with the higher priority enters a run first, two trains never both wait
+ * for each other.
+ * </p>
+ *
+ * <p>
+ * An allocator keeps scratch storage between calls, so it must not be used
+ * by more than one thread at a time.
+ * </p>
+ */
+public class LookAheadAllocator {
+
+	// the track that routes are allocated on
+	private TrackGraph graph;
+	// the run of each section
+	private int[] runs;
+	// the end-point of each section that faces the start of its run
+	private int[] starts;
+	// the number of runs
+	private int runCount;
+
+	// an index of the routes that have been occupied or allocated
+	private SectionOccupancyIndex index = new SectionOccupancyIndex();
+	// for each run and direction of travel (2 * run for travel away from the
+	// start of the run, and 2 * run + 1 for travel towards it): the
+	// allocation in which it was last written, the first train recorded as
+	// travelling in that direction (because it is in the run, or has been
+	// allocated part of it), and whether another train has been recorded as
+	// travelling in that direction too
+	private int[] stamps;
+	private int[] holders;
+	private boolean[] shared;
+	// the number of the current allocation
+	private int generation;
+
+	/*
+	 * invariant: graph != null && runs and starts have one element for each
+	 * section of the track && 0 <= runs[s] < runCount for each section s &&
+	 * starts[s] is an end-point of section s && stamps, holders and shared
+	 * have 2 * runCount elements
+	 */
+
+	/**
+	 * Creates a new allocator for routes on the given track.
+	 *
+	 * @param graph
+	 *            the track that routes are allocated on
+	 * @throws NullPointerException
+	 *             if graph is null
+	 */
+	public LookAheadAllocator(TrackGraph graph) throws NullPointerException {
+		if (graph == null) {
+			throw new NullPointerException("The graph cannot be null.");
+		}
+		this.graph = graph;
+		runs = new int[graph.sectionCount()];
+		starts = new int[runs.length];
+		Arrays.fill(runs, -1);
+		for (int s = 0; s < runs.length; s++) {
+			if (runs[s] == -1) {
+				addRun(s);
+			}
+		}
+		stamps = new int[2 * runCount];
+		holders = new int[stamps.length];
+		shared = new boolean[stamps.length];
+	}
+
+	/**
+	 * Numbers the run containing the given section, whose sections have not
+	 * been numbered.
+	 */
+	private void addRun(int section) {
+		// Walk back to the start of the run, through the end-point numbered 0
+		int current = section;
+		int entry = graph.endPoint(section, 0);
+		while (true) {
+			int next = through(entry);
+			if (next == -1 || graph.sectionAt(next) == section) {
+				// a junction that is not a through junction, or a run that is
+				// a loop of through junctions
+				break;
+			}
+			current = graph.sectionAt(next);
+			entry = graph.otherEndPoint(current, next);
+		}
+		// Walk forward to the end of the run, numbering its sections
+		while (runs[current] == -1) {
+			runs[current] = runCount;
+			starts[current] = entry;
+			int next = through(graph.otherEndPoint(current, entry));
+			if (next == -1) {
+				break;
+			}
+			current = graph.sectionAt(next);
+			entry = next;
+		}
+		runCount++;
+	}
+
+	/**
+	 * Returns the end-point that a train leaves on after arriving at the
+	 * given end-point, if its junction is a through junction, and -1
+	 * otherwise.
+	 */
+	private int through(int endPoint) {
+		int junction = JunctionRegistry.junctionId(endPoint);
+		int facing = JunctionRegistry.endPointId(junction, Branch.FACING);
+		int normal = JunctionRegistry.endPointId(junction, Branch.NORMAL);
+		int reverse = JunctionRegistry.endPointId(junction, Branch.REVERSE);
+		boolean hasNormal = graph.sectionAt(normal) != -1;
+		boolean hasReverse = graph.sectionAt(reverse) != -1;
+		if (graph.sectionAt(facing) == -1 || hasNormal == hasReverse) {
+			return -1;
+		}
+		if (endPoint != facing) {
+			return facing;
+		}
+		return hasNormal ? normal : reverse;
+	}
+
+	/**
+	 * Returns true if the given end-point is at a passing point or the end
+	 * of a line (i.e. it is not at a through junction).
+	 */
+	private boolean atBoundary(JunctionBranch endPoint) {
+		int number = graph.endPointNumber(endPoint);
+		return number == -1 || through(number) == -1;
+	}
+
+	/**
+	 * Returns an allocation of routes to trains, as for Allocator.allocate,
+	 * except that a train is not allocated a route into a run of single track
+	 * that it cannot leave, or up to the junction at which its requested
+	 * route enters such a run, if a train travelling in the opposite direction
+	 * is in the run or has been allocated part of it.
+	 *
+	 * The route allocated to each train is a prefix of the route that
+	 * Allocator.allocate would allocate to it given the routes allocated to
+	 * the trains with lower indices, so it does not intersect any of the
+	 * routes occupied by the other trains or allocated to trains with lower
+	 * indices.
+	 *
+	 * @require the preconditions of Allocator.allocate(occupied, requested)
+	 * @param occupied
+	 *            the routes currently occupied by each train
+	 * @param requested
+	 *            the routes requested by each train
+	 * @return the list of allocated routes
+	 * @throws IllegalArgumentException
+	 *             if a segment is not on a section of the track
+	 */
+	public List<List<Segment>> allocate(List<List<Segment>> occupied,
+			List<List<Segment>> requested) throws IllegalArgumentException {
+		index.clear();
+		if (++generation == 0) {
+			// the stamps have wrapped around, so none of them can be trusted
+			Arrays.fill(stamps, 0);
+			generation = 1;
+		}
+		for (int i = 0; i < occupied.size(); i++) {
+			index.addRoute(occupied.get(i), i, false);
+			// the train travels through the run it is in along its occupied
+			// route and the part of its requested route in that run
+			record(occupied.get(i), occupied.get(i).size(), i);
+			record(requested.get(i), firstEntry(requested.get(i)), i);
+		}
+		List<List<Segment>> allocator = new ArrayList<List<Segment>>(
+				requested.size());
+		for (int n = 0; n < requested.size(); n++) {
+			List<Segment> route = Allocator.allocateRoute(requested.get(n),
+					n, index, null);
+			route = withhold(requested.get(n), route, n);
+			index.addRoute(route, n, true);
+			record(route, route.size(), n);
+			allocator.add(route);
+		}
+		return allocator;
+	}
+
+	/**
+	 * Returns the index of the first segment of the given route that enters
+	 * a run at a passing point or the end of a line, or the size of the route
+	 * if there is none.
+	 */
+	private int firstEntry(List<Segment> route) {
+		for (int m = 0; m < route.size(); m++) {
+			if (enters(route.get(m))) {
+				return m;
+			}
+		}
+		return route.size();
+	}
+
+	/**
+	 * Returns true if the given segment starts at a passing point or the end
+	 * of a line.
+	 */
+	private boolean enters(Segment segment) {
+		return segment.getStartOffset() == 0
+				&& atBoundary(segment.getDepartingEndPoint());
+	}
+
+	/**
+	 * Returns the given route allocated to the given train, cut back to end
+	 * before the junction at which its requested route enters the last run
+	 * that the allocated route reaches, if the allocated route does not leave
+	 * that run and another train is travelling through the run in the
+	 * opposite direction.
+	 */
+	private List<Segment> withhold(List<Segment> requested,
+			List<Segment> route, int train) {
+		int size = route.size();
+		// the last segment of the requested route that enters a run at a
+		// junction reached by the allocated route
+		int entry = -1;
+		for (int m = 0; m <= size && m < requested.size(); m++) {
+			if (enters(requested.get(m)) && (m < size || (m > 0
+					&& route.get(m - 1).getEndOffset() == route.get(m - 1)
+							.getSection().getLength()))) {
+				entry = m;
+			}
+		}
+		if (entry == -1) {
+			// the train is already in the run that it is travelling along
+			return route;
+		}
+		if (entry < size) {
+			Segment last = route.get(size - 1);
+			if (last.getEndOffset() == last.getSection().getLength()
+					&& atBoundary(last.getApproachingEndPoint())) {
+				// the route leaves the run
+				return route;
+			}
+		}
+		int slot = slot(requested.get(entry));
+		// the slot for travel through the run in the opposite direction
+		int opposite = slot ^ 1;
+		if (stamps[opposite] != generation
+				|| (holders[opposite] == train && !shared[opposite])) {
+			return route;
+		}
+		List<Segment> kept = new ArrayList<Segment>(route.subList(0, entry));
+		if (entry > 0) {
+			// the last segment ends at the junction, which must be left clear
+			Segment last = kept.remove(entry - 1);
+			int end = Math.min(last.getEndOffset(),
+					last.getSection().getLength() - 1);
+			if (end >= last.getStartOffset()) {
+				kept.add(new Segment(last.getSection(),
+						last.getDepartingEndPoint(), last.getStartOffset(),
+						end));
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * Records that the given train travels through the runs of the first
+	 * count segments of the given route.
+	 */
+	private void record(List<Segment> route, int count, int train) {
+		for (int m = 0; m < count; m++) {
+			int slot = slot(route.get(m));
+			if (stamps[slot] != generation) {
+				stamps[slot] = generation;
+				holders[slot] = train;
+				shared[slot] = false;
+			} else if (holders[slot] != train) {
+				shared[slot] = true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot of the run and direction of travel of the given
+	 * segment.
+	 */
+	private int slot(Segment segment) {
+		int section = graph.sectionNumber(segment.getSection());
+		if (section == -1) {
+			throw new IllegalArgumentException(
+					"The segments must be on the track.");
+		}
+		boolean away = graph.endPointNumber(segment.getDepartingEndPoint())
+				== starts[section];
+		return 2 * runs[section] + (away ? 0 : 1);
+	}
+
+	/**
+	 * Returns the number of runs of single track that the track is divided
+	 * into.
+	 *
+	 * @return the number of runs
+	 */
+	public int getRunCount() {
+		return runCount;
+	}
+
+	/**
+	 * Determines whether this class is internally consistent (i.e. it
+	 * satisfies its class invariant).
+	 *
+	 * This method is only intended for testing purposes.
+	 *
+	 * @return true if this class is internally consistent, and false
+	 *         otherwise.
+	 */
+	public boolean checkInvariant() {
+		if (graph == null || runs.length != graph.sectionCount()
+				|| starts.length != runs.length
+				|| stamps.length != 2 * runCount
+				|| holders.length != stamps.length
+				|| shared.length != stamps.length) {
+			return false;
+		}
+		for (int s = 0; s < runs.length; s++) {
+			if (runs[s] < 0 || runs[s] >= runCount
+					|| (starts[s] != graph.endPoint(s, 0)
+							&& starts[s] != graph.endPoint(s, 1))) {
+				return false;
+			}
+		}
+		return index.checkInvariant();
+	}
+
+}
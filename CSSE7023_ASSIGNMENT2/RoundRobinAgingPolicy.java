@@ -0,0 +1,123 @@
+package railway;
+
+import java.util.List;
+
+/**
+ * <p>
+ * A policy that prevents any train from being starved of routes when the
+ * track is congested.
+ * </p>
+ *
+ * <p>
+ * The age of a train is the number of consecutive allocations in which it was
+ * not allocated all of its requested route. Trains are ordered by decreasing
+ * age, so the longer a train has waited the higher its priority becomes, and
+ * it is reset to the lowest priority once it has been allocated its requested
+ * route. Trains of the same age are ordered round-robin: the train that comes
+ * first among them moves one index along the trains after each allocation.
+ * </p>
+ */
+public class RoundRobinAgingPolicy extends SortingAllocationPolicy {
+
+	// the age of each train
+	private int[] ages;
+	// the index of the train that comes first among trains of the same age
+	private int turn;
+
+	/*
+	 * invariant: ages != null && ages.length == getTrainCount() && each age
+	 * >= 0 && 0 <= turn < max(1, ages.length)
+	 */
+
+	/**
+	 * Creates a new policy for the given number of trains, which all have an
+	 * age of zero.
+	 *
+	 * @param trains
+	 *            the number of trains
+	 * @throws IllegalArgumentException
+	 *             if trains < 0
+	 */
+	public RoundRobinAgingPolicy(int trains) throws IllegalArgumentException {
+		super(trains);
+		ages = new int[trains];
+	}
+
+	/**
+	 * Returns the age of the given train.
+	 *
+	 * @require 0 <= train < the number of trains
+	 * @param train
+	 *            the index of the train
+	 * @return the number of consecutive allocations in which the train was
+	 *         not allocated all of its requested route
+	 */
+	public int getAge(int train) {
+		return ages[train];
+	}
+
+	@Override
+	protected int compare(int train1, int train2) {
+		if (ages[train1] != ages[train2]) {
+			// the older train comes first
+			return Integer.compare(ages[train2], ages[train1]);
+		}
+		return Integer.compare(position(train1), position(train2));
+	}
+
+	/**
+	 * Returns the position of the given train in the round-robin order of
+	 * the current allocation.
+	 */
+	private int position(int train) {
+		return (train - turn + ages.length) % ages.length;
+	}
+
+	/**
+	 * Ages each train that was not allocated all of its requested route,
+	 * resets the age of the other trains, and moves the round-robin order on
+	 * by one train.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if requested.size() is not the number of trains that the
+	 *             policy orders
+	 */
+	@Override
+	public void allocated(List<List<Segment>> requested,
+			List<List<Segment>> allocated) throws IllegalArgumentException {
+		checkTrainCount(requested.size());
+		for (int i = 0; i < ages.length; i++) {
+			if (allocated.get(i).equals(requested.get(i))) {
+				ages[i] = 0;
+			} else if (ages[i] < Integer.MAX_VALUE) {
+				ages[i]++;
+			}
+		}
+		if (ages.length > 0) {
+			turn = (turn + 1) % ages.length;
+		}
+	}
+
+	/**
+	 * Determines whether this class is internally consistent (i.e. it
+	 * satisfies its class invariant).
+	 *
+	 * This method is only intended for testing purposes.
+	 *
+	 * @return true if this class is internally consistent, and false
+	 *         otherwise.
+	 */
+	public boolean checkInvariant() {
+		if (ages == null || ages.length != getTrainCount() || turn < 0
+				|| turn >= Math.max(1, ages.length)) {
+			return false;
+		}
+		for (int i = 0; i < ages.length; i++) {
+			if (ages[i] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
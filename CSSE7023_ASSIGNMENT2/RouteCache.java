@@ -0,0 +1,306 @@
+package railway;
+
+import java.util.*;
+
+/**
+ * <p>
+ * A bounded cache of the routes found by a contraction hierarchy, keyed by
+ * their origin and destination.
+ * </p>
+ *
+ * <p>
+ * Locations are compared using Location.equals, so a route is found in the
+ * cache whichever of the equivalent descriptions of its origin and
+ * destination are used. When the cache is full, the least recently used
+ * route is evicted.
+ * </p>
+ *
+ * <p>
+ * The cache is a listener of the track: it passes each change to the
+ * hierarchy before updating the cached routes. When a section is removed from
+ * the track, only the routes that use the section are evicted, since the
+ * other routes are still shortest routes. The sections of the origin and
+ * destination of a route count as sections that it uses, even if the route is
+ * empty. When a section is added to the track, all of the routes are evicted,
+ * since the new section may give a shorter route between any origin and
+ * destination. Queries that have no route are not cached.
+ * </p>
+ *
+ * <p>
+ * A location at a junction is equal to the locations at that junction on the
+ * other sections connected to it, so a cached route is only returned if the
+ * sections of the given origin and destination are still on the track, and
+ * otherwise the query is passed to the hierarchy.
+ * </p>
+ *
+ * <p>
+ * A cache must not be used by more than one thread at a time.
+ * </p>
+ */
+public class RouteCache implements TrackListener {
+
+	// the hierarchy that finds the routes that are not in the cache
+	private ContractionHierarchy hierarchy;
+	// the maximum number of routes in the cache
+	private int capacity;
+	// the cached routes, in order of their last use
+	private LinkedHashMap<Key, List<Segment>> routes;
+	// the keys of the cached routes that use each section, or that start or
+	// end on it
+	private Map<Section, Set<Key>> users;
+	// the number of calls to route that were answered from the cache, and
+	// that were not
+	private long hits;
+	private long misses;
+
+	/*
+	 * invariant: hierarchy != null && capacity > 0 && routes.size() <=
+	 * capacity && routes does not contain null && for each key of routes and
+	 * each section of its route, and the sections of its origin and
+	 * destination, users.get(section) contains the key, and users contains no
+	 * other keys
+	 */
+
+	/**
+	 * Creates an empty cache of at most capacity of the routes found by the
+	 * given hierarchy.
+	 *
+	 * @param hierarchy
+	 *            the hierarchy that finds the routes
+	 * @param capacity
+	 *            the maximum number of routes to cache
+	 * @throws NullPointerException
+	 *             if hierarchy is null
+	 * @throws IllegalArgumentException
+	 *             if capacity <= 0
+	 */
+	public RouteCache(ContractionHierarchy hierarchy, final int capacity)
+			throws NullPointerException, IllegalArgumentException {
+		if (hierarchy == null) {
+			throw new NullPointerException("The hierarchy cannot be null.");
+		}
+		if (capacity <= 0) {
+			throw new IllegalArgumentException(
+					"The capacity of the cache must be positive.");
+		}
+		this.hierarchy = hierarchy;
+		this.capacity = capacity;
+		this.users = new HashMap<Section, Set<Key>>();
+		this.routes = new LinkedHashMap<Key, List<Segment>>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Key, List<Segment>> eldest) {
+				if (size() <= capacity) {
+					return false;
+				}
+				unindex(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns a shortest route from the origin to the destination, or null if
+	 * there is no route from the origin to the destination, as for
+	 * ContractionHierarchy.route. The returned route cannot be modified.
+	 *
+	 * @param origin
+	 *            the location the route starts at
+	 * @param destination
+	 *            the location the route ends at
+	 * @return a shortest route from origin to destination, or null if there
+	 *         is none
+	 * @throws NullPointerException
+	 *             if origin or destination is null
+	 * @throws IllegalArgumentException
+	 *             if the section of origin or destination is not a section of
+	 *             the track
+	 */
+	public List<Segment> route(Location origin, Location destination)
+			throws NullPointerException, IllegalArgumentException {
+		if (origin == null || destination == null) {
+			throw new NullPointerException(
+					"The origin and destination cannot be null.");
+		}
+		Key key = new Key(origin, destination);
+		List<Segment> route = routes.get(key);
+		if (route != null && hierarchy.onTrack(origin)
+				&& hierarchy.onTrack(destination)) {
+			hits++;
+			return route;
+		}
+		misses++;
+		route = hierarchy.route(origin, destination);
+		if (route == null) {
+			return null;
+		}
+		route = Collections.unmodifiableList(route);
+		for (Section section : sections(key, route)) {
+			Set<Key> keys = users.get(section);
+			if (keys == null) {
+				keys = new HashSet<Key>();
+				users.put(section, keys);
+			}
+			keys.add(key);
+		}
+		routes.put(key, route);
+		return route;
+	}
+
+	/**
+	 * Updates the hierarchy, and evicts all of the routes, after the given
+	 * section has been added to the track.
+	 */
+	@Override
+	public void sectionAdded(Section section) {
+		hierarchy.sectionAdded(section);
+		clear();
+	}
+
+	/**
+	 * Updates the hierarchy, and evicts the routes that use the given
+	 * section, after it has been removed from the track.
+	 */
+	@Override
+	public void sectionRemoved(Section section) {
+		hierarchy.sectionRemoved(section);
+		Set<Key> keys = users.remove(section);
+		if (keys != null) {
+			for (Key key : keys) {
+				unindex(key, routes.remove(key));
+			}
+		}
+	}
+
+	/**
+	 * Evicts all of the routes from the cache.
+	 */
+	public void clear() {
+		routes.clear();
+		users.clear();
+	}
+
+	/**
+	 * Returns the number of routes in the cache.
+	 *
+	 * @return the number of cached routes
+	 */
+	public int size() {
+		return routes.size();
+	}
+
+	/**
+	 * Returns the number of calls to route that were answered from the
+	 * cache.
+	 *
+	 * @return the number of cache hits
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of calls to route that were not answered from the
+	 * cache.
+	 *
+	 * @return the number of cache misses
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the sections used by the route with the given key: the
+	 * sections of its segments, origin and destination.
+	 */
+	private static Set<Section> sections(Key key, List<Segment> route) {
+		Set<Section> sections = new HashSet<Section>();
+		sections.add(key.origin.getSection());
+		sections.add(key.destination.getSection());
+		for (int i = 0; i < route.size(); i++) {
+			sections.add(route.get(i).getSection());
+		}
+		return sections;
+	}
+
+	/**
+	 * Removes the given key from the users of the sections of its route.
+	 */
+	private void unindex(Key key, List<Segment> route) {
+		if (route == null) {
+			return;
+		}
+		for (Section section : sections(key, route)) {
+			Set<Key> keys = users.get(section);
+			if (keys != null && keys.remove(key) && keys.isEmpty()) {
+				users.remove(section);
+			}
+		}
+	}
+
+	/**
+	 * Determines whether this class is internally consistent (i.e. it
+	 * satisfies its class invariant).
+	 *
+	 * This method is only intended for testing purposes.
+	 *
+	 * @return true if this class is internally consistent, and false
+	 *         otherwise.
+	 */
+	public boolean checkInvariant() {
+		if (hierarchy == null || capacity <= 0 || routes.size() > capacity) {
+			return false;
+		}
+		int indexed = 0; // the number of (section, key) pairs in routes
+		for (Map.Entry<Key, List<Segment>> entry : routes.entrySet()) {
+			if (entry.getValue() == null) {
+				return false;
+			}
+			Set<Section> sections = sections(entry.getKey(), entry.getValue());
+			for (Section section : sections) {
+				Set<Key> keys = users.get(section);
+				if (keys == null || !keys.contains(entry.getKey())) {
+					return false;
+				}
+			}
+			indexed += sections.size();
+		}
+		for (Set<Key> keys : users.values()) {
+			indexed -= keys.size();
+		}
+		return indexed == 0;
+	}
+
+	/**
+	 * The key of a cached route: its origin and destination.
+	 */
+	private static class Key {
+
+		private Location origin;
+		private Location destination;
+
+		private Key(Location origin, Location destination) {
+			this.origin = origin;
+			this.destination = destination;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) object;
+			return origin.equals(other.origin)
+					&& destination.equals(other.destination);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * origin.hashCode() + destination.hashCode();
+		}
+	}
+
+}
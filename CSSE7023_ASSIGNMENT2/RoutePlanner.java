@@ -0,0 +1,402 @@
+package railway;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Computes shortest routes between locations on a frozen railway track.
+ * </p>
+ *
+ * <p>
+ * A train that passes through a junction must either enter it on its FACING
+ * branch and leave it on its NORMAL or REVERSE branch, or enter it on its
+ * NORMAL or REVERSE branch and leave it on its FACING branch. The routes
+ * returned by this class respect that rule, and are in the form of the routes
+ * used by Allocator.allocate.
+ * </p>
+ *
+ * <p>
+ * The search is a Dijkstra search over the end-points of the track (as
+ * numbered by TrackGraph), where reaching an end-point means that the train
+ * has entered the junction of the end-point on its branch. Since the track
+ * has no coordinates there is no admissible heuristic for an A* search. The
+ * distances, predecessors and the priority queue of the search are held in
+ * primitive arrays that are reused by each query, so a query does not create
+ * any objects except for the route that it returns. As a consequence, a
+ * planner must not be used by more than one thread at a time.
+ * </p>
+ */
+public class RoutePlanner {
+
+	// the track that routes are planned on
+	private TrackGraph graph;
+
+	// the distance travelled to reach each end-point in the current search
+	private long[] distances;
+	// the end-point that each end-point was reached from in the current
+	// search, or -1 if it was reached directly from the origin
+	private int[] previous;
+	// the search in which the distance to each end-point was last set
+	private int[] generations;
+	// the number of the current search
+	private int generation;
+
+	// a binary heap of (distance, end-point) pairs; an end-point may appear
+	// more than once, and stale entries are skipped when they are removed
+	private long[] heapKeys;
+	private int[] heapNodes;
+	private int heapSize;
+
+	// the best completion of the route found so far in the current search:
+	// the end-point that the route ends at or leaves from (or -1 if it leaves
+	// from the origin), and the end-point on which it enters the section of
+	// the destination (or -1 if the destination is reached at bestNode or
+	// directly from the origin)
+	private long bestDistance;
+	private int bestNode;
+	private int bestExit;
+
+	/*
+	 * invariant: graph != null && distances, previous and generations have
+	 * one element for each end-point of the track && 0 <= heapSize <=
+	 * heapKeys.length == heapNodes.length
+	 */
+
+	/**
+	 * Creates a new planner for routes on the given track.
+	 *
+	 * @param graph
+	 *            the track to plan routes on
+	 * @throws NullPointerException
+	 *             if graph is null
+	 */
+	public RoutePlanner(TrackGraph graph) throws NullPointerException {
+		if (graph == null) {
+			throw new NullPointerException("The graph cannot be null.");
+		}
+		this.graph = graph;
+		int endPoints = 4 * graph.junctionCount();
+		distances = new long[endPoints];
+		previous = new int[endPoints];
+		generations = new int[endPoints];
+		heapKeys = new long[Math.max(16, endPoints)];
+		heapNodes = new int[heapKeys.length];
+	}
+
+	/**
+	 * Returns the track that routes are planned on.
+	 *
+	 * @return the track of this planner
+	 */
+	public TrackGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * <p>
+	 * Returns a shortest route from the origin to the destination, or null if
+	 * there is no route from the origin to the destination.
+	 * </p>
+	 *
+	 * <p>
+	 * The route is a list of contiguous segments, where the first location of
+	 * the first segment is the origin, and the last location of the last
+	 * segment is the destination. If the origin and the destination are
+	 * equivalent then the route is empty. A route from a location at a
+	 * junction may leave the junction on any of its branches, and a route to
+	 * a location at a junction may enter it on any of its branches.
+	 * </p>
+	 *
+	 * @param origin
+	 *            the location the route starts at
+	 * @param destination
+	 *            the location the route ends at
+	 * @return a shortest route from origin to destination, or null if there
+	 *         is none
+	 * @throws NullPointerException
+	 *             if origin or destination is null
+	 * @throws IllegalArgumentException
+	 *             if the section of origin or destination is not a section of
+	 *             the track
+	 */
+	public List<Segment> route(Location origin, Location destination)
+			throws NullPointerException, IllegalArgumentException {
+		if (origin == null || destination == null) {
+			throw new NullPointerException(
+					"The origin and destination cannot be null.");
+		}
+		int from = graph.sectionNumber(origin.getSection());
+		int to = graph.sectionNumber(destination.getSection());
+		if (from == -1 || to == -1) {
+			throw new IllegalArgumentException(
+					"The origin and destination must be on the track.");
+		}
+		if (origin.equals(destination)) {
+			return new ArrayList<Segment>();
+		}
+		int originEndPoint = graph.endPointNumber(origin.getEndPoint());
+		int targetEndPoint = graph.endPointNumber(destination.getEndPoint());
+		start();
+
+		// the junction of the destination, or -1 if it is not at a junction
+		int targetJunction = destination.atAJunction() ? JunctionRegistry
+				.junctionId(targetEndPoint) : -1;
+		if (origin.atAJunction()) {
+			int junction = JunctionRegistry.junctionId(originEndPoint);
+			for (int branch = 0; branch < 3; branch++) {
+				int exit = junction << 2 | branch;
+				if (graph.sectionAt(exit) != -1) {
+					leave(-1, 0, exit, to, targetEndPoint, destination);
+				}
+			}
+		} else {
+			int length = graph.length(from);
+			int other = graph.otherEndPoint(from, originEndPoint);
+			int offset = origin.getOffset();
+			if (from == to && targetJunction == -1) {
+				// the destination is on the same section as the origin
+				int target = destination.getOffset();
+				if (targetEndPoint != originEndPoint) {
+					target = length - target;
+				}
+				complete(Math.abs(target - offset), -1, -1);
+			}
+			reach(originEndPoint, offset, -1);
+			reach(other, length - offset, -1);
+		}
+
+		while (heapSize > 0) {
+			long distance = heapKeys[0];
+			int node = heapNodes[0];
+			pop();
+			if (distance >= bestDistance) {
+				break;
+			}
+			if (distance > distances[node]) {
+				continue;
+			}
+			if (JunctionRegistry.junctionId(node) == targetJunction) {
+				complete(distance, node, -1);
+				break;
+			}
+			if ((node & 3) == Branch.FACING.ordinal()) {
+				leave(node, distance, node + 1, to, targetEndPoint,
+						destination);
+				leave(node, distance, node + 2, to, targetEndPoint,
+						destination);
+			} else {
+				leave(node, distance, node & ~3, to, targetEndPoint,
+						destination);
+			}
+		}
+		return (bestDistance == Long.MAX_VALUE) ? null : build(origin,
+				destination, to);
+	}
+
+	/**
+	 * Starts a new search, forgetting the distances of the previous one.
+	 */
+	private void start() {
+		heapSize = 0;
+		bestDistance = Long.MAX_VALUE;
+		bestNode = -1;
+		bestExit = -1;
+		if (++generation == 0) {
+			// the generations have wrapped around, so none of them can be
+			// trusted
+			Arrays.fill(generations, 0);
+			generation = 1;
+		}
+	}
+
+	/**
+	 * Follows the section connected to the given exit, having travelled the
+	 * given distance to reach the given node (or the origin if node is -1).
+	 */
+	private void leave(int node, long distance, int exit, int target,
+			int targetEndPoint, Location destination) {
+		int section = graph.sectionAt(exit);
+		if (section == -1) {
+			return;
+		}
+		if (section == target && !destination.atAJunction()) {
+			int offset = destination.getOffset();
+			if (exit != targetEndPoint) {
+				offset = graph.length(section) - offset;
+			}
+			complete(distance + offset, node, exit);
+		}
+		reach(graph.otherEndPoint(section, exit),
+				distance + graph.length(section), node);
+	}
+
+	/**
+	 * Records that the given node can be reached by travelling the given
+	 * distance from the given node (or the origin if from is -1).
+	 */
+	private void reach(int node, long distance, int from) {
+		if (generations[node] == generation && distances[node] <= distance) {
+			return;
+		}
+		generations[node] = generation;
+		distances[node] = distance;
+		previous[node] = from;
+		push(distance, node);
+	}
+
+	/**
+	 * Records a route to the destination of the given length, if it is
+	 * shorter than the shortest one found so far.
+	 */
+	private void complete(long distance, int node, int exit) {
+		if (distance < bestDistance) {
+			bestDistance = distance;
+			bestNode = node;
+			bestExit = exit;
+		}
+	}
+
+	/**
+	 * Returns the segments of the best route found by the current search.
+	 */
+	private List<Segment> build(Location origin, Location destination,
+			int to) {
+		List<Segment> route = new ArrayList<Segment>();
+		if (bestExit != -1) {
+			route.add(depart(graph.getSection(to), graph.getEndPoint(bestExit),
+					destination));
+		} else if (bestNode == -1) {
+			route.add(direct(origin, destination));
+			return route;
+		}
+
+		int node = bestNode;
+		while (node != -1) {
+			boolean first = previous[node] == -1 && !origin.atAJunction();
+			route.add(arrive(graph.getSection(graph.sectionAt(node)), graph
+					.getEndPoint(node), first ? origin : null));
+			node = previous[node];
+		}
+		Collections.reverse(route);
+		return route;
+	}
+
+	/**
+	 * Returns the segment of a route that ends at the given end-point of the
+	 * given section: the whole section if origin is null, and otherwise the
+	 * part of the section from origin (which must be on the section, but not
+	 * at a junction).
+	 */
+	static Segment arrive(Section section, JunctionBranch endPoint,
+			Location origin) {
+		JunctionBranch departing = section.otherEndPoint(endPoint);
+		int length = section.getLength();
+		if (origin == null) {
+			return new Segment(section, departing, 0, length);
+		}
+		int offset = origin.getOffset();
+		if (!departing.equals(origin.getEndPoint())) {
+			offset = length - offset;
+		}
+		return new Segment(section, departing, offset, length);
+	}
+
+	/**
+	 * Returns the segment of a route that starts at the given end-point of
+	 * the given section and ends at destination (which must be on the
+	 * section, but not at a junction).
+	 */
+	static Segment depart(Section section, JunctionBranch endPoint,
+			Location destination) {
+		int offset = destination.getOffset();
+		if (!endPoint.equals(destination.getEndPoint())) {
+			offset = section.getLength() - offset;
+		}
+		return new Segment(section, endPoint, 0, offset);
+	}
+
+	/**
+	 * Returns the segment from origin to destination, which must be distinct
+	 * locations on the same section that are not at a junction.
+	 */
+	static Segment direct(Location origin, Location destination) {
+		Section section = origin.getSection();
+		int length = section.getLength();
+		int offset = origin.getOffset();
+		int target = destination.getOffset();
+		if (!destination.getEndPoint().equals(origin.getEndPoint())) {
+			target = length - target;
+		}
+		if (target > offset) {
+			return new Segment(section, origin.getEndPoint(), offset, target);
+		}
+		return new Segment(section, section.otherEndPoint(origin
+				.getEndPoint()), length - offset, length - target);
+	}
+
+	/**
+	 * Adds the given entry to the heap.
+	 */
+	private void push(long key, int node) {
+		if (heapSize == heapKeys.length) {
+			heapKeys = Arrays.copyOf(heapKeys, 2 * heapSize);
+			heapNodes = Arrays.copyOf(heapNodes, 2 * heapSize);
+		}
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heapKeys[parent] <= key) {
+				break;
+			}
+			heapKeys[i] = heapKeys[parent];
+			heapNodes[i] = heapNodes[parent];
+			i = parent;
+		}
+		heapKeys[i] = key;
+		heapNodes[i] = node;
+	}
+
+	/**
+	 * Removes the entry with the smallest key from the heap.
+	 */
+	private void pop() {
+		long key = heapKeys[--heapSize];
+		int node = heapNodes[heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+				child++;
+			}
+			if (key <= heapKeys[child]) {
+				break;
+			}
+			heapKeys[i] = heapKeys[child];
+			heapNodes[i] = heapNodes[child];
+			i = child;
+		}
+		heapKeys[i] = key;
+		heapNodes[i] = node;
+	}
+
+	/**
+	 * Determines whether this class is internally consistent (i.e. it
+	 * satisfies its class invariant).
+	 *
+	 * This method is only intended for testing purposes.
+	 *
+	 * @return true if this class is internally consistent, and false
+	 *         otherwise.
+	 */
+	public boolean checkInvariant() {
+		int endPoints = 4 * graph.junctionCount();
+		return distances.length == endPoints && previous.length == endPoints
+				&& generations.length == endPoints && heapSize >= 0
+				&& heapSize <= heapKeys.length
+				&& heapKeys.length == heapNodes.length;
+	}
+
+}
@@ -0,0 +1,599 @@
+package railway;
+
+import java.util.*;
+
+/**
+ * An index of the parts of a track that are covered by the routes of trains.
+ * It is used by the Allocator to check whether a requested segment intersects
+ * the routes of other trains without comparing every pair of segments, and
+ * it can also be asked which trains have routes on a section, at a location,
+ * or intersecting a segment.
+ *
+ * Each segment is stored against its section as a closed interval of offsets
+ * measured from the canonical end-point of the section, so that segments
+ * which describe the same part of a section from opposite ends are stored in
+ * the same way. A location at the end of a section lies on every section that
+ * is connected to that junction, so those locations are also recorded in a
+ * JunctionReservationTable, which checks them in constant time.
+ *
+ * The intervals on a section are kept in flat arrays sorted by their lowest
+ * offset, with an augmented interval tree over them: a segment tree that holds
+ * the maximum highest offset of the intervals below each node. A query only
+ * descends into the subtrees that contain an interval intersecting the range
+ * it asks about, so it takes O(log k) time for each of the m intervals that
+ * intersect the range (O((m + 1) log k) in total, for k intervals on the
+ * section), no matter how long the intervals before it are. Adding or removing
+ * an interval shifts the intervals after it and updates the tree above them,
+ * which is cheap since few trains share a section.
+ *
+ * The arrays of a section are kept when its intervals are removed, and when
+ * the index is cleared, so an index that is reused for the same track stops
+ * creating objects once it has seen each of the sections used.
+ */
+public class SectionOccupancyIndex {
+
+	// the intervals recorded against each section of the track
+	private Map<Section, SectionEntry> sections =
+			new HashMap<Section, SectionEntry>();
+	// the entries of sections that have had an interval since the index was
+	// last cleared
+	private List<SectionEntry> used = new ArrayList<SectionEntry>();
+	// the trains whose intervals touch each junction of the track
+	private JunctionReservationTable junctions = new JunctionReservationTable();
+
+	/*
+	 * invariant: the intervals of each value of sections are ordered by their
+	 * lowest offsets, within the length of its section, and its tree holds
+	 * the maximum highest offset of the intervals below each node && used
+	 * contains exactly the values of sections that are marked as used, and
+	 * each value that has an interval is marked as used && junctions != null
+	 */
+
+	/**
+	 * Records each segment of the given route against the given train.
+	 *
+	 * @require route != null && !route.contains(null) && train >= 0
+	 * @param route
+	 * 			the route to record
+	 * @param train
+	 * 			the index of the train that the route belongs to
+	 * @param granted
+	 * 			true if the route has been allocated to the train, and false
+	 * 			if it is currently occupied by the train
+	 */
+	public void addRoute(List<Segment> route, int train, boolean granted) {
+		for (int i = 0; i < route.size(); i++) {
+			add(route.get(i), train, granted);
+		}
+	}
+
+	/**
+	 * Removes each segment of the given route that was recorded against the
+	 * given train by addRoute.
+	 *
+	 * @require route != null && !route.contains(null)
+	 * @param route
+	 * 			the route to remove
+	 * @param train
+	 * 			the index of the train that the route belongs to
+	 * @param granted
+	 * 			the value the route was recorded with
+	 */
+	public void removeRoute(List<Segment> route, int train, boolean granted) {
+		for (int i = 0; i < route.size(); i++) {
+			remove(route.get(i), train, granted);
+		}
+	}
+
+	/**
+	 * Records the given segment against the given train. A segment that is
+	 * recorded more than once must be removed as many times.
+	 *
+	 * @require segment != null && train >= 0
+	 * @param segment
+	 * 			the segment to record
+	 * @param train
+	 * 			the index of the train that the segment belongs to
+	 * @param granted
+	 * 			true if the segment has been allocated to the train, and false
+	 * 			if it is currently occupied by the train
+	 */
+	public void add(Segment segment, int train, boolean granted) {
+		SectionEntry entry = sections.get(segment.getSection());
+		if (entry == null) {
+			entry = new SectionEntry(segment.getSection());
+			sections.put(segment.getSection(), entry);
+		}
+		if (!entry.used) {
+			entry.used = true;
+			used.add(entry);
+		}
+		entry.add(entry.low(segment), entry.high(segment),
+				owner(train, granted));
+		int length = segment.getSection().getLength();
+		if (segment.getStartOffset() == 0) {
+			junctions.reserve(segment.getDepartingEndPoint().getJunction(),
+					train, granted);
+		}
+		if (segment.getEndOffset() == length) {
+			junctions.reserve(segment.getApproachingEndPoint().getJunction(),
+					train, granted);
+		}
+	}
+
+	/**
+	 * Removes the given segment if it was recorded against the given train.
+	 *
+	 * @require segment != null
+	 * @param segment
+	 * 			the segment to remove
+	 * @param train
+	 * 			the index of the train that the segment belongs to
+	 * @param granted
+	 * 			the value the segment was recorded with
+	 */
+	public void remove(Segment segment, int train, boolean granted) {
+		SectionEntry entry = sections.get(segment.getSection());
+		if (entry == null || !entry.remove(entry.low(segment),
+				entry.high(segment), owner(train, granted))) {
+			return;
+		}
+		int length = segment.getSection().getLength();
+		if (segment.getStartOffset() == 0) {
+			junctions.release(segment.getDepartingEndPoint().getJunction(),
+					train, granted);
+		}
+		if (segment.getEndOffset() == length) {
+			junctions.release(segment.getApproachingEndPoint().getJunction(),
+					train, granted);
+		}
+	}
+
+	/**
+	 * Removes all of the segments from the index, keeping the storage that
+	 * was created for them so that it can be reused.
+	 */
+	public void clear() {
+		for (int i = 0; i < used.size(); i++) {
+			used.get(i).clear();
+		}
+		used.clear();
+		junctions.clear();
+	}
+
+	/**
+	 * Returns the offset (from the departing end-point of the segment) of the
+	 * first location of the given segment, in its direction of travel, that
+	 * is covered by a route that blocks the given train. A route blocks a
+	 * train if it belongs to another train and either it is occupied, or it
+	 * has been allocated to a train with a lower index.
+	 *
+	 * @require segment != null
+	 * @param segment
+	 * 			the requested segment to check
+	 * @param train
+	 * 			the index of the train that requested the segment
+	 * @return the offset of the first blocked location of the segment, or -1
+	 * 			if none of the locations of the segment are blocked
+	 */
+	public int firstBlocked(Segment segment, int train) {
+		int start = segment.getStartOffset();
+		int end = segment.getEndOffset();
+		int length = segment.getSection().getLength();
+		if (start == 0 && junctions.blocks(
+				segment.getDepartingEndPoint().getJunction(), train)) {
+			return 0;
+		}
+		SectionEntry entry = sections.get(segment.getSection());
+		if (entry != null) {
+			if (entry.canonical.equals(segment.getDepartingEndPoint())) {
+				int blocked = entry.first(start, end, train);
+				if (blocked != -1) {
+					return blocked;
+				}
+			} else {
+				int blocked = entry.last(length - end, length - start, train);
+				if (blocked != -1) {
+					return length - blocked;
+				}
+			}
+		}
+		if (end == length && junctions.blocks(
+				segment.getApproachingEndPoint().getJunction(), train)) {
+			return end;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the trains that have a segment recorded against the given
+	 * section.
+	 *
+	 * @param section
+	 * 			the section to check
+	 * @return the indices of the trains with a segment on the section
+	 */
+	public SortedSet<Integer> getTrains(Section section) {
+		SortedSet<Integer> trains = new TreeSet<Integer>();
+		SectionEntry entry = sections.get(section);
+		if (entry != null) {
+			for (int i = 0; i < entry.size; i++) {
+				trains.add(train(entry.owners[i]));
+			}
+		}
+		return trains;
+	}
+
+	/**
+	 * Returns the trains that have a segment recorded against them that
+	 * contains the given location.
+	 *
+	 * @require location != null
+	 * @param location
+	 * 			the location to check
+	 * @return the indices of the trains whose routes contain the location
+	 */
+	public SortedSet<Integer> getTrains(Location location) {
+		if (location.atAJunction()) {
+			return junctions.getTrains(location.getEndPoint().getJunction());
+		}
+		SortedSet<Integer> trains = new TreeSet<Integer>();
+		SectionEntry entry = sections.get(location.getSection());
+		if (entry != null) {
+			int offset = location.getOffset();
+			if (!entry.canonical.equals(location.getEndPoint())) {
+				offset = entry.length - offset;
+			}
+			entry.addTrains(offset, offset, trains);
+		}
+		return trains;
+	}
+
+	/**
+	 * Returns the trains that have a segment recorded against them that
+	 * intersects the given segment (i.e. that has a location in common with
+	 * it).
+	 *
+	 * @require segment != null
+	 * @param segment
+	 * 			the segment to check
+	 * @return the indices of the trains whose routes intersect the segment
+	 */
+	public SortedSet<Integer> getTrains(Segment segment) {
+		SortedSet<Integer> trains = new TreeSet<Integer>();
+		SectionEntry entry = sections.get(segment.getSection());
+		if (entry != null) {
+			entry.addTrains(entry.low(segment), entry.high(segment), trains);
+		}
+		if (segment.getStartOffset() == 0) {
+			trains.addAll(junctions.getTrains(
+					segment.getDepartingEndPoint().getJunction()));
+		}
+		if (segment.getEndOffset() == segment.getSection().getLength()) {
+			trains.addAll(junctions.getTrains(
+					segment.getApproachingEndPoint().getJunction()));
+		}
+		return trains;
+	}
+
+	/**
+	 * Determines whether this class is internally consistent (i.e. it
+	 * satisfies its class invariant).
+	 *
+	 * This method is only intended for testing purposes.
+	 *
+	 * @return true if this class is internally consistent, and false
+	 *         otherwise.
+	 */
+	public boolean checkInvariant() {
+		for (Map.Entry<Section, SectionEntry> entry : sections.entrySet()) {
+			SectionEntry value = entry.getValue();
+			if ((value.size > 0 && !value.used)
+					|| !value.canonical.equals(entry.getKey()
+							.getCanonicalEndPoint())) {
+				return false;
+			}
+			for (int i = 0; i < value.size; i++) {
+				if (value.lows[i] < 0 || value.lows[i] > value.highs[i]
+						|| value.highs[i] > value.length
+						|| (i > 0 && value.lows[i - 1] > value.lows[i])) {
+					return false;
+				}
+			}
+			if (!value.checkTree()) {
+				return false;
+			}
+		}
+		for (int i = 0; i < used.size(); i++) {
+			if (!used.get(i).used) {
+				return false;
+			}
+		}
+		return junctions.checkInvariant();
+	}
+
+	/**
+	 * Returns the owner of an interval that is recorded against the given
+	 * train: the index of the train, with the lowest bit set if the interval
+	 * has been granted.
+	 */
+	private static int owner(int train, boolean granted) {
+		return train << 1 | (granted ? 1 : 0);
+	}
+
+	private static int train(int owner) {
+		return owner >>> 1;
+	}
+
+	/**
+	 * Returns true if an interval with the given owner prevents the given
+	 * train from being allocated any of its locations.
+	 */
+	private static boolean blocks(int owner, int train) {
+		int other = train(owner);
+		return other != train && ((owner & 1) == 0 || other < train);
+	}
+
+	/**
+	 * The intervals recorded against a single section, ordered by their
+	 * lowest offset.
+	 */
+	private static class SectionEntry {
+
+		// the end-point that offsets are measured from
+		private JunctionBranch canonical;
+		// the length of the section
+		private int length;
+		// the number of intervals on the section
+		private int size;
+		// whether the entry is in the list of used entries of the index
+		private boolean used;
+		// the lowest and highest offset and the owner of each interval, in
+		// order of the lowest offset; the length of the arrays is a power of
+		// two
+		private int[] lows = new int[4];
+		private int[] highs = new int[4];
+		private int[] owners = new int[4];
+		// a segment tree over the intervals, with the root at index 1 and the
+		// children of node n at 2n and 2n + 1: the leaf of interval i (at
+		// lows.length + i) holds highs[i], or Integer.MIN_VALUE if i >= size,
+		// and every other node holds the maximum of its children
+		private int[] tree = emptyTree(4);
+
+		SectionEntry(Section section) {
+			this.canonical = section.getCanonicalEndPoint();
+			this.length = section.getLength();
+		}
+
+		/**
+		 * Returns the lowest and highest offsets from the canonical
+		 * end-point of the locations of the given segment.
+		 */
+		int low(Segment segment) {
+			if (canonical.equals(segment.getDepartingEndPoint())) {
+				return segment.getStartOffset();
+			}
+			return length - segment.getEndOffset();
+		}
+
+		int high(Segment segment) {
+			if (canonical.equals(segment.getDepartingEndPoint())) {
+				return segment.getEndOffset();
+			}
+			return length - segment.getStartOffset();
+		}
+
+		void add(int low, int high, int owner) {
+			if (size == lows.length) {
+				lows = Arrays.copyOf(lows, 2 * size);
+				highs = Arrays.copyOf(highs, 2 * size);
+				owners = Arrays.copyOf(owners, 2 * size);
+				tree = emptyTree(2 * size);
+				updateTree(0, size);
+			}
+			// insert after the intervals with the same lowest offset
+			int index = search(low + 1);
+			System.arraycopy(lows, index, lows, index + 1, size - index);
+			System.arraycopy(highs, index, highs, index + 1, size - index);
+			System.arraycopy(owners, index, owners, index + 1, size - index);
+			lows[index] = low;
+			highs[index] = high;
+			owners[index] = owner;
+			size++;
+			updateTree(index, size);
+		}
+
+		/**
+		 * Removes one interval with the given offsets and owner, and returns
+		 * true if there was one.
+		 */
+		boolean remove(int low, int high, int owner) {
+			for (int i = search(low); i < size && lows[i] == low; i++) {
+				if (highs[i] == high && owners[i] == owner) {
+					size--;
+					System.arraycopy(lows, i + 1, lows, i, size - i);
+					System.arraycopy(highs, i + 1, highs, i, size - i);
+					System.arraycopy(owners, i + 1, owners, i, size - i);
+					updateTree(i, size + 1);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Removes all of the intervals, keeping the arrays.
+		 */
+		void clear() {
+			int previous = size;
+			size = 0;
+			updateTree(0, previous);
+			used = false;
+		}
+
+		/**
+		 * Returns the index of the first interval whose lowest offset is at
+		 * least the given offset, or size if there is none.
+		 */
+		private int search(int offset) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (lows[middle] >= offset) {
+					high = middle;
+				} else {
+					low = middle + 1;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Returns a tree for the given number of intervals (a power of two)
+		 * in which every node is Integer.MIN_VALUE.
+		 */
+		private static int[] emptyTree(int capacity) {
+			int[] result = new int[2 * capacity];
+			Arrays.fill(result, Integer.MIN_VALUE);
+			return result;
+		}
+
+		/**
+		 * Updates the leaves of the intervals from (inclusive) to to
+		 * (exclusive), and the nodes above them.
+		 */
+		private void updateTree(int from, int to) {
+			if (from >= to) {
+				return;
+			}
+			int capacity = lows.length;
+			for (int i = from; i < to; i++) {
+				tree[capacity + i] = (i < size) ? highs[i] : Integer.MIN_VALUE;
+			}
+			int first = (capacity + from) >>> 1;
+			int last = (capacity + to - 1) >>> 1;
+			while (first >= 1) {
+				for (int node = first; node <= last; node++) {
+					tree[node] = Math.max(tree[2 * node], tree[2 * node + 1]);
+				}
+				first >>>= 1;
+				last >>>= 1;
+			}
+		}
+
+		/**
+		 * Returns the lowest offset in [low, high] that is covered by an
+		 * interval that blocks the given train, or -1 if there is none.
+		 */
+		int first(int low, int high, int train) {
+			// the intervals are visited in increasing order of low, so the
+			// first blocking interval covers the lowest offset
+			int index = firstBlocking(1, 0, lows.length, low, high, train);
+			return (index == -1) ? -1 : Math.max(lows[index], low);
+		}
+
+		/**
+		 * Returns the index of the first interval in [from, to) (the
+		 * intervals below the given node) that intersects [low, high] and
+		 * blocks the given train, or -1 if there is none.
+		 */
+		private int firstBlocking(int node, int from, int to, int low,
+				int high, int train) {
+			if (from >= size || lows[from] > high || tree[node] < low) {
+				// no interval below the node intersects [low, high]
+				return -1;
+			}
+			if (to - from == 1) {
+				return blocks(owners[from], train) ? from : -1;
+			}
+			int middle = (from + to) >>> 1;
+			int result = firstBlocking(2 * node, from, middle, low, high,
+					train);
+			if (result == -1) {
+				result = firstBlocking(2 * node + 1, middle, to, low, high,
+						train);
+			}
+			return result;
+		}
+
+		/**
+		 * Returns the highest offset in [low, high] that is covered by an
+		 * interval that blocks the given train, or -1 if there is none.
+		 */
+		int last(int low, int high, int train) {
+			return lastBlocked(1, 0, lows.length, low, high, train, -1);
+		}
+
+		/**
+		 * Returns the greater of result and the highest offset in [low, high]
+		 * that is covered by an interval in [from, to) (the intervals below
+		 * the given node) that blocks the given train.
+		 */
+		private int lastBlocked(int node, int from, int to, int low, int high,
+				int train, int result) {
+			if (from >= size || lows[from] > high || tree[node] < low
+					|| Math.min(tree[node], high) <= result) {
+				// no interval below the node can improve on the result
+				return result;
+			}
+			if (to - from == 1) {
+				return blocks(owners[from], train) ? Math.min(highs[from], high)
+						: result;
+			}
+			int middle = (from + to) >>> 1;
+			result = lastBlocked(2 * node, from, middle, low, high, train,
+					result);
+			return lastBlocked(2 * node + 1, middle, to, low, high, train,
+					result);
+		}
+
+		/**
+		 * Adds the trains of the intervals that intersect [low, high] to the
+		 * given set.
+		 */
+		void addTrains(int low, int high, Set<Integer> trains) {
+			addTrains(1, 0, lows.length, low, high, trains);
+		}
+
+		private void addTrains(int node, int from, int to, int low, int high,
+				Set<Integer> trains) {
+			if (from >= size || lows[from] > high || tree[node] < low) {
+				return;
+			}
+			if (to - from == 1) {
+				trains.add(train(owners[from]));
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			addTrains(2 * node, from, middle, low, high, trains);
+			addTrains(2 * node + 1, middle, to, low, high, trains);
+		}
+
+		/**
+		 * Returns true if the tree holds the highest offsets of the
+		 * intervals as described above.
+		 */
+		boolean checkTree() {
+			int capacity = lows.length;
+			if (tree.length != 2 * capacity
+					|| Integer.bitCount(capacity) != 1) {
+				return false;
+			}
+			for (int i = 0; i < capacity; i++) {
+				int leaf = (i < size) ? highs[i] : Integer.MIN_VALUE;
+				if (tree[capacity + i] != leaf) {
+					return false;
+				}
+			}
+			for (int node = 1; node < capacity; node++) {
+				if (tree[node] != Math.max(tree[2 * node],
+						tree[2 * node + 1])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+package railway;
+
+import java.util.*;
+
+/**
+ * A policy that orders the trains by sorting them with a comparison of their
+ * priorities, so that the order of n trains is found in O(n log n) time.
+ * Trains with equal priorities are ordered by their indices.
+ *
+ * Subclasses define the comparison, and may override allocated to update the
+ * priorities of the trains after each allocation.
+ */
+public abstract class SortingAllocationPolicy implements AllocationPolicy {
+
+	// the number of trains that the policy orders
+	private int trains;
+
+	/**
+	 * Creates a new policy for the given number of trains.
+	 *
+	 * @param trains
+	 *            the number of trains
+	 * @throws IllegalArgumentException
+	 *             if trains < 0
+	 */
+	protected SortingAllocationPolicy(int trains)
+			throws IllegalArgumentException {
+		if (trains < 0) {
+			throw new IllegalArgumentException(
+					"The number of trains cannot be negative.");
+		}
+		this.trains = trains;
+	}
+
+	/**
+	 * Returns the number of trains that the policy orders.
+	 *
+	 * @return the number of trains
+	 */
+	public int getTrainCount() {
+		return trains;
+	}
+
+	/**
+	 * Compares the priorities of two trains.
+	 *
+	 * @param train1
+	 *            the index of a train
+	 * @param train2
+	 *            the index of another train
+	 * @return a negative number if train1 should be allocated before train2,
+	 *         a positive number if it should be allocated after train2, and
+	 *         zero if they have the same priority
+	 */
+	protected abstract int compare(int train1, int train2);
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws IllegalArgumentException
+	 *             if occupied.size() is not the number of trains that the
+	 *             policy orders
+	 */
+	@Override
+	public int[] order(List<List<Segment>> occupied,
+			List<List<Segment>> requested) throws IllegalArgumentException {
+		checkTrainCount(occupied.size());
+		Integer[] trains = new Integer[occupied.size()];
+		for (int i = 0; i < trains.length; i++) {
+			trains[i] = i;
+		}
+		// The sort is stable, so trains with equal priorities stay in order
+		// of their indices
+		Arrays.sort(trains, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer train1, Integer train2) {
+				return SortingAllocationPolicy.this.compare(train1, train2);
+			}
+		});
+		int[] order = new int[trains.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = trains[i];
+		}
+		return order;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws IllegalArgumentException
+	 *             if requested.size() is not the number of trains that the
+	 *             policy orders
+	 */
+	@Override
+	public void allocated(List<List<Segment>> requested,
+			List<List<Segment>> allocated) throws IllegalArgumentException {
+		checkTrainCount(requested.size());
+	}
+
+	/**
+	 * Throws an IllegalArgumentException if the given number of trains is
+	 * not the number of trains that the policy orders.
+	 *
+	 * @param count
+	 *            the number of trains given to the policy
+	 * @throws IllegalArgumentException
+	 *             if count is not the number of trains of the policy
+	 */
+	protected void checkTrainCount(int count) throws IllegalArgumentException {
+		if (count != trains) {
+			throw new IllegalArgumentException("The policy orders " + trains
+					+ " trains, not " + count + ".");
+		}
+	}
+
+}
@@ -0,0 +1,366 @@
+package railway;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Parses the lines of a track file, in the format described by
+ * TrackReader.read, directly from a buffer of bytes.
+ *
+ * Lines are split into items by scanning for whitespace bytes, so no
+ * strings are created for the items on a line. Branch names are recognised
+ * from their bytes, and each junction name is looked up in a table of the
+ * junctions seen so far, so that every end-point of a junction is only
+ * created once. The only objects created for a correctly formatted line are
+ * the section itself and, the first time a junction appears, its name,
+ * junction and end-points.
+ *
+ * The items on a line are separated by whitespace as defined by
+ * Character.isWhitespace(). Only single byte (ASCII) whitespace characters
+ * are recognised, and junction names are decoded as UTF-8.
+ */
+class TrackParser {
+
+	// the bytes of the name of each branch, indexed by Branch.ordinal()
+	private static final byte[][] BRANCH_NAMES = branchNames();
+
+	// the number of items on each line of a track file
+	private static final int ITEMS = 5;
+
+	// an open addressing hash table of the junctions seen so far
+	private int[] hashes = new int[64];
+	private byte[][] names = new byte[64][];
+	private JunctionBranch[][] endPoints = new JunctionBranch[64][];
+	private int junctionCount = 0;
+
+	// the positions of the items on the line being parsed
+	private int[] itemStarts = new int[ITEMS];
+	private int[] itemEnds = new int[ITEMS];
+
+	/**
+	 * Parses each line of the given buffer between positions from
+	 * (inclusive) and to (exclusive), and adds the section it describes to
+	 * the given list. The last line may end at position to without a line
+	 * terminator.
+	 *
+	 * If a line is incorrectly formatted, then the sections described by the
+	 * lines before it are added to the list before the exception is thrown.
+	 *
+	 * @require buffer != null && sections != null &&
+	 *          0 <= from <= to <= buffer.limit() && from is the start of a
+	 *          line
+	 * @param buffer
+	 * 			the buffer that contains the lines
+	 * @param from
+	 * 			the position of the first byte of the first line
+	 * @param to
+	 * 			the position after the last byte of the last line
+	 * @param sections
+	 * 			the list that the parsed sections are added to
+	 * @throws FormatException
+	 * 			if a line is not correctly formatted. The message of the
+	 * 			exception contains the line.
+	 */
+	void parse(ByteBuffer buffer, int from, int to, List<Section> sections)
+			throws FormatException {
+		int position = from;
+		while (position < to) {
+			int end = position;
+			while (end < to && !isLineTerminator(buffer.get(end))) {
+				end++;
+			}
+			sections.add(parseLine(buffer, position, end));
+			// Skip "\n", "\r" or "\r\n"
+			if (end < to && buffer.get(end) == '\r' && end + 1 < to
+					&& buffer.get(end + 1) == '\n') {
+				end++;
+			}
+			position = end + 1;
+		}
+	}
+
+	/**
+	 * Returns the position after the line terminator of the last complete
+	 * line in the given buffer between positions from and to, or from if
+	 * there is no complete line. A line ending in '\r' is only complete if it
+	 * is followed by another byte, since that byte may be '\n'.
+	 *
+	 * @require buffer != null && 0 <= from <= to <= buffer.limit()
+	 * @param buffer
+	 * 			the buffer to search
+	 * @param from
+	 * 			the position to search from
+	 * @param to
+	 * 			the position to search to
+	 * @return the end of the last complete line
+	 */
+	static int lastLineEnd(ByteBuffer buffer, int from, int to) {
+		for (int i = to - 1; i >= from; i--) {
+			byte b = buffer.get(i);
+			if (b == '\n') {
+				return i + 1;
+			}
+			if (b == '\r' && i + 1 < to) {
+				return i + 1;
+			}
+		}
+		return from;
+	}
+
+	/**
+	 * Returns the position of the start of the first line that starts at or
+	 * after the given position, or to if there is no such line.
+	 *
+	 * @require buffer != null && 0 < position <= to <= buffer.limit()
+	 * @param buffer
+	 * 			the buffer to search
+	 * @param position
+	 * 			the position to search from
+	 * @param to
+	 * 			the position to search to
+	 * @return the start of the next line
+	 */
+	static int nextLineStart(ByteBuffer buffer, int position, int to) {
+		while (position < to) {
+			byte previous = buffer.get(position - 1);
+			if (previous == '\n'
+					|| (previous == '\r' && buffer.get(position) != '\n')) {
+				return position;
+			}
+			position++;
+		}
+		return to;
+	}
+
+	/**
+	 * Parses the line between positions start and end of the buffer.
+	 */
+	private Section parseLine(ByteBuffer buffer, int start, int end)
+			throws FormatException {
+		// Split the line into items
+		int items = 0;
+		int position = start;
+		while (position < end) {
+			while (position < end && isWhitespace(buffer.get(position))) {
+				position++;
+			}
+			if (position == end) {
+				break;
+			}
+			if (items == ITEMS) {
+				items++;
+				break;
+			}
+			itemStarts[items] = position;
+			while (position < end && !isWhitespace(buffer.get(position))) {
+				position++;
+			}
+			itemEnds[items] = position;
+			items++;
+		}
+		if (items != ITEMS) {
+			if (items == 0) {
+				throw new FormatException("Each line must have 5 elements.");
+			}
+			throw new FormatException("Each line must have 5 elements :"
+					+ line(buffer, start, end));
+		}
+		int length = parseLength(buffer, itemStarts[0], itemEnds[0]);
+		if (length < 0) {
+			throw new FormatException("Section length must be a number :"
+					+ line(buffer, start, end));
+		}
+		int branch1 = parseBranch(buffer, itemStarts[2], itemEnds[2]);
+		int branch2 = parseBranch(buffer, itemStarts[4], itemEnds[4]);
+		if (branch1 == -1 || branch2 == -1) {
+			throw new FormatException("Branch format error: "
+					+ line(buffer, start, end));
+		}
+		JunctionBranch endPoint1 = endPoint(buffer, itemStarts[1],
+				itemEnds[1], branch1);
+		JunctionBranch endPoint2 = endPoint(buffer, itemStarts[3],
+				itemEnds[3], branch2);
+		//Check that section format is correct
+		try {
+			return new Section(length, endPoint1, endPoint2);
+		} catch (NullPointerException | IllegalArgumentException e) {
+			throw new FormatException("Section format error :"
+					+ line(buffer, start, end));
+		}
+	}
+
+	/**
+	 * Returns the integer between positions start and end of the buffer, or
+	 * -1 if it is not an integer. A negative integer is returned as 0, so
+	 * that it is rejected as the length of a section.
+	 */
+	private static int parseLength(ByteBuffer buffer, int start, int end) {
+		boolean negative = false;
+		if (buffer.get(start) == '-' || buffer.get(start) == '+') {
+			negative = buffer.get(start) == '-';
+			start++;
+		}
+		if (start == end) {
+			return -1;
+		}
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+			if (value > Integer.MAX_VALUE) {
+				return -1;
+			}
+		}
+		return negative ? 0 : (int) value;
+	}
+
+	/**
+	 * Returns the ordinal of the branch named between positions start and end
+	 * of the buffer, or -1 if it is not the name of a branch.
+	 */
+	private static int parseBranch(ByteBuffer buffer, int start, int end) {
+		int branch;
+		switch (buffer.get(start)) {
+		case 'F':
+			branch = Branch.FACING.ordinal();
+			break;
+		case 'N':
+			branch = Branch.NORMAL.ordinal();
+			break;
+		case 'R':
+			branch = Branch.REVERSE.ordinal();
+			break;
+		default:
+			return -1;
+		}
+		byte[] name = BRANCH_NAMES[branch];
+		if (end - start != name.length) {
+			return -1;
+		}
+		for (int i = 1; i < name.length; i++) {
+			if (buffer.get(start + i) != name[i]) {
+				return -1;
+			}
+		}
+		return branch;
+	}
+
+	/**
+	 * Returns the end-point on the given branch of the junction named between
+	 * positions start and end of the buffer.
+	 */
+	private JunctionBranch endPoint(ByteBuffer buffer, int start, int end,
+			int branch) {
+		int hash = 1;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + buffer.get(i);
+		}
+		int mask = hashes.length - 1;
+		int slot = mix(hash) & mask;
+		while (names[slot] != null) {
+			if (hashes[slot] == hash && matches(names[slot], buffer, start,
+					end)) {
+				return endPoints[slot][branch];
+			}
+			slot = (slot + 1) & mask;
+		}
+		byte[] name = new byte[end - start];
+		for (int i = 0; i < name.length; i++) {
+			name[i] = buffer.get(start + i);
+		}
+		Junction junction = new Junction(
+				new String(name, StandardCharsets.UTF_8));
+		JunctionBranch[] junctionEndPoints =
+				new JunctionBranch[Branch.values().length];
+		for (Branch b : Branch.values()) {
+			junctionEndPoints[b.ordinal()] = JunctionBranch.of(junction, b);
+		}
+		hashes[slot] = hash;
+		names[slot] = name;
+		endPoints[slot] = junctionEndPoints;
+		junctionCount++;
+		if (2 * junctionCount > hashes.length) {
+			grow();
+		}
+		return junctionEndPoints[branch];
+	}
+
+	/**
+	 * Doubles the capacity of the junction table.
+	 */
+	private void grow() {
+		int[] oldHashes = hashes;
+		byte[][] oldNames = names;
+		JunctionBranch[][] oldEndPoints = endPoints;
+		hashes = new int[2 * oldHashes.length];
+		names = new byte[2 * oldHashes.length][];
+		endPoints = new JunctionBranch[2 * oldHashes.length][];
+		int mask = hashes.length - 1;
+		for (int i = 0; i < oldHashes.length; i++) {
+			if (oldNames[i] != null) {
+				int slot = mix(oldHashes[i]) & mask;
+				while (names[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				hashes[slot] = oldHashes[i];
+				names[slot] = oldNames[i];
+				endPoints[slot] = oldEndPoints[i];
+			}
+		}
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean matches(byte[] name, ByteBuffer buffer, int start,
+			int end) {
+		if (name.length != end - start) {
+			return false;
+		}
+		for (int i = 0; i < name.length; i++) {
+			if (name[i] != buffer.get(start + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the line between positions start and end of the buffer as a
+	 * string, for use in the message of a FormatException.
+	 */
+	private static String line(ByteBuffer buffer, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(start + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static boolean isLineTerminator(byte b) {
+		return b == '\n' || b == '\r';
+	}
+
+	/**
+	 * Returns true if the given byte is a whitespace character according to
+	 * Character.isWhitespace().
+	 */
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || (b >= '\t' && b <= '\r') || (b >= 0x1C && b <= 0x1F);
+	}
+
+	private static byte[][] branchNames() {
+		byte[][] result = new byte[Branch.values().length][];
+		for (Branch branch : Branch.values()) {
+			result[branch.ordinal()] =
+					branch.name().getBytes(StandardCharsets.US_ASCII);
+		}
+		return result;
+	}
+
+}
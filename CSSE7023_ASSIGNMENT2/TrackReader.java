@@ -1,15 +1,33 @@
 package railway;
 
 import java.io.*;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Provides a method to read a track from a text file.
  */
 public class TrackReader {
 
+    //The initial size of the buffer used to read the input
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //The number of bytes of a file that readMapped maps at a time
+    private static final long MAPPED_WINDOW = 1L << 30;
+    //The number of chunks per thread that readParallel splits a window into
+    private static final int CHUNKS_PER_THREAD = 4;
+    //The smallest chunk that readParallel parses in a separate task
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+
     /**
      * <p>
      * Reads a text file named fileName that describes the sections on a track,
@@ -92,210 +110,436 @@ public class TrackReader {
     		throw new IOException("Error reading input file - "
     				+ "file must be a text file.");
     	}
+    	InputStream input;
+    	try{
+    		input = new FileInputStream(fileName);
+    	}catch(IOException e){
+    		throw new IOException("Error reading input file.");
+    	}
+    	try{
+    		return read(input);
+    	}finally{
+    		input.close();
+    	}
+    }
+    
+    /**
+     * <p>
+     * Reads the sections of a track from the given input stream, in the format
+     * described by read(String), and returns a track containing each of the
+     * sections. The input stream is not closed by this method.
+     * </p>
+     * 
+     * <p>
+     * The input is read into a buffer of bytes and each complete line in the
+     * buffer is parsed by a TrackParser, without decoding the input into
+     * strings. Junction names are decoded as UTF-8.
+     * </p>
+     * 
+     * @param input
+     *            the input stream to read from
+     * @return a track containing the sections from the input stream
+     * @throws IOException
+     *             if there is an error reading from the input stream
+     * @throws FormatException
+     *             if there is an error with the input format, as described for
+     *             read(String)
+     */
+    public static Track read(InputStream input) 
+    		throws IOException, FormatException {
     	//Initialize the track to store all the sections from the file
     	Track track = new Track();
-    	//A string array to store all the different parts of the section
-    	String[] section;
-    	//An integer to store the length of a section
-    	int length;
-    	//Junctions and branches to form the end-points of a section
-    	Junction junction1;
-    	Junction junction2;
-    	Branch branch1 = null; 
-    	Branch branch2 = null;
-    	//JunctionBranches to form the end-points of a section
-    	JunctionBranch endPoint1;
-    	JunctionBranch endPoint2;
-    	Section trackSection;
-    	//A list to store the sections and used to check FormatExceptions
-    	List<Section> listSections = new ArrayList<Section>();
+    	//The sections read so far, used to check FormatExceptions
+    	SectionChecker checker = new SectionChecker();
+    	//The parser shared by all the lines of the input
+    	TrackParser parser = new TrackParser();
+    	//The bytes of the input that have not been parsed yet
+    	byte[] bytes = new byte[BUFFER_SIZE];
+    	int filled = 0;
+    	boolean endOfInput = false;
     	try{
-    		//Initialize the file reader
-    		FileReader reader = new FileReader(fileName);
-    		//Initialize the buffer reader
-	    	BufferedReader bufferReader = new BufferedReader(reader);
-	    	//A string to store each line of the file
-	    	String line;
-	    	//Loop through each line of the file while the file is not null
-	    	while((line = bufferReader.readLine()) != null){
-	    		section = line.split("\\s+");
-	    		//Checks that each line has at least 5 elements
-        		if(section.length != 5){
-        			if(section[0].equals("")){
-        				throw new FormatException(
-        						"Each line must have 5 elements.");
-        			}
-        			throw new FormatException("Each line must have 5 elements :"
-        			+ line);
-        		}
-        		length = Integer.parseInt(section[0]);
-        		//Check that junction is in the right format
-        		try{
-        			junction1 = new Junction(section[1]);
-        			junction2 = new Junction(section[3]);
-        			}catch(NullPointerException e){
-        			throw new FormatException(
-        					"Junction cannot be empty :"+line);
-        		}
-        		//Check if branches are in the right format then assign branches
-        		if(checkBranchSpelling(section[2])){
-	        		if(section[2].equals("FACING")){
-	        			branch1 = Branch.FACING;
-	        		}else if(section[2].equals("NORMAL")){
-	        			branch1 = Branch.NORMAL;
-	        		}else if(section[2].equals("REVERSE")){
-	        			branch1 = Branch.REVERSE;
-	        		}
-        		}else{
-        			throw new FormatException("Branch format error: " + line);
-        		}
-        		if(checkBranchSpelling(section[4])){
-	        		if(section[4].equals("FACING")){
-	        			branch2 = Branch.FACING;
-	        		}else if(section[4].equals("NORMAL")){
-	        			branch2 = Branch.NORMAL;
-	        		}else if(section[4].equals("REVERSE")){
-	        			branch2 = Branch.REVERSE;
-	        		}
-        		}else{
-        			throw new FormatException("Branch format error: "+ line);
-        		}
-        		//Check that end-points are not null
-        		try{
-        		endPoint1 = new JunctionBranch(junction1, branch1);
-        		endPoint2 = new JunctionBranch(junction2, branch2);
-        		}catch(NullPointerException e){
-        			throw new FormatException(
-        					"End-points cannot be empty :"+ line);
-        		}
-        		//Check that section format is correct
-        		try{
-        		trackSection = new Section(length, endPoint1, endPoint2);
-        		}catch(NullPointerException | IllegalArgumentException e){
-        			throw new FormatException("Section format error :" + line);        			
-        		}
-        		listSections.add(trackSection);
-        		//Check for duplicate sections or end-points in the file
-        		if(!checkSections(listSections).equals("false")){
-        			throw new FormatException("File cannot have duplicate "
-        					+ "sections: "+checkSections(listSections));
-        		}
-        		if(!checkEndPoints(listSections).equals("false")){
-        			throw new FormatException("Two sections cannot have the "
-        					+ "same end-points: "+checkEndPoints(listSections));
-        		}
-        		track.addSection(trackSection);
-        	}
-	    	bufferReader.close();
+    		while(!endOfInput){
+    			int count = input.read(bytes, filled, bytes.length - filled);
+    			if(count == -1){
+    				endOfInput = true;
+    			}else{
+    				filled += count;
+    			}
+    			ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, filled);
+    			//Only parse the complete lines until the end of the input
+    			int end = endOfInput ? filled 
+    					: TrackParser.lastLineEnd(buffer, 0, filled);
+    			if(end == 0 && filled == bytes.length){
+    				//The line is longer than the buffer
+    				bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+    				continue;
+    			}
+    			parseSections(parser, buffer, 0, end, track, checker);
+    			System.arraycopy(bytes, end, bytes, 0, filled - end);
+    			filled -= end;
+    		}
     	}catch(IOException e){    		
     		throw new IOException("Error reading input file.");
     	}    	
     	return track; 	
     }  
     
+    /**
+     * <p>
+     * Reads a text file that describes the sections on a track, in the format
+     * described by read(String), and returns a track containing each of the
+     * sections in the file.
+     * </p>
+     * 
+     * <p>
+     * Instead of copying the file into memory, this method maps the file into
+     * memory and parses the lines directly from the mapped bytes. This is
+     * intended for very large files. A file larger than MAPPED_WINDOW bytes is
+     * mapped one window at a time, where each window starts at the beginning
+     * of a line.
+     * </p>
+     * 
+     * @param path
+     *            the file to read from
+     * @return a track containing the sections from the file
+     * @throws IOException
+     *             if the file is not a text file, or there is an error reading
+     *             from the file
+     * @throws FormatException
+     *             if there is an error with the input format, as described for
+     *             read(String)
+     */
+    public static Track readMapped(Path path) 
+    		throws IOException, FormatException {
+    	return readMapped(path, null);
+    }
     
     /**
-     * This method checks if the file name is a text file.
+     * <p>
+     * Reads a text file that describes the sections on a track, in the format
+     * described by read(String), and returns a track containing each of the
+     * sections in the file.
+     * </p>
      * 
-     * @param filename
-     * 			A string containing the file name
-     * @return a boolean value. It returns true if the file name is a text file
-     * or false if the filename is not a text file. 
+     * <p>
+     * The file is mapped into memory as for readMapped(Path), and each
+     * mapped window is split at line boundaries into chunks that are parsed
+     * in parallel by tasks on the given pool. The sections of the chunks are
+     * then added to the track in file order, so duplicate sections and
+     * common end-points in different chunks are detected, and the same
+     * FormatException is thrown as if the file had been read sequentially.
+     * </p>
+     * 
+     * @param path
+     *            the file to read from
+     * @param pool
+     *            the pool to parse the chunks of the file on
+     * @return a track containing the sections from the file
+     * @throws NullPointerException
+     *             if pool is null
+     * @throws IOException
+     *             if the file is not a text file, or there is an error reading
+     *             from the file
+     * @throws FormatException
+     *             if there is an error with the input format, as described for
+     *             read(String)
      */
-    private static boolean checkFileFormat(String filename){
-    	//String array to store the split up filename
-    	String[] name = filename.split("\\.");
-    	if(!name[1].equals("txt")){
-    		return false;
+    public static Track readParallel(Path path, ForkJoinPool pool) 
+    		throws IOException, FormatException {
+    	if(pool == null){
+    		throw new NullPointerException("The pool cannot be null.");
     	}
-    	return true;
+    	return readMapped(path, pool);
+    }
+    
+    /**
+     * Reads the sections of a track from a memory-mapped file. If pool is
+     * null, each window of the file is parsed sequentially, otherwise it is
+     * parsed in parallel on the pool.
+     */
+    private static Track readMapped(Path path, ForkJoinPool pool) 
+    		throws IOException, FormatException {
+    	if(!checkFileFormat(path.getFileName().toString())){
+    		throw new IOException("Error reading input file - "
+    				+ "file must be a text file.");
+    	}
+    	//Initialize the track to store all the sections from the file
+    	Track track = new Track();
+    	//The sections read so far, used to check FormatExceptions
+    	SectionChecker checker = new SectionChecker();
+    	//The parser shared by all the lines of the file
+    	TrackParser parser = new TrackParser();
+    	try(FileChannel channel = FileChannel.open(path, 
+    			StandardOpenOption.READ)){
+    		long size = channel.size();
+    		//The position in the file of the first line not yet parsed
+    		long position = 0;
+    		long window = MAPPED_WINDOW;
+    		while(position < size){
+    			long length = Math.min(window, size - position);
+    			boolean last = position + length == size;
+    			MappedByteBuffer buffer = channel.map(
+    					FileChannel.MapMode.READ_ONLY, position, length);
+    			int end = last ? (int) length 
+    					: TrackParser.lastLineEnd(buffer, 0, (int) length);
+    			if(end == 0){
+    				//The line is longer than the window
+    				if(window == Integer.MAX_VALUE){
+    					throw new IOException("Line is too long to map.");
+    				}
+    				window = Math.min(2 * window, Integer.MAX_VALUE);
+    				continue;
+    			}
+    			if(pool == null){
+    				parseSections(parser, buffer, 0, end, track, checker);
+    			}else{
+    				parseChunks(pool, buffer, end, track, checker);
+    			}
+    			position += end;
+    		}
+    	}catch(IOException e){
+    		throw new IOException("Error reading input file.");
+    	}
+    	return track;
     }
-
     
     /**
-     * This method checks if the string format of a branch is in the right 
-     * format and returns a boolean value.
+     * Parses the lines of the buffer between positions from and to, and adds
+     * each of the sections that they describe to the track, in order.
      * 
-     * @param branch
-     * 			A string containing the string format of a branch
-     * @return a boolean value - true if the branch format and spelling is
-     * 			correct and false if not. 
+     * @require parser != null && buffer != null && track != null &&
+     * 			checker != null && from and to are line boundaries
+     * @param parser
+     * 			the parser to use
+     * @param buffer
+     * 			the buffer containing the lines
+     * @param from
+     * 			the position of the first line
+     * @param to
+     * 			the position after the last line
+     * @param track
+     * 			the track to add the sections to
+     * @param checker
+     * 			the sections that have been added to the track so far
+     * @throws FormatException
+     * 			if a line is incorrectly formatted, or describes a duplicate
+     * 			section or end-point. The sections described by the lines before
+     * 			it are added to the track first.
      */
-    private static boolean checkBranchSpelling(String branch){
-    	if(!branch.equals("FACING") && 
-	    				!branch.equals("NORMAL") && 
-	    				!branch.equals("REVERSE")){
-    		return false;
-    	}else{
-    		return true;
+    private static void parseSections(TrackParser parser, ByteBuffer buffer,
+    		int from, int to, Track track, SectionChecker checker)
+    					throws FormatException{
+    	//The sections described by the lines of the buffer
+    	List<Section> parsed = new ArrayList<Section>();
+    	try{
+    		parser.parse(buffer, from, to, parsed);
+    	}catch(FormatException e){
+    		//The lines before the badly formatted line are checked first
+    		addSections(parsed, track, checker);
+    		throw e;
     	}
+    	addSections(parsed, track, checker);
     }
-
+    
     /**
-     * This method loops through a list of sections to see if any sections
-     * are the same. If they are the same then it returns the two sections
-     * that are the same in a string format. If they are not any sections that
-     * are the same then it will return a string "false". 
+     * Splits the lines of the buffer before position end into chunks, parses
+     * the chunks in parallel on the given pool, and then adds the sections of
+     * each chunk to the track in order.
      * 
-     * @require !listSections.contains(null)      	
-     * @param listSections
-     * 			A list of sections
-     * @return a string based on whether or not there are two sections that are 
-     * the same as per the section.equals() method. If it there are two
-     * equivalent sections then a string will be returned containing the two
-     * sections that are the same in a string format. If not then the string
-     * "false" will be returned. 
+     * @require pool != null && buffer != null && track != null &&
+     * 			checker != null && end is a line boundary
+     * @param pool
+     * 			the pool to parse the chunks on
+     * @param buffer
+     * 			the buffer containing the lines
+     * @param end
+     * 			the position after the last line
+     * @param track
+     * 			the track to add the sections to
+     * @param checker
+     * 			the sections that have been added to the track so far
+     * @throws FormatException
+     * 			if a line is incorrectly formatted, or describes a duplicate
+     * 			section or end-point. The sections described by the lines before
+     * 			it are added to the track first.
      */
-    private static String checkSections(List<Section> listSections){
-    	//Loops through the list of sections twice to compare each section
-		for(int i = 0; i < listSections.size() - 1; i++){
-			for(int j = i + 1; j < listSections.size(); j++){
-				if(listSections.get(i).equals(listSections.get(j))){
-					return "These are the same: ("+listSections.get(i).
-							toString()+"), "+listSections.get(j).toString();
-				}
-			}
-		}
-		return "false";    	
+    private static void parseChunks(ForkJoinPool pool, ByteBuffer buffer,
+    		int end, Track track, SectionChecker checker) 
+    				throws FormatException{
+    	//The smallest number of bytes worth parsing in a separate task
+    	int threshold = Math.max(MIN_CHUNK_SIZE, 
+    			end / (CHUNKS_PER_THREAD * pool.getParallelism()));
+    	List<Chunk> chunks = pool.invoke(new ChunkTask(buffer, 0, end, 
+    			threshold));
+    	for(Chunk chunk : chunks){
+    		addSections(chunk.sections, track, checker);
+    		if(chunk.error != null){
+    			throw chunk.error;
+    		}
+    	}
     }
     
     /**
-     * This section checks if a list of section contains two sections with the 
-     * same end-point as per the junctionBranch.equals() method. If there are two
-     * end-points that are the same then it returns the section in string format
-     * else it returns the string "false" 
+     * Adds each of the given sections to the track, in order, checking that
+     * the track does not already have an equivalent section, or a section with
+     * a common end-point.
      * 
-     * @require !listSections.contains(null)      	
-     * @param listSections
-     * 			A list of sections
-     * @return a string based on whether or not there are two sections with the
-     * same end-points as per the junctionBranch.equals() method. If two 
-     * end-points are the same then a string format of the two sections will
-     * be returned, else it returns the string "false".
+     * @require parsed != null && track != null && checker != null
+     * @param parsed
+     * 			the sections to add
+     * @param track
+     * 			the track to add the sections to
+     * @param checker
+     * 			the sections that have been added to the track so far
+     * @throws FormatException
+     * 			if a section is a duplicate, or has a common end-point with
+     * 			another section
      */
-    private static String checkEndPoints(List<Section> listSections){
-    	//Loops through listSections twice to compare all sections against each
-    	//other
-    	for(int i = 0; i < listSections.size(); i++){
-    		for(int j = 0; j < listSections.size(); j ++){
-    			if(j == i){
-    				continue;
-    			}   	
-    			//Loop through end-points of the sections
-    			for(JunctionBranch endPointI : 
-    				listSections.get(i).getEndPoints()){
-    				for(JunctionBranch endPointJ : 
-    					listSections.get(j).getEndPoints()){
-    					if(endPointI.equals(endPointJ)){
-    						return listSections.get(i).toString() + " and " + 
-    					listSections.get(j).toString();
-    					}
-    				}    				
+    private static void addSections(List<Section> parsed, Track track,
+    		SectionChecker checker) throws FormatException{
+    	for(Section trackSection : parsed){
+    		//Check for duplicate sections or end-points in the file
+    		checker.add(trackSection);
+    		track.addSection(trackSection);
+    	}
+    }
+    
+    
+    /**
+     * This method checks if the file name is a text file.
+     * 
+     * @param filename
+     * 			A string containing the file name
+     * @return a boolean value. It returns true if the file name is a text file
+     * or false if the filename is not a text file. 
+     */
+    private static boolean checkFileFormat(String filename){
+    	//A file name without a ".txt" extension is not a text file
+    	return filename.endsWith(".txt");
+    }
+
+
+    /**
+     * The sections parsed from a chunk of a file, and the FormatException
+     * thrown by the first incorrectly formatted line of the chunk, if any.
+     */
+    private static class Chunk{
+    	
+    	//The sections described by the lines before the first error
+    	private List<Section> sections = new ArrayList<Section>();
+    	//The error on the first incorrectly formatted line, or null
+    	private FormatException error;
+    }
+    
+    /**
+     * A task that parses the lines between two positions of a buffer. If
+     * there are more than threshold bytes, it splits them at a line boundary
+     * and parses the two halves in parallel.
+     */
+    @SuppressWarnings("serial")
+    private static class ChunkTask extends RecursiveTask<List<Chunk>>{
+    	
+    	//The buffer containing the lines
+    	private ByteBuffer buffer;
+    	//The first and last positions of the lines to parse
+    	private int from;
+    	private int to;
+    	//The largest number of bytes to parse without splitting
+    	private int threshold;
+    	
+    	ChunkTask(ByteBuffer buffer, int from, int to, int threshold){
+    		this.buffer = buffer;
+    		this.from = from;
+    		this.to = to;
+    		this.threshold = threshold;
+    	}
+    	
+    	@Override
+    	protected List<Chunk> compute(){
+    		if(to - from > threshold){
+    			int middle = TrackParser.nextLineStart(buffer, 
+    					from + (to - from) / 2, to);
+    			if(middle < to){
+    				ChunkTask second = new ChunkTask(buffer, middle, to, 
+    						threshold);
+    				second.fork();
+    				List<Chunk> chunks = new ChunkTask(buffer, from, middle, 
+    						threshold).compute();
+    				chunks.addAll(second.join());
+    				return chunks;
     			}
     		}
+    		Chunk chunk = new Chunk();
+    		try{
+    			//Each task has its own parser and view of the buffer
+    			new TrackParser().parse(buffer.duplicate(), from, to, 
+    					chunk.sections);
+    		}catch(FormatException e){
+    			chunk.error = e;
+    		}
+    		List<Chunk> chunks = new ArrayList<Chunk>();
+    		chunks.add(chunk);
+    		return chunks;
     	}
-    	return "false";
     }
     
+    /**
+     * The sections read from a file so far, indexed so that a new section can
+     * be checked against all of them in constant time. This replaces
+     * comparing every pair of sections after each line is read.
+     */
+    private static class SectionChecker{
+    	
+    	//The sections read so far, mapped to themselves
+    	private Map<Section, Section> sections = 
+    			new HashMap<Section, Section>();
+    	//The end-points of the sections read so far, mapped to the position of
+    	//their section in the file
+    	private Map<JunctionBranch, Integer> endPoints = 
+    			new HashMap<JunctionBranch, Integer>();
+    	//The sections read so far, in the order that they were read
+    	private List<Section> listSections = new ArrayList<Section>();
+    	
+    	/**
+    	 * Checks that the given section is not equivalent to, and does not have
+    	 * a common end-point with, any of the sections read so far, and then
+    	 * records it.
+    	 * 
+    	 * @require section != null
+    	 * @param section
+    	 * 			the next section read from the file
+    	 * @throws FormatException
+    	 * 			if the section is a duplicate of an earlier section, or if
+    	 * 			it has an end-point in common with an earlier section. If
+    	 * 			it has end-points in common with more than one section, the
+    	 * 			earliest of those sections is reported.
+    	 */
+    	void add(Section section) throws FormatException{
+    		Section same = sections.get(section);
+    		if(same != null){
+    			throw new FormatException("File cannot have duplicate "
+    					+ "sections: These are the same: (" + same + "), " 
+    					+ section);
+    		}
+    		//The position of the earliest section with a common end-point
+    		int earliest = -1;
+    		for(JunctionBranch endPoint : section.getEndPoints()){
+    			Integer position = endPoints.get(endPoint);
+    			if(position != null && (earliest == -1 || position < earliest)){
+    				earliest = position;
+    			}
+    		}
+    		if(earliest != -1){
+    			throw new FormatException("Two sections cannot have the "
+    					+ "same end-points: " + listSections.get(earliest) 
+    					+ " and " + section);
+    		}
+    		sections.put(section, section);
+    		for(JunctionBranch endPoint : section.getEndPoints()){
+    			endPoints.put(endPoint, listSections.size());
+    		}
+    		listSections.add(section);
+    	}
+    }
 
 }
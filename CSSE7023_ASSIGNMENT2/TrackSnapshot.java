@@ -0,0 +1,206 @@
+package railway;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * <p>
+ * Provides methods to save a track to a compact binary snapshot, and to
+ * restore a track from a snapshot.
+ * </p>
+ *
+ * <p>
+ * A snapshot only contains tracks that have already been validated (e.g. by
+ * TrackReader.read), so restoring a track skips the format, duplicate section
+ * and common end-point checks that TrackReader performs, and is much faster
+ * than reading the text file that the track was created from.
+ * </p>
+ *
+ * <p>
+ * A snapshot consists of, in order (all integers are big-endian):
+ * </p>
+ *
+ * <ul>
+ * <li>the int MAGIC and the int VERSION,</li>
+ * <li>the number of junctions J, followed by J junction identifiers, each
+ * written as the number of bytes of its UTF-8 encoding followed by those
+ * bytes,</li>
+ * <li>the number of sections S, followed by S section records, each written
+ * as three ints: the length of the section and its two end-points. An
+ * end-point is encoded as (junction << 2 | branch), where junction is the
+ * index of its junction in the junction table and branch is the ordinal of
+ * its branch (see JunctionRegistry).</li>
+ * </ul>
+ */
+public class TrackSnapshot {
+
+	// the first int of every snapshot ("TRAK")
+	public static final int MAGIC = 0x5452414B;
+
+	// the version of the snapshot format written by this class
+	public static final int VERSION = 1;
+
+	/**
+	 * Writes a snapshot of the given track to the given file, replacing the
+	 * file if it already exists.
+	 *
+	 * @param track
+	 *            the track to save
+	 * @param path
+	 *            the file to write the snapshot to
+	 * @throws NullPointerException
+	 *             if track or path is null
+	 * @throws IOException
+	 *             if there is an error writing to the file
+	 */
+	public static void write(Track track, Path path) throws IOException {
+		if (track == null) {
+			throw new NullPointerException("The track cannot be null.");
+		}
+		try (OutputStream output = Files.newOutputStream(path)) {
+			write(track, output);
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the given track to the given output stream. The
+	 * output stream is not closed by this method.
+	 *
+	 * @param track
+	 *            the track to save
+	 * @param output
+	 *            the output stream to write the snapshot to
+	 * @throws NullPointerException
+	 *             if track or output is null
+	 * @throws IOException
+	 *             if there is an error writing to the output stream
+	 */
+	public static void write(Track track, OutputStream output)
+			throws IOException {
+		if (track == null || output == null) {
+			throw new NullPointerException(
+					"The method parameters cannot be null.");
+		}
+		DataOutputStream data =
+				new DataOutputStream(new BufferedOutputStream(output));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+
+		// the junction table: the index of a junction is its id
+		JunctionRegistry junctions = new JunctionRegistry();
+		data.writeInt(track.getJunctions().size());
+		for (Junction junction : track.getJunctions()) {
+			junctions.register(junction);
+			byte[] name =
+					junction.getJunctionId().getBytes(StandardCharsets.UTF_8);
+			data.writeInt(name.length);
+			data.write(name);
+		}
+
+		// the sections are counted first, since the track has no size method
+		int sections = 0;
+		for (Iterator<Section> it = track.iterator(); it.hasNext(); it.next()) {
+			sections++;
+		}
+		data.writeInt(sections);
+		for (Section section : track) {
+			data.writeInt(section.getLength());
+			for (JunctionBranch endPoint : section.getEndPoints()) {
+				data.writeInt(junctions.getId(endPoint));
+			}
+		}
+		data.flush();
+	}
+
+	/**
+	 * Restores a track from the snapshot in the given file. The whole file
+	 * is read into memory at once and then decoded.
+	 *
+	 * @param path
+	 *            the file containing the snapshot
+	 * @return the track saved in the snapshot
+	 * @throws IOException
+	 *             if there is an error reading from the file, or the file is
+	 *             not a snapshot written by a compatible version of this class
+	 */
+	public static Track read(Path path) throws IOException {
+		return read(ByteBuffer.wrap(Files.readAllBytes(path)));
+	}
+
+	/**
+	 * Restores a track from the snapshot in the given buffer, starting at its
+	 * current position.
+	 *
+	 * @param buffer
+	 *            the buffer containing the snapshot
+	 * @return the track saved in the snapshot
+	 * @throws IOException
+	 *             if the buffer does not contain a complete snapshot written
+	 *             by a compatible version of this class
+	 */
+	public static Track read(ByteBuffer buffer) throws IOException {
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Not a track snapshot.");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported track snapshot version: "
+						+ version);
+			}
+
+			Branch[] branches = Branch.values();
+			// each junction takes at least 4 bytes, so a larger count than
+			// the buffer could hold is corrupt (rather than an array that
+			// cannot be allocated)
+			int junctions = count(buffer, 4);
+			// the end-points of each junction, indexed by the encoded
+			// end-point
+			JunctionBranch[] endPoints = new JunctionBranch[junctions << 2];
+			for (int i = 0; i < endPoints.length; i += 4) {
+				byte[] name = new byte[count(buffer, 1)];
+				buffer.get(name);
+				Junction junction =
+						new Junction(new String(name, StandardCharsets.UTF_8));
+				for (Branch branch : branches) {
+					endPoints[JunctionRegistry.endPointId(i >> 2, branch)] =
+							JunctionBranch.of(junction, branch);
+				}
+			}
+
+			Track track = new Track();
+			int sections = count(buffer, 12);
+			for (int i = 0; i < sections; i++) {
+				int length = buffer.getInt();
+				JunctionBranch endPoint1 = endPoints[buffer.getInt()];
+				JunctionBranch endPoint2 = endPoints[buffer.getInt()];
+				track.addSection(new Section(length, endPoint1, endPoint2));
+			}
+			return track;
+		} catch (RuntimeException e) {
+			// a truncated buffer, or an index or section that is out of range
+			throw new IOException("Corrupt track snapshot.", e);
+		}
+	}
+
+	/**
+	 * Reads a count of items from the given buffer, each of which takes at
+	 * least the given number of bytes.
+	 *
+	 * @throws IOException
+	 *             if the count is negative, or there are fewer bytes left in
+	 *             the buffer than the items take
+	 */
+	private static int count(ByteBuffer buffer, int bytes) throws IOException {
+		int count = buffer.getInt();
+		if (count < 0 || count > buffer.remaining() / bytes) {
+			throw new IOException("Corrupt track snapshot.");
+		}
+		return count;
+	}
+
+}
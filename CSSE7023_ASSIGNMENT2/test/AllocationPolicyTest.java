@@ -0,0 +1,200 @@
+package railway.test;
+
+import railway.*;
+
+import java.util.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the allocation policies and Allocator.allocate(occupied,
+ * requested, policy).
+ */
+public class AllocationPolicyTest {
+
+	/**
+	 * Check that IndexPriorityPolicy allocates the same routes as
+	 * Allocator.allocate(occupied, requested).
+	 */
+	@Test
+	public void testIndexPriority() {
+		Section[] line = TrainRoutes.line(60);
+		for (int round = 0; round < 100; round++) {
+			Random random = new Random(round);
+			List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+			List<List<Segment>> requested = new ArrayList<List<Segment>>();
+			TrainRoutes.scenario(random, line, 1 + random.nextInt(15),
+					occupied, requested);
+			Assert.assertEquals(Allocator.allocate(occupied, requested),
+					Allocator.allocate(occupied, requested,
+							new IndexPriorityPolicy()));
+		}
+	}
+
+	/**
+	 * Check that EarliestDeadlinePolicy orders the trains by deadline (and
+	 * then by index), and allocates the routes that Allocator.allocate would
+	 * allocate to the trains in that order.
+	 */
+	@Test
+	public void testEarliestDeadline() {
+		Section[] line = TrainRoutes.line(60);
+		for (int round = 0; round < 100; round++) {
+			Random random = new Random(round);
+			List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+			List<List<Segment>> requested = new ArrayList<List<Segment>>();
+			int trains = 1 + random.nextInt(15);
+			TrainRoutes.scenario(random, line, trains, occupied, requested);
+			EarliestDeadlinePolicy policy = new EarliestDeadlinePolicy(trains);
+			for (int t = 0; t < trains; t++) {
+				policy.setDeadline(t, random.nextInt(5));
+			}
+			int[] order = policy.order(occupied, requested);
+			for (int k = 1; k < trains; k++) {
+				long previous = policy.getDeadline(order[k - 1]);
+				long current = policy.getDeadline(order[k]);
+				Assert.assertTrue(previous < current || (previous == current
+						&& order[k - 1] < order[k]));
+			}
+			checkOrder(occupied, requested, order, Allocator.allocate(
+					occupied, requested, policy));
+			Assert.assertTrue(policy.checkInvariant());
+		}
+	}
+
+	/**
+	 * Check that DelayWeightedPolicy orders the trains by decreasing weighted
+	 * delay.
+	 */
+	@Test
+	public void testDelayWeighted() {
+		Section[] line = TrainRoutes.line(60);
+		Random random = new Random(7);
+		List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+		List<List<Segment>> requested = new ArrayList<List<Segment>>();
+		int trains = 12;
+		TrainRoutes.scenario(random, line, trains, occupied, requested);
+		DelayWeightedPolicy policy = new DelayWeightedPolicy(trains);
+		for (int t = 0; t < trains; t++) {
+			policy.setDelay(t, random.nextInt(10));
+			policy.setWeight(t, random.nextInt(3));
+		}
+		int[] order = policy.order(occupied, requested);
+		for (int k = 1; k < trains; k++) {
+			Assert.assertTrue(policy.getWeightedDelay(order[k - 1])
+					>= policy.getWeightedDelay(order[k]));
+		}
+		checkOrder(occupied, requested, order, Allocator.allocate(occupied,
+				requested, policy));
+		Assert.assertTrue(policy.checkInvariant());
+	}
+
+	/**
+	 * Check that a negative weight is rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeWeight() {
+		new DelayWeightedPolicy(1).setWeight(0, -1);
+	}
+
+	/**
+	 * Check that RoundRobinAgingPolicy lets two trains that want the same
+	 * section take turns, where index priority always favours one of them.
+	 */
+	@Test
+	public void testRoundRobinAging() {
+		Section[] line = TrainRoutes.line(5);
+		List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+		occupied.add(TrainRoutes.occupied(line, 0, 2));
+		occupied.add(TrainRoutes.occupied(line, 4, 2));
+		List<List<Segment>> requested = new ArrayList<List<Segment>>();
+		requested.add(TrainRoutes.requested(line, 0, 2, 3, false));
+		requested.add(TrainRoutes.requested(line, 4, 2, 3, true));
+		RoundRobinAgingPolicy policy = new RoundRobinAgingPolicy(2);
+		int[] full = new int[2];
+		for (int k = 0; k < 10; k++) {
+			List<List<Segment>> allocated = Allocator.allocate(occupied,
+					requested, policy);
+			for (int t = 0; t < 2; t++) {
+				if (allocated.get(t).equals(requested.get(t))) {
+					full[t]++;
+				}
+			}
+			Assert.assertTrue(policy.checkInvariant());
+		}
+		Assert.assertTrue(full[0] > 0);
+		Assert.assertTrue(full[1] > 0);
+		List<List<Segment>> allocated = Allocator.allocate(occupied,
+				requested);
+		Assert.assertNotEquals(requested.get(1), allocated.get(1));
+	}
+
+	/**
+	 * Check that a policy for a different number of trains is rejected
+	 * rather than failing part way through an allocation.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongNumberOfTrains() {
+		Section[] line = TrainRoutes.line(10);
+		List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+		List<List<Segment>> requested = new ArrayList<List<Segment>>();
+		TrainRoutes.scenario(new Random(3), line, 4, occupied, requested);
+		Allocator.allocate(occupied, requested, new RoundRobinAgingPolicy(3));
+	}
+
+	/**
+	 * Check that RoundRobinAgingPolicy rejects an allocation for a different
+	 * number of trains.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testAllocatedWrongNumberOfTrains() {
+		List<List<Segment>> routes = new ArrayList<List<Segment>>();
+		new RoundRobinAgingPolicy(2).allocated(routes, routes);
+	}
+
+	/**
+	 * Check that an Allocator instance allocates the same routes with a
+	 * policy as Allocator.allocate(occupied, requested, policy).
+	 */
+	@Test
+	public void testReusedAllocatorWithPolicy() {
+		Section[] line = TrainRoutes.line(60);
+		Allocator allocator = new Allocator();
+		for (int round = 0; round < 100; round++) {
+			Random random = new Random(round);
+			List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+			List<List<Segment>> requested = new ArrayList<List<Segment>>();
+			int trains = 1 + random.nextInt(15);
+			TrainRoutes.scenario(random, line, trains, occupied, requested);
+			EarliestDeadlinePolicy policy = new EarliestDeadlinePolicy(trains);
+			for (int t = 0; t < trains; t++) {
+				policy.setDeadline(t, random.nextInt(5));
+			}
+			Assert.assertEquals(Allocator.allocate(occupied, requested,
+					policy), allocator.allocateAll(occupied, requested,
+					policy));
+		}
+	}
+
+	/**
+	 * Checks that the allocated routes are the routes that
+	 * Allocator.allocate allocates when the trains are listed in the given
+	 * order.
+	 */
+	private static void checkOrder(List<List<Segment>> occupied,
+			List<List<Segment>> requested, int[] order,
+			List<List<Segment>> allocated) {
+		List<List<Segment>> orderedOccupied = new ArrayList<List<Segment>>();
+		List<List<Segment>> orderedRequested = new ArrayList<List<Segment>>();
+		for (int k = 0; k < order.length; k++) {
+			orderedOccupied.add(occupied.get(order[k]));
+			orderedRequested.add(requested.get(order[k]));
+		}
+		List<List<Segment>> expected = Allocator.allocate(orderedOccupied,
+				orderedRequested);
+		for (int k = 0; k < order.length; k++) {
+			Assert.assertEquals(expected.get(k), allocated.get(order[k]));
+		}
+	}
+
+}
@@ -0,0 +1,127 @@
+package railway.test;
+
+import railway.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Randomised tests for the {@link AllocationService} class, which compare its
+ * allocations with those of Allocator.allocate.
+ */
+public class AllocationServiceTest {
+
+	/**
+	 * Check that the allocations match Allocator.allocate after each update
+	 * made by a single thread, with different numbers of stripes.
+	 */
+	@Test
+	public void testSequentialUpdates() {
+		for (int stripes : new int[] { 1, 2, 64 }) {
+			Random random = new Random(stripes);
+			Section[] line = TrainRoutes.line(30);
+			List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+			List<List<Segment>> requested = new ArrayList<List<Segment>>();
+			int[] starts = TrainRoutes.scenario(random, line, 6, occupied,
+					requested);
+			int[] offsets = new int[starts.length];
+			for (int t = 0; t < starts.length; t++) {
+				offsets[t] = occupied.get(t).get(0).getEndOffset();
+			}
+			AllocationService service = new AllocationService(occupied,
+					requested, stripes);
+			for (int step = 0; step < 1000; step++) {
+				Assert.assertEquals(Allocator.allocate(occupied, requested),
+						service.getAllocations());
+				Assert.assertTrue(service.checkInvariant());
+				int t = random.nextInt(starts.length);
+				if (random.nextBoolean()
+						&& !service.getAllocation(t).isEmpty()) {
+					// the train moves forward within its section
+					offsets[t] = Math.min(offsets[t] + 1 + random.nextInt(3),
+							9);
+					List<Segment> route = TrainRoutes.occupied(line,
+							starts[t], offsets[t]);
+					occupied.set(t, route);
+					service.setOccupied(t, route);
+				}
+				List<Segment> route = TrainRoutes.requested(line, starts[t],
+						offsets[t], 1 + random.nextInt(5),
+						random.nextBoolean());
+				requested.set(t, route);
+				service.setRequested(t, route);
+			}
+		}
+	}
+
+	/**
+	 * Check that the allocations match Allocator.allocate once several
+	 * threads have finished updating the trains at the same time.
+	 */
+	@Test
+	public void testConcurrentUpdates() throws Exception {
+		final int threads = 8;
+		final int trains = 120;
+		final Section[] line = TrainRoutes.line(400);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (int round = 0; round < 10; round++) {
+				Random random = new Random(round);
+				List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+				List<List<Segment>> requested = new ArrayList<List<Segment>>();
+				final int[] starts = TrainRoutes.scenario(random, line,
+						trains, occupied, requested);
+				final AllocationService service = new AllocationService(
+						occupied, requested, 8 << (round % 4));
+				// each thread updates its own trains, so each element of
+				// these lists is only set by one thread
+				final List<List<Segment>> finalOccupied = Collections
+						.synchronizedList(occupied);
+				final List<List<Segment>> finalRequested = Collections
+						.synchronizedList(requested);
+				List<Future<Void>> futures = new ArrayList<Future<Void>>();
+				for (int thread = 0; thread < threads; thread++) {
+					final int first = thread;
+					final long seed = 100 * round + thread;
+					futures.add(executor.submit(new Callable<Void>() {
+						@Override
+						public Void call() {
+							Random random = new Random(seed);
+							for (int k = 0; k < 1000; k++) {
+								int t = first + threads
+										* random.nextInt(trains / threads);
+								int offset = finalOccupied.get(t).get(0)
+										.getEndOffset();
+								if (random.nextInt(10) == 0 && offset < 9) {
+									offset++;
+									List<Segment> route = TrainRoutes
+											.occupied(line, starts[t], offset);
+									finalOccupied.set(t, route);
+									service.setOccupied(t, route);
+								}
+								List<Segment> route = TrainRoutes.requested(
+										line, starts[t], offset,
+										1 + random.nextInt(8),
+										random.nextBoolean());
+								finalRequested.set(t, route);
+								service.setRequested(t, route);
+							}
+							return null;
+						}
+					}));
+				}
+				for (Future<Void> future : futures) {
+					future.get();
+				}
+				Assert.assertEquals(Allocator.allocate(finalOccupied,
+						finalRequested), service.getAllocations());
+				Assert.assertTrue(service.checkInvariant());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
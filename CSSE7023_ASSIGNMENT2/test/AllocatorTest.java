@@ -0,0 +1,164 @@
+package railway.test;
+
+import railway.*;
+
+import java.util.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link Allocator} class: hand-computed allocations, and an
+ * Allocator instance, which reuses its index for each call to allocateAll and
+ * allocateInto.
+ */
+public class AllocatorTest {
+
+	/**
+	 * Check that a requested segment that runs into a location occupied by
+	 * another train is cut one unit before that location, and that none of
+	 * the requested segments after it are allocated.
+	 */
+	@Test
+	public void testRouteCutBeforeBlockedLocation() {
+		Section[] line = TrainRoutes.line(3);
+		List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+		occupied.add(TrainRoutes.occupied(line, 1, 6));
+		occupied.add(TrainRoutes.occupied(line, 0, 4));
+		List<List<Segment>> requested = new ArrayList<List<Segment>>();
+		requested.add(TrainRoutes.requested(line, 1, 6, 1, false));
+		requested.add(TrainRoutes.requested(line, 0, 4, 3, false));
+
+		List<List<Segment>> allocated = Allocator.allocate(occupied,
+				requested);
+		Assert.assertEquals(requested.get(0), allocated.get(0));
+		// train 0 occupies [4, 6] of section 1
+		Assert.assertEquals(Arrays.asList(
+				new Segment(line[0], TrainRoutes.endPoint(0, Branch.FACING),
+						4, 10),
+				new Segment(line[1], TrainRoutes.endPoint(1, Branch.FACING),
+						0, 3)), allocated.get(1));
+	}
+
+	/**
+	 * Check that a train that occupies the end of the REVERSE branch of a
+	 * junction blocks a train passing from its FACING to its NORMAL branch,
+	 * since the location at the junction is on all three sections.
+	 */
+	@Test
+	public void testConflictAtBranchingJunction() {
+		JunctionBranch facing = endPoint("b", Branch.FACING);
+		Section approach = new Section(10, endPoint("x0", Branch.NORMAL),
+				facing);
+		Section normal = new Section(10, endPoint("b", Branch.NORMAL),
+				endPoint("x1", Branch.FACING));
+		Section reverse = new Section(10, endPoint("b", Branch.REVERSE),
+				endPoint("x2", Branch.FACING));
+		List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+		occupied.add(Arrays.asList(new Segment(reverse, endPoint("x2",
+				Branch.FACING), 8, 10)));
+		occupied.add(Arrays.asList(new Segment(approach, endPoint("x0",
+				Branch.NORMAL), 0, 2)));
+		List<List<Segment>> requested = new ArrayList<List<Segment>>();
+		requested.add(Arrays.asList(new Segment(reverse, endPoint("x2",
+				Branch.FACING), 10, 10)));
+		requested.add(Arrays.asList(
+				new Segment(approach, endPoint("x0", Branch.NORMAL), 2, 10),
+				new Segment(normal, endPoint("b", Branch.NORMAL), 0, 10)));
+
+		List<List<Segment>> allocated = Allocator.allocate(occupied,
+				requested);
+		Assert.assertEquals(requested.get(0), allocated.get(0));
+		Assert.assertEquals(Arrays.asList(new Segment(approach, endPoint(
+				"x0", Branch.NORMAL), 2, 9)), allocated.get(1));
+
+		// once the train has left the junction, the other train can pass
+		occupied.set(0, Arrays.asList(new Segment(reverse, endPoint("x2",
+				Branch.FACING), 6, 8)));
+		requested.set(0, Arrays.asList(new Segment(reverse, endPoint("x2",
+				Branch.FACING), 8, 8)));
+		allocated = Allocator.allocate(occupied, requested);
+		Assert.assertEquals(requested.get(1), allocated.get(1));
+	}
+
+	/**
+	 * Check that the route allocated to a train with a higher index does not
+	 * block a train with a lower index, whichever of two trains heading
+	 * towards each other has the lower index.
+	 */
+	@Test
+	public void testLowerPriorityDoesNotBlock() {
+		Section[] line = TrainRoutes.line(4);
+		List<Segment> occupiedForward = TrainRoutes.occupied(line, 0, 4);
+		List<Segment> requestedForward = TrainRoutes.requested(line, 0, 4, 3,
+				false);
+		List<Segment> occupiedBackward = TrainRoutes.occupied(line, 3, 4);
+		List<Segment> requestedBackward = TrainRoutes.requested(line, 3, 4, 3,
+				true);
+
+		List<List<Segment>> allocated = Allocator.allocate(
+				Arrays.asList(occupiedForward, occupiedBackward),
+				Arrays.asList(requestedForward, requestedBackward));
+		Assert.assertEquals(requestedForward, allocated.get(0));
+		// the junction between sections 2 and 3 is allocated to train 0
+		Assert.assertEquals(Arrays.asList(new Segment(line[3], TrainRoutes
+				.endPoint(4, Branch.NORMAL), 6, 9)), allocated.get(1));
+
+		allocated = Allocator.allocate(
+				Arrays.asList(occupiedBackward, occupiedForward),
+				Arrays.asList(requestedBackward, requestedForward));
+		Assert.assertEquals(requestedBackward, allocated.get(0));
+		// the junction between sections 0 and 1 is allocated to train 0
+		Assert.assertEquals(Arrays.asList(new Segment(line[0], TrainRoutes
+				.endPoint(0, Branch.FACING), 4, 9)), allocated.get(1));
+	}
+
+	/**
+	 * Check that an allocator that is reused for many scenarios, on more than
+	 * one track, allocates the same routes as Allocator.allocate.
+	 */
+	@Test
+	public void testReusedAllocatorMatchesAllocate() {
+		Allocator allocator = new Allocator();
+		for (int round = 0; round < 200; round++) {
+			Random random = new Random(round);
+			// a new track every 50 rounds
+			Section[] line = TrainRoutes.line(60 + round / 50);
+			List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+			List<List<Segment>> requested = new ArrayList<List<Segment>>();
+			TrainRoutes.scenario(random, line, 1 + random.nextInt(30),
+					occupied, requested);
+			Assert.assertEquals(Allocator.allocate(occupied, requested),
+					allocator.allocateAll(occupied, requested));
+		}
+	}
+
+	/**
+	 * Check that allocateInto, refilling the same list for scenarios with
+	 * more and fewer trains, allocates the same routes as Allocator.allocate.
+	 */
+	@Test
+	public void testAllocateIntoMatchesAllocate() {
+		Allocator allocator = new Allocator();
+		Section[] line = TrainRoutes.line(60);
+		List<List<Segment>> allocated = new ArrayList<List<Segment>>();
+		for (int round = 0; round < 200; round++) {
+			Random random = new Random(round);
+			List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+			List<List<Segment>> requested = new ArrayList<List<Segment>>();
+			TrainRoutes.scenario(random, line, 1 + random.nextInt(30),
+					occupied, requested);
+			allocator.allocateInto(occupied, requested, allocated);
+			Assert.assertEquals(Allocator.allocate(occupied, requested),
+					allocated);
+		}
+	}
+
+	/**
+	 * Returns the end-point on the given branch of the junction with the
+	 * given name.
+	 */
+	private static JunctionBranch endPoint(String junction, Branch branch) {
+		return new JunctionBranch(new Junction(junction), branch);
+	}
+
+}
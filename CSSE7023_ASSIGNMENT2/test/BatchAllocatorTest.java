@@ -0,0 +1,78 @@
+package railway.test;
+
+import railway.*;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Randomised tests for the {@link BatchAllocator} class, which compare its
+ * allocations with those of Allocator.allocate.
+ */
+public class BatchAllocatorTest {
+
+	/**
+	 * Check that each scenario of a batch, and each scenario allocated on its
+	 * own, is allocated the same routes as by Allocator.allocate.
+	 */
+	@Test
+	public void testMatchesAllocate() {
+		Section[] line = TrainRoutes.line(400);
+		Track track = new Track();
+		for (Section section : line) {
+			track.addSection(section);
+		}
+		BatchAllocator batch = new BatchAllocator(track.freeze());
+		List<List<List<Segment>>> occupied =
+				new ArrayList<List<List<Segment>>>();
+		List<List<List<Segment>>> requested =
+				new ArrayList<List<List<Segment>>>();
+		for (int scenario = 0; scenario < 200; scenario++) {
+			Random random = new Random(scenario);
+			List<List<Segment>> scenarioOccupied =
+					new ArrayList<List<Segment>>();
+			List<List<Segment>> scenarioRequested =
+					new ArrayList<List<Segment>>();
+			TrainRoutes.scenario(random, line, 1 + random.nextInt(80),
+					scenarioOccupied, scenarioRequested);
+			occupied.add(scenarioOccupied);
+			requested.add(scenarioRequested);
+		}
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			List<List<List<Segment>>> results =
+					batch.allocate(occupied, requested, pool);
+			Assert.assertEquals(occupied.size(), results.size());
+			for (int scenario = 0; scenario < occupied.size(); scenario++) {
+				List<List<Segment>> expected = Allocator.allocate(
+						occupied.get(scenario), requested.get(scenario));
+				Assert.assertEquals(expected, results.get(scenario));
+				Assert.assertEquals(expected, batch.allocate(
+						occupied.get(scenario), requested.get(scenario)));
+			}
+		} finally {
+			pool.shutdown();
+		}
+		Assert.assertTrue(batch.checkInvariant());
+	}
+
+	/**
+	 * Check that a segment that is not on the track of the allocator is
+	 * rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testSegmentNotOnTrack() {
+		Section[] line = TrainRoutes.line(3);
+		Track track = new Track();
+		track.addSection(line[0]);
+		BatchAllocator batch = new BatchAllocator(track.freeze());
+		List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+		occupied.add(TrainRoutes.occupied(line, 2, 5));
+		List<List<Segment>> requested = new ArrayList<List<Segment>>();
+		requested.add(TrainRoutes.requested(line, 2, 5, 1, false));
+		batch.allocate(occupied, requested);
+	}
+
+}
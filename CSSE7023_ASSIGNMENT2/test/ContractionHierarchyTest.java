@@ -0,0 +1,215 @@
+package railway.test;
+
+import railway.*;
+
+import java.util.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Randomised tests for the {@link ContractionHierarchy} class, which compare
+ * the routes it finds with the routes found by {@link RoutePlanner}.
+ */
+public class ContractionHierarchyTest {
+
+	/**
+	 * Check that the routes found on random tracks are valid routes with the
+	 * same length as the routes found by RoutePlanner.
+	 */
+	@Test
+	public void testRoutesMatchRoutePlanner() {
+		Random random = new Random(11);
+		for (int trial = 0; trial < 200; trial++) {
+			Track track = randomTrack(random, 2 + random.nextInt(12),
+					1 + random.nextInt(20));
+			ContractionHierarchy hierarchy =
+					new ContractionHierarchy(track.freeze());
+			Assert.assertTrue(hierarchy.checkInvariant());
+			compare(random, track, hierarchy, 50);
+		}
+	}
+
+	/**
+	 * Check that the hierarchy still finds the same routes as RoutePlanner
+	 * after sections have been added to and removed from the track.
+	 */
+	@Test
+	public void testRoutesMatchAfterEdits() {
+		Random random = new Random(12);
+		for (int trial = 0; trial < 100; trial++) {
+			Track track = randomTrack(random, 2 + random.nextInt(12),
+					1 + random.nextInt(20));
+			ContractionHierarchy hierarchy =
+					new ContractionHierarchy(track.freeze());
+			track.addListener(hierarchy);
+			for (int step = 0; step < 20; step++) {
+				List<Section> sections = new ArrayList<Section>();
+				for (Section section : track) {
+					sections.add(section);
+				}
+				if (!sections.isEmpty() && random.nextBoolean()) {
+					track.removeSection(sections.get(random.nextInt(sections
+							.size())));
+				} else {
+					// a new section, possibly to a new junction
+					JunctionBranch endPoint1 = randomEndPoint(random, 16);
+					JunctionBranch endPoint2 = randomEndPoint(random, 16);
+					if (endPoint1.equals(endPoint2)
+							|| connected(track, endPoint1)
+							|| connected(track, endPoint2)) {
+						continue;
+					}
+					track.addSection(new Section(1 + random.nextInt(9),
+							endPoint1, endPoint2));
+				}
+				Assert.assertTrue(hierarchy.checkInvariant());
+				compare(random, track, hierarchy, 30);
+			}
+		}
+	}
+
+	/**
+	 * Check that there is no route to a section that cannot be reached.
+	 */
+	@Test
+	public void testNoRoute() {
+		Junction j0 = new Junction("j0");
+		Junction j1 = new Junction("j1");
+		Junction j2 = new Junction("j2");
+		Junction j3 = new Junction("j3");
+		Section section1 = new Section(9, new JunctionBranch(j0,
+				Branch.FACING), new JunctionBranch(j1, Branch.NORMAL));
+		Section section2 = new Section(5, new JunctionBranch(j2,
+				Branch.FACING), new JunctionBranch(j3, Branch.NORMAL));
+		Track track = new Track();
+		track.addSection(section1);
+		track.addSection(section2);
+		ContractionHierarchy hierarchy =
+				new ContractionHierarchy(track.freeze());
+		Location origin = new Location(section1, new JunctionBranch(j0,
+				Branch.FACING), 2);
+		Location destination = new Location(section2, new JunctionBranch(j2,
+				Branch.FACING), 3);
+		Assert.assertNull(hierarchy.route(origin, destination));
+		Assert.assertEquals(new ArrayList<Segment>(),
+				hierarchy.route(origin, origin));
+	}
+
+	/**
+	 * Compares the routes between random locations on the track found by
+	 * the hierarchy and by a RoutePlanner for the track.
+	 */
+	private static void compare(Random random, Track track,
+			ContractionHierarchy hierarchy, int queries) {
+		TrackGraph graph = track.freeze();
+		if (graph.sectionCount() == 0) {
+			return;
+		}
+		RoutePlanner planner = new RoutePlanner(graph);
+		for (int query = 0; query < queries; query++) {
+			Location origin = randomLocation(random, graph);
+			Location destination = randomLocation(random, graph);
+			List<Segment> expected = planner.route(origin, destination);
+			List<Segment> actual = hierarchy.route(origin, destination);
+			if (expected == null) {
+				Assert.assertNull(actual);
+			} else {
+				Assert.assertNotNull(actual);
+				Assert.assertEquals(length(expected), length(actual));
+				checkRoute(actual, origin, destination);
+			}
+		}
+	}
+
+	/**
+	 * Checks that the route is a contiguous route from the origin to the
+	 * destination that obeys the junction traversal rule.
+	 */
+	private static void checkRoute(List<Segment> route, Location origin,
+			Location destination) {
+		if (route.isEmpty()) {
+			Assert.assertEquals(origin, destination);
+			return;
+		}
+		Assert.assertEquals(origin, route.get(0).getFirstLocation());
+		Assert.assertEquals(destination, route.get(route.size() - 1)
+				.getLastLocation());
+		for (int i = 1; i < route.size(); i++) {
+			Segment previous = route.get(i - 1);
+			Segment segment = route.get(i);
+			Assert.assertEquals(previous.getSection().getLength(),
+					previous.getEndOffset());
+			Assert.assertEquals(0, segment.getStartOffset());
+			Assert.assertEquals(previous.getApproachingEndPoint()
+					.getJunction(), segment.getDepartingEndPoint()
+					.getJunction());
+			Assert.assertTrue((previous.getApproachingEndPoint().getBranch()
+					== Branch.FACING) != (segment.getDepartingEndPoint()
+					.getBranch() == Branch.FACING));
+		}
+	}
+
+	/**
+	 * Returns the total length of the segments of the route.
+	 */
+	private static long length(List<Segment> route) {
+		long length = 0;
+		for (Segment segment : route) {
+			length += segment.getEndOffset() - segment.getStartOffset();
+		}
+		return length;
+	}
+
+	/**
+	 * Returns a track with the given number of junctions and at most the
+	 * given number of sections, that joins random pairs of end-points.
+	 */
+	private static Track randomTrack(Random random, int junctions,
+			int sections) {
+		List<JunctionBranch> endPoints = new ArrayList<JunctionBranch>();
+		for (int j = 0; j < junctions; j++) {
+			Junction junction = new Junction("j" + j);
+			for (Branch branch : Branch.values()) {
+				endPoints.add(JunctionBranch.of(junction, branch));
+			}
+		}
+		Collections.shuffle(endPoints, random);
+		Track track = new Track();
+		for (int i = 0; i + 1 < endPoints.size() && i / 2 < sections; i += 2) {
+			track.addSection(new Section(1 + random.nextInt(9), endPoints
+					.get(i), endPoints.get(i + 1)));
+		}
+		return track;
+	}
+
+	/**
+	 * Returns a random end-point of one of the given number of junctions.
+	 */
+	private static JunctionBranch randomEndPoint(Random random,
+			int junctions) {
+		return new JunctionBranch(new Junction("j"
+				+ random.nextInt(junctions)), Branch.values()[random
+				.nextInt(3)]);
+	}
+
+	/**
+	 * Returns true if a section of the track is connected to the end-point.
+	 */
+	private static boolean connected(Track track, JunctionBranch endPoint) {
+		return track.getTrackSection(endPoint.getJunction(),
+				endPoint.getBranch()) != null;
+	}
+
+	/**
+	 * Returns a random location on a section of the graph.
+	 */
+	private static Location randomLocation(Random random, TrackGraph graph) {
+		Section section = graph.getSection(random.nextInt(graph
+				.sectionCount()));
+		List<JunctionBranch> endPoints = new ArrayList<JunctionBranch>(
+				section.getEndPoints());
+		return new Location(section, endPoints.get(random.nextInt(2)),
+				random.nextInt(section.getLength()));
+	}
+
+}
@@ -0,0 +1,94 @@
+package railway.test;
+
+import railway.*;
+
+import java.util.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Randomised tests for the {@link IncrementalAllocator} class, which compare
+ * its allocations with those of Allocator.allocate after each update.
+ */
+public class IncrementalAllocatorTest {
+
+	/**
+	 * Check that the allocations match Allocator.allocate after each update,
+	 * over many ticks in which trains move forward within their sections,
+	 * move to other sections, and change their requested routes.
+	 */
+	@Test
+	public void testRandomUpdates() {
+		for (int seed = 0; seed < 10; seed++) {
+			Random random = new Random(seed);
+			Section[] line = TrainRoutes.line(12 + 4 * seed);
+			List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+			List<List<Segment>> requested = new ArrayList<List<Segment>>();
+			int[] starts = TrainRoutes.scenario(random, line,
+					2 + random.nextInt(line.length / 2), occupied, requested);
+			int[] offsets = new int[starts.length];
+			// whether a train is on each section
+			boolean[] used = new boolean[line.length];
+			for (int t = 0; t < starts.length; t++) {
+				offsets[t] = occupied.get(t).get(0).getEndOffset();
+				used[starts[t]] = true;
+			}
+			IncrementalAllocator allocator = new IncrementalAllocator(
+					occupied, requested);
+			Assert.assertEquals(starts.length, allocator.size());
+			for (int tick = 0; tick < 300; tick++) {
+				Assert.assertEquals(Allocator.allocate(occupied, requested),
+						allocator.getAllocations());
+				Assert.assertTrue(allocator.checkInvariant());
+				int t = random.nextInt(starts.length);
+				int move = random.nextInt(4);
+				if (move == 0 && !allocator.getAllocation(t).isEmpty()) {
+					// the train moves forward within its section
+					offsets[t] = Math.min(offsets[t] + 1 + random.nextInt(3),
+							9);
+				} else if (move == 1) {
+					// the train moves to a section that no train is on
+					int section = random.nextInt(line.length);
+					if (!used[section]) {
+						used[starts[t]] = false;
+						used[section] = true;
+						starts[t] = section;
+						offsets[t] = 2 + random.nextInt(7);
+					}
+				}
+				if (move <= 1) {
+					List<Segment> route = TrainRoutes.occupied(line,
+							starts[t], offsets[t]);
+					occupied.set(t, route);
+					allocator.setOccupied(t, route);
+					Assert.assertEquals(Allocator.allocate(occupied,
+							requested), allocator.getAllocations());
+				}
+				List<Segment> route = TrainRoutes.requested(line, starts[t],
+						offsets[t], 1 + random.nextInt(6),
+						random.nextBoolean());
+				requested.set(t, route);
+				allocator.setRequested(t, route);
+			}
+		}
+	}
+
+	/**
+	 * Check that each allocation returned by getAllocation is the matching
+	 * element of getAllocations.
+	 */
+	@Test
+	public void testGetAllocation() {
+		Section[] line = TrainRoutes.line(20);
+		List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+		List<List<Segment>> requested = new ArrayList<List<Segment>>();
+		TrainRoutes.scenario(new Random(4), line, 8, occupied, requested);
+		IncrementalAllocator allocator = new IncrementalAllocator(occupied,
+				requested);
+		List<List<Segment>> allocations = allocator.getAllocations();
+		for (int t = 0; t < allocator.size(); t++) {
+			Assert.assertEquals(allocations.get(t), allocator.getAllocation(t));
+		}
+	}
+
+}
@@ -0,0 +1,142 @@
+package railway.test;
+
+import railway.*;
+
+import java.util.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link JunctionReservationTable} class.
+ */
+public class JunctionReservationTableTest {
+
+	/**
+	 * Check that a junction occupied by another train blocks a train, and
+	 * that a junction allocated to another train only blocks trains with
+	 * higher indices.
+	 */
+	@Test
+	public void testBlocks() {
+		JunctionReservationTable table = new JunctionReservationTable();
+		Junction a = new Junction("a");
+		Junction b = new Junction("b");
+		table.reserve(a, 2, false);
+		table.reserve(b, 2, true);
+
+		Assert.assertFalse(table.blocks(a, 2));
+		Assert.assertTrue(table.blocks(a, 0));
+		Assert.assertTrue(table.blocks(a, 5));
+		Assert.assertFalse(table.blocks(b, 2));
+		Assert.assertFalse(table.blocks(b, 0));
+		Assert.assertTrue(table.blocks(b, 3));
+		// a junction that has never been reserved
+		Assert.assertFalse(table.blocks(new Junction("c"), 0));
+
+		// a train is blocked by another occupant, even if it occupies the
+		// junction too
+		table.reserve(a, 4, false);
+		Assert.assertTrue(table.blocks(a, 2));
+		Assert.assertTrue(table.blocks(a, 4));
+		// a train is not blocked by its own allocation, but is blocked by the
+		// allocation of a train with a lower index
+		table.reserve(b, 1, true);
+		Assert.assertTrue(table.blocks(b, 2));
+		Assert.assertFalse(table.blocks(b, 1));
+		Assert.assertTrue(table.checkInvariant());
+	}
+
+	/**
+	 * Check that a junction reserved more than once by a train is held until
+	 * each of the reservations has been released, and that releasing a
+	 * reservation that does not exist has no effect.
+	 */
+	@Test
+	public void testReserveAndRelease() {
+		JunctionReservationTable table = new JunctionReservationTable();
+		Junction a = new Junction("a");
+		table.reserve(a, 3, false);
+		table.reserve(a, 3, false);
+		table.reserve(a, 1, true);
+
+		// the reservation was not granted, or was made by another train
+		table.release(a, 3, true);
+		table.release(a, 2, false);
+		table.release(new Junction("b"), 3, false);
+		Assert.assertEquals(trains(1, 3), table.getTrains(a));
+
+		table.release(a, 3, false);
+		Assert.assertTrue(table.blocks(a, 0));
+		Assert.assertEquals(trains(1, 3), table.getTrains(a));
+		table.release(a, 3, false);
+		Assert.assertFalse(table.blocks(a, 0));
+		Assert.assertTrue(table.blocks(a, 3));
+		Assert.assertEquals(trains(1), table.getTrains(a));
+		table.release(a, 1, true);
+		Assert.assertFalse(table.blocks(a, 3));
+		Assert.assertEquals(trains(), table.getTrains(a));
+		Assert.assertTrue(table.checkInvariant());
+	}
+
+	/**
+	 * Check that the holder of a junction is the occupant with the lowest
+	 * index if there is one, and otherwise the train with the lowest index
+	 * that has been allocated the junction.
+	 */
+	@Test
+	public void testGetHolder() {
+		JunctionReservationTable table = new JunctionReservationTable();
+		Junction a = new Junction("a");
+		Assert.assertEquals(-1, table.getHolder(a));
+		table.reserve(a, 4, true);
+		table.reserve(a, 2, true);
+		Assert.assertEquals(2, table.getHolder(a));
+		table.reserve(a, 7, false);
+		table.reserve(a, 5, false);
+		Assert.assertEquals(5, table.getHolder(a));
+		table.release(a, 5, false);
+		table.release(a, 7, false);
+		Assert.assertEquals(2, table.getHolder(a));
+		table.release(a, 2, true);
+		table.release(a, 4, true);
+		Assert.assertEquals(-1, table.getHolder(a));
+	}
+
+	/**
+	 * Check that a cleared table holds no junctions, and that it can be
+	 * reused for more junctions than its initial capacity.
+	 */
+	@Test
+	public void testClear() {
+		JunctionReservationTable table = new JunctionReservationTable();
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 40; i++) {
+				table.reserve(new Junction("j" + i), i % 5, i % 2 == 0);
+			}
+			Assert.assertTrue(table.checkInvariant());
+			Assert.assertEquals(trains(2), table.getTrains(new Junction(
+					"j37")));
+			Assert.assertTrue(table.blocks(new Junction("j37"), 0));
+			table.clear();
+			Assert.assertTrue(table.checkInvariant());
+			for (int i = 0; i < 40; i++) {
+				Junction junction = new Junction("j" + i);
+				Assert.assertEquals(trains(), table.getTrains(junction));
+				Assert.assertEquals(-1, table.getHolder(junction));
+				Assert.assertFalse(table.blocks(junction, 4));
+			}
+		}
+	}
+
+	/**
+	 * Returns a set of the given trains.
+	 */
+	private static SortedSet<Integer> trains(int... trains) {
+		SortedSet<Integer> result = new TreeSet<Integer>();
+		for (int train : trains) {
+			result.add(train);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,189 @@
+package railway.test;
+
+import railway.*;
+
+import java.util.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link LookAheadAllocator} class.
+ *
+ * Most of the tests use a track of four sections: a line from the end of
+ * line y through the passing point p and the through junction x to the end
+ * of line q, and a siding from the REVERSE branch of p to the end of line l.
+ */
+public class LookAheadAllocatorTest {
+
+	// y to p
+	private static final Section YP = new Section(10, endPoint("y",
+			Branch.FACING), endPoint("p", Branch.NORMAL));
+	// p to x
+	private static final Section PX = new Section(10, endPoint("p",
+			Branch.FACING), endPoint("x", Branch.NORMAL));
+	// x to q
+	private static final Section XQ = new Section(10, endPoint("x",
+			Branch.FACING), endPoint("q", Branch.NORMAL));
+	// the siding from p to l
+	private static final Section PL = new Section(10, endPoint("p",
+			Branch.REVERSE), endPoint("l", Branch.FACING));
+
+	/**
+	 * Check that the track is divided into runs at the passing point and the
+	 * ends of the lines, but not at the through junction.
+	 */
+	@Test
+	public void testRuns() {
+		LookAheadAllocator allocator = new LookAheadAllocator(track());
+		Assert.assertEquals(3, allocator.getRunCount());
+		Assert.assertTrue(allocator.checkInvariant());
+	}
+
+	/**
+	 * Check that a train that would stop in the run from p to q, facing a
+	 * train in the run that is heading for the siding, waits clear of p, so
+	 * that the other train can leave the run through p. (When the waiting
+	 * train was allowed to stop at p, neither train could move again.)
+	 */
+	@Test
+	public void testNoStandoffAtPassingPoint() {
+		LookAheadAllocator allocator = new LookAheadAllocator(track());
+		List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+		List<List<Segment>> requested = new ArrayList<List<Segment>>();
+		// train 0 is leaving y, heading for q
+		occupied.add(Arrays.asList(new Segment(YP, endPoint("y",
+				Branch.FACING), 0, 2)));
+		requested.add(Arrays.asList(
+				new Segment(YP, endPoint("y", Branch.FACING), 2, 10),
+				new Segment(PX, endPoint("p", Branch.FACING), 0, 10),
+				new Segment(XQ, endPoint("x", Branch.FACING), 0, 10)));
+		// train 1 is in the run, heading through p into the siding
+		occupied.add(Arrays.asList(new Segment(PX, endPoint("x",
+				Branch.NORMAL), 0, 2)));
+		requested.add(Arrays.asList(
+				new Segment(PX, endPoint("x", Branch.NORMAL), 2, 10),
+				new Segment(PL, endPoint("p", Branch.REVERSE), 0, 10)));
+
+		List<List<Segment>> allocated = allocator.allocate(occupied,
+				requested);
+		Assert.assertEquals(Arrays.asList(new Segment(YP, endPoint("y",
+				Branch.FACING), 2, 9)), allocated.get(0));
+		Assert.assertEquals(requested.get(1), allocated.get(1));
+
+		// train 0 waits before p, and train 1 has entered the siding
+		occupied.set(0, Arrays.asList(new Segment(YP, endPoint("y",
+				Branch.FACING), 7, 9)));
+		requested.set(0, Arrays.asList(
+				new Segment(YP, endPoint("y", Branch.FACING), 9, 10),
+				new Segment(PX, endPoint("p", Branch.FACING), 0, 10),
+				new Segment(XQ, endPoint("x", Branch.FACING), 0, 10)));
+		occupied.set(1, Arrays.asList(new Segment(PL, endPoint("p",
+				Branch.REVERSE), 8, 10)));
+		requested.set(1, Arrays.asList(new Segment(PL, endPoint("p",
+				Branch.REVERSE), 10, 10)));
+
+		allocated = allocator.allocate(occupied, requested);
+		Assert.assertEquals(requested.get(0), allocated.get(0));
+		Assert.assertEquals(requested.get(1), allocated.get(1));
+		Assert.assertTrue(allocator.checkInvariant());
+	}
+
+	/**
+	 * Check that a train in the run is never held back by a train that is
+	 * waiting to enter the run at the junction it is heading for, even when
+	 * the waiting train has a higher priority.
+	 */
+	@Test
+	public void testTrainInRunLeavesPastWaitingTrain() {
+		LookAheadAllocator allocator = new LookAheadAllocator(track());
+		List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+		List<List<Segment>> requested = new ArrayList<List<Segment>>();
+		occupied.add(Arrays.asList(new Segment(YP, endPoint("y",
+				Branch.FACING), 7, 9)));
+		requested.add(Arrays.asList(
+				new Segment(YP, endPoint("y", Branch.FACING), 9, 10),
+				new Segment(PX, endPoint("p", Branch.FACING), 0, 10)));
+		occupied.add(Arrays.asList(new Segment(PX, endPoint("x",
+				Branch.NORMAL), 5, 7)));
+		requested.add(Arrays.asList(
+				new Segment(PX, endPoint("x", Branch.NORMAL), 7, 10),
+				new Segment(PL, endPoint("p", Branch.REVERSE), 0, 10)));
+
+		List<List<Segment>> allocated = allocator.allocate(occupied,
+				requested);
+		Assert.assertEquals(Arrays.asList(new Segment(YP, endPoint("y",
+				Branch.FACING), 9, 9)), allocated.get(0));
+		Assert.assertEquals(requested.get(1), allocated.get(1));
+	}
+
+	/**
+	 * Check that trains that all travel in the same direction are allocated
+	 * the same routes as by Allocator.allocate, and that the routes allocated
+	 * to trains travelling in both directions are prefixes of the requested
+	 * routes.
+	 */
+	@Test
+	public void testMatchesAllocate() {
+		Section[] line = TrainRoutes.line(40);
+		Track track = new Track();
+		for (Section section : line) {
+			track.addSection(section);
+		}
+		LookAheadAllocator allocator = new LookAheadAllocator(track.freeze());
+		for (int round = 0; round < 200; round++) {
+			Random random = new Random(round);
+			List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+			List<List<Segment>> requested = new ArrayList<List<Segment>>();
+			int[] starts = TrainRoutes.scenario(random, line,
+					1 + random.nextInt(10), occupied, requested);
+			for (int t = 0; t < starts.length; t++) {
+				int offset = occupied.get(t).get(0).getEndOffset();
+				requested.set(t, TrainRoutes.requested(line, starts[t], offset,
+						requested.get(t).size(), false));
+			}
+			Assert.assertEquals(Allocator.allocate(occupied, requested),
+					allocator.allocate(occupied, requested));
+
+			for (int t = 0; t < starts.length; t++) {
+				int offset = occupied.get(t).get(0).getEndOffset();
+				requested.set(t, TrainRoutes.requested(line, starts[t], offset,
+						1 + random.nextInt(8), random.nextBoolean()));
+			}
+			List<List<Segment>> allocated = allocator.allocate(occupied,
+					requested);
+			for (int t = 0; t < starts.length; t++) {
+				List<Segment> route = allocated.get(t);
+				List<Segment> request = requested.get(t);
+				Assert.assertTrue(route.size() <= request.size());
+				for (int m = 0; m < route.size(); m++) {
+					Assert.assertEquals(request.get(m).getStartOffset(),
+							route.get(m).getStartOffset());
+					Assert.assertTrue(route.get(m).getEndOffset() <= request
+							.get(m).getEndOffset());
+				}
+			}
+		}
+		Assert.assertTrue(allocator.checkInvariant());
+	}
+
+	/**
+	 * Returns the track of four sections used by the tests.
+	 */
+	private static TrackGraph track() {
+		Track track = new Track();
+		track.addSection(YP);
+		track.addSection(PX);
+		track.addSection(XQ);
+		track.addSection(PL);
+		return track.freeze();
+	}
+
+	/**
+	 * Returns the end-point on the given branch of the junction with the
+	 * given name.
+	 */
+	private static JunctionBranch endPoint(String junction, Branch branch) {
+		return new JunctionBranch(new Junction(junction), branch);
+	}
+
+}
@@ -0,0 +1,56 @@
+package railway.test;
+
+import railway.*;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Randomised tests for Allocator.allocateParallel, which compare its
+ * allocations with those of Allocator.allocate.
+ */
+public class ParallelAllocatorTest {
+
+	/**
+	 * Check that allocateParallel matches allocate for scenarios with few and
+	 * many trains, and with trains spread out or crowded together.
+	 */
+	@Test
+	public void testMatchesAllocate() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (int round = 0; round < 100; round++) {
+				Random random = new Random(round);
+				// a short line crowds the trains into large groups
+				Section[] line = TrainRoutes.line((round % 5 == 0) ? 400
+						: 3000);
+				List<List<Segment>> occupied = new ArrayList<List<Segment>>();
+				List<List<Segment>> requested = new ArrayList<List<Segment>>();
+				TrainRoutes.scenario(random, line, 1 + random.nextInt(300),
+						occupied, requested);
+				Assert.assertEquals(Allocator.allocate(occupied, requested),
+						Allocator.allocateParallel(occupied, requested, pool));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Check that allocateParallel handles no trains.
+	 */
+	@Test
+	public void testNoTrains() {
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			List<List<Segment>> none = new ArrayList<List<Segment>>();
+			Assert.assertEquals(new ArrayList<List<Segment>>(),
+					Allocator.allocateParallel(none, none, pool));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+package railway.test;
+
+import railway.*;
+
+import java.util.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link RouteCache} class, and its invalidation when the track
+ * is edited.
+ *
+ * The track is a line of two sections from junction a through junction b to
+ * junction c: section ab from the FACING branch of a to the NORMAL branch of
+ * b, and section bc from the FACING branch of b to the NORMAL branch of c.
+ */
+public class RouteCacheTest {
+
+	private static final JunctionBranch A_FACING = endPoint("a",
+			Branch.FACING);
+	private static final JunctionBranch B_NORMAL = endPoint("b",
+			Branch.NORMAL);
+	private static final JunctionBranch B_FACING = endPoint("b",
+			Branch.FACING);
+	private static final JunctionBranch C_NORMAL = endPoint("c",
+			Branch.NORMAL);
+
+	/**
+	 * Check that a route is answered from the cache the second time it is
+	 * asked for, and that the hits and misses are counted.
+	 */
+	@Test
+	public void testHitsAndMisses() {
+		Track track = track();
+		RouteCache cache = new RouteCache(new ContractionHierarchy(track), 2);
+		Section ab = track.getTrackSection(new Junction("a"), Branch.FACING);
+		Location origin = new Location(ab, A_FACING, 2);
+		Location destination = new Location(ab, A_FACING, 7);
+
+		List<Segment> route = cache.route(origin, destination);
+		Assert.assertEquals(Arrays.asList(new Segment(ab, A_FACING, 2, 7)),
+				route);
+		Assert.assertEquals(0, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+		// the same locations, described from the other end of the section
+		Assert.assertSame(route, cache.route(new Location(ab, B_NORMAL, 8),
+				new Location(ab, B_NORMAL, 3)));
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+
+		// the least recently used route is evicted from a full cache
+		cache.route(origin, new Location(ab, A_FACING, 8));
+		cache.route(origin, destination);
+		cache.route(origin, new Location(ab, A_FACING, 9));
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(2, cache.getHits());
+		cache.route(origin, new Location(ab, A_FACING, 8));
+		Assert.assertEquals(2, cache.getHits());
+		Assert.assertEquals(4, cache.getMisses());
+		Assert.assertTrue(cache.checkInvariant());
+	}
+
+	/**
+	 * Check that removing a section evicts exactly the routes that use it.
+	 */
+	@Test
+	public void testSectionRemoved() {
+		Track track = track();
+		RouteCache cache = new RouteCache(new ContractionHierarchy(track), 8);
+		track.addListener(cache);
+		Section ab = track.getTrackSection(new Junction("a"), Branch.FACING);
+		Section bc = track.getTrackSection(new Junction("b"), Branch.FACING);
+		Location origin = new Location(ab, A_FACING, 2);
+		Location onAb = new Location(ab, A_FACING, 7);
+		Location onBc = new Location(bc, B_FACING, 5);
+		Assert.assertEquals(Arrays.asList(new Segment(ab, A_FACING, 2, 10),
+				new Segment(bc, B_FACING, 0, 5)), cache.route(origin, onBc));
+		cache.route(origin, onAb);
+		Assert.assertEquals(2, cache.size());
+
+		track.removeSection(bc);
+		Assert.assertEquals(1, cache.size());
+		Assert.assertTrue(cache.checkInvariant());
+		cache.route(origin, onAb);
+		Assert.assertEquals(1, cache.getHits());
+		try {
+			cache.route(origin, onBc);
+			Assert.fail("The destination is no longer on the track.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Check that an empty route, from a junction to itself, is evicted when
+	 * the section of its origin is removed, and that it is not returned for
+	 * an equal location on a section that has been removed.
+	 */
+	@Test
+	public void testEmptyRouteEvicted() {
+		Track track = track();
+		RouteCache cache = new RouteCache(new ContractionHierarchy(track), 8);
+		track.addListener(cache);
+		Section ab = track.getTrackSection(new Junction("a"), Branch.FACING);
+		Section bc = track.getTrackSection(new Junction("b"), Branch.FACING);
+		// junction b, on each of its sections
+		Location onAb = new Location(ab, B_NORMAL, 0);
+		Location onBc = new Location(bc, B_FACING, 0);
+		Assert.assertEquals(onAb, onBc);
+
+		Assert.assertEquals(new ArrayList<Segment>(), cache.route(onBc,
+				onBc));
+		Assert.assertEquals(1, cache.size());
+		Assert.assertTrue(cache.checkInvariant());
+		track.removeSection(ab);
+		try {
+			cache.route(onAb, onAb);
+			Assert.fail("The section of the origin is no longer on the track.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		Assert.assertEquals(new ArrayList<Segment>(), cache.route(onBc,
+				onBc));
+		Assert.assertEquals(1, cache.getHits());
+
+		track.removeSection(bc);
+		Assert.assertEquals(0, cache.size());
+		Assert.assertTrue(cache.checkInvariant());
+		try {
+			cache.route(onBc, onBc);
+			Assert.fail("The section of the origin is no longer on the track.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Check that adding a section evicts all of the routes, so that a shorter
+	 * route through the new section is found.
+	 */
+	@Test
+	public void testSectionAdded() {
+		Track track = track();
+		RouteCache cache = new RouteCache(new ContractionHierarchy(track), 8);
+		track.addListener(cache);
+		Section ab = track.getTrackSection(new Junction("a"), Branch.FACING);
+		Section bc = track.getTrackSection(new Junction("b"), Branch.FACING);
+		// junctions a and c
+		Location origin = new Location(ab, A_FACING, 0);
+		Location destination = new Location(bc, C_NORMAL, 0);
+		Assert.assertEquals(Arrays.asList(new Segment(ab, A_FACING, 0, 10),
+				new Segment(bc, B_FACING, 0, 10)), cache.route(origin,
+				destination));
+		cache.route(new Location(ab, A_FACING, 3), origin);
+
+		Section shortcut = new Section(5, endPoint("a", Branch.NORMAL),
+				endPoint("c", Branch.FACING));
+		track.addSection(shortcut);
+		Assert.assertEquals(0, cache.size());
+		Assert.assertTrue(cache.checkInvariant());
+		Assert.assertEquals(Arrays.asList(new Segment(shortcut, endPoint("a",
+				Branch.NORMAL), 0, 5)), cache.route(origin, destination));
+		Assert.assertEquals(0, cache.getHits());
+		Assert.assertEquals(3, cache.getMisses());
+	}
+
+	/**
+	 * Returns the track of two sections used by the tests.
+	 */
+	private static Track track() {
+		Track track = new Track();
+		track.addSection(new Section(10, A_FACING, B_NORMAL));
+		track.addSection(new Section(10, B_FACING, C_NORMAL));
+		return track;
+	}
+
+	/**
+	 * Returns the end-point on the given branch of the junction with the
+	 * given name.
+	 */
+	private static JunctionBranch endPoint(String junction, Branch branch) {
+		return new JunctionBranch(new Junction(junction), branch);
+	}
+
+}
@@ -0,0 +1,179 @@
+package railway.test;
+
+import railway.*;
+
+import java.util.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link RoutePlanner} class on a small hand-built track.
+ *
+ * The track is a loop b - c - d - b with a spur from b to a: section ab (of
+ * length 10) from the FACING branch of a to the NORMAL branch of b, section
+ * bc (30) from the FACING branch of b to the NORMAL branch of c, section cd
+ * (20) from the FACING branch of c to the NORMAL branch of d, and section db
+ * (3) from the FACING branch of d to the REVERSE branch of b. A train on ab
+ * cannot turn from it onto db at b, since it would enter b on its NORMAL
+ * branch and leave it on its REVERSE branch.
+ */
+public class RoutePlannerTest {
+
+	private static final JunctionBranch A_FACING = endPoint("a",
+			Branch.FACING);
+	private static final JunctionBranch B_NORMAL = endPoint("b",
+			Branch.NORMAL);
+	private static final JunctionBranch B_FACING = endPoint("b",
+			Branch.FACING);
+	private static final JunctionBranch B_REVERSE = endPoint("b",
+			Branch.REVERSE);
+	private static final JunctionBranch C_NORMAL = endPoint("c",
+			Branch.NORMAL);
+	private static final JunctionBranch C_FACING = endPoint("c",
+			Branch.FACING);
+	private static final JunctionBranch D_NORMAL = endPoint("d",
+			Branch.NORMAL);
+	private static final JunctionBranch D_FACING = endPoint("d",
+			Branch.FACING);
+
+	private static final Section AB = new Section(10, A_FACING, B_NORMAL);
+	private static final Section BC = new Section(30, B_FACING, C_NORMAL);
+	private static final Section CD = new Section(20, C_FACING, D_NORMAL);
+	private static final Section DB = new Section(3, D_FACING, B_REVERSE);
+
+	/**
+	 * Check the routes between locations on the same section, in both
+	 * directions.
+	 */
+	@Test
+	public void testSameSection() {
+		RoutePlanner planner = new RoutePlanner(track().freeze());
+		Assert.assertEquals(Arrays.asList(new Segment(AB, A_FACING, 2, 7)),
+				planner.route(new Location(AB, A_FACING, 2), new Location(AB,
+						A_FACING, 7)));
+		Assert.assertEquals(Arrays.asList(new Segment(AB, B_NORMAL, 3, 8)),
+				planner.route(new Location(AB, A_FACING, 7), new Location(AB,
+						B_NORMAL, 8)));
+		// the same location, described from each end of the section
+		Assert.assertEquals(new ArrayList<Segment>(), planner.route(
+				new Location(AB, A_FACING, 4), new Location(AB, B_NORMAL, 6)));
+		Assert.assertTrue(planner.checkInvariant());
+	}
+
+	/**
+	 * Check the shortest routes between locations on different sections,
+	 * where the shortest route follows the junction traversal rule.
+	 */
+	@Test
+	public void testShortestRoutes() {
+		RoutePlanner planner = new RoutePlanner(track().freeze());
+		// from ab to db the train must go around the loop, since it cannot
+		// turn from the NORMAL branch of b to its REVERSE branch
+		Assert.assertEquals(Arrays.asList(new Segment(AB, A_FACING, 5, 10),
+				new Segment(BC, B_FACING, 0, 30), new Segment(CD, C_FACING, 0,
+						20), new Segment(DB, D_FACING, 0, 2)), planner.route(
+				new Location(AB, A_FACING, 5), new Location(DB, B_REVERSE, 1)));
+		// from bc to db through b (3) rather than around the loop (30)
+		Assert.assertEquals(Arrays.asList(new Segment(BC, C_NORMAL, 28, 30),
+				new Segment(DB, B_REVERSE, 0, 1)), planner.route(new Location(
+				BC, B_FACING, 2), new Location(DB, B_REVERSE, 1)));
+		// from db to ab the train must go around the loop, to enter b on its
+		// FACING branch
+		Assert.assertEquals(Arrays.asList(new Segment(DB, B_REVERSE, 1, 3),
+				new Segment(CD, D_NORMAL, 0, 20), new Segment(BC, C_NORMAL, 0,
+						30), new Segment(AB, B_NORMAL, 0, 6)), planner.route(
+				new Location(DB, B_REVERSE, 1), new Location(AB, A_FACING, 4)));
+		Assert.assertTrue(planner.checkInvariant());
+	}
+
+	/**
+	 * Check the routes from and to locations at junctions, which may leave
+	 * or enter the junction on any branch.
+	 */
+	@Test
+	public void testJunctions() {
+		RoutePlanner planner = new RoutePlanner(track().freeze());
+		// from c to b around the loop (23) rather than along bc (30)
+		Assert.assertEquals(Arrays.asList(new Segment(CD, C_FACING, 0, 20),
+				new Segment(DB, D_FACING, 0, 3)), planner.route(new Location(
+				BC, C_NORMAL, 0), new Location(AB, B_NORMAL, 0)));
+		// from b, leaving it on its NORMAL branch
+		Assert.assertEquals(Arrays.asList(new Segment(AB, B_NORMAL, 0, 10)),
+				planner.route(new Location(DB, B_REVERSE, 0), new Location(AB,
+						A_FACING, 0)));
+		// to c, from a location on db (through d)
+		Assert.assertEquals(Arrays.asList(new Segment(DB, B_REVERSE, 1, 3),
+				new Segment(CD, D_NORMAL, 0, 20)), planner.route(new Location(
+				DB, B_REVERSE, 1), new Location(CD, C_FACING, 0)));
+	}
+
+	/**
+	 * Check that no route is found to a section that is not connected to the
+	 * origin, or to a section that can only be reached by breaking the
+	 * junction traversal rule.
+	 */
+	@Test
+	public void testUnreachable() {
+		Track track = track();
+		Section xy = new Section(4, endPoint("x", Branch.FACING), endPoint("y",
+				Branch.NORMAL));
+		track.addSection(xy);
+		// ea can only be reached from fa by turning from the NORMAL branch of
+		// a to its REVERSE branch
+		JunctionBranch aNormal = endPoint("a", Branch.NORMAL);
+		JunctionBranch fFacing = endPoint("f", Branch.FACING);
+		Section ea = new Section(6, endPoint("e", Branch.FACING), endPoint(
+				"a", Branch.REVERSE));
+		Section fa = new Section(6, fFacing, aNormal);
+		track.addSection(ea);
+		track.addSection(fa);
+		RoutePlanner planner = new RoutePlanner(track.freeze());
+
+		Assert.assertNull(planner.route(new Location(AB, A_FACING, 5),
+				new Location(xy, endPoint("x", Branch.FACING), 2)));
+		Assert.assertNull(planner.route(new Location(xy, endPoint("x",
+				Branch.FACING), 2), new Location(DB, D_FACING, 1)));
+		Assert.assertNull(planner.route(new Location(fa, aNormal, 1),
+				new Location(ea, endPoint("e", Branch.FACING), 3)));
+		// but d can be reached from fa, through a and around the loop
+		Assert.assertEquals(Arrays.asList(new Segment(fa, fFacing, 5, 6),
+				new Segment(AB, A_FACING, 0, 10), new Segment(BC, B_FACING, 0,
+						30), new Segment(CD, C_FACING, 0, 20)), planner.route(
+				new Location(fa, aNormal, 1), new Location(DB, D_FACING, 0)));
+		Assert.assertTrue(planner.checkInvariant());
+	}
+
+	/**
+	 * Check that a route to or from a section that is not on the track is
+	 * rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testSectionNotOnTrack() {
+		RoutePlanner planner = new RoutePlanner(track().freeze());
+		Section other = new Section(5, endPoint("p", Branch.FACING), endPoint(
+				"q", Branch.NORMAL));
+		planner.route(new Location(AB, A_FACING, 1), new Location(other,
+				endPoint("p", Branch.FACING), 1));
+	}
+
+	/**
+	 * Returns the track of four sections used by the tests.
+	 */
+	private static Track track() {
+		Track track = new Track();
+		track.addSection(AB);
+		track.addSection(BC);
+		track.addSection(CD);
+		track.addSection(DB);
+		return track;
+	}
+
+	/**
+	 * Returns the end-point on the given branch of the junction with the
+	 * given name.
+	 */
+	private static JunctionBranch endPoint(String junction, Branch branch) {
+		return new JunctionBranch(new Junction(junction), branch);
+	}
+
+}
@@ -0,0 +1,294 @@
+package railway.test;
+
+import railway.*;
+
+import java.util.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link SectionOccupancyIndex} class.
+ */
+public class SectionOccupancyIndexTest {
+
+	/**
+	 * Check that firstBlocked finds the first blocked location in the
+	 * direction of travel of a segment, and that only occupied routes and
+	 * routes granted to trains with lower indices block a train.
+	 */
+	@Test
+	public void testFirstBlocked() {
+		Section[] line = TrainRoutes.line(3);
+		SectionOccupancyIndex index = new SectionOccupancyIndex();
+		index.add(forward(line, 1, 4, 6), 0, false);
+		index.add(forward(line, 1, 8, 9), 2, true);
+
+		Assert.assertEquals(4, index.firstBlocked(forward(line, 1, 0, 10), 1));
+		Assert.assertEquals(4, index.firstBlocked(backward(line, 1, 0, 10),
+				1));
+		Assert.assertEquals(6, index.firstBlocked(forward(line, 1, 6, 10), 1));
+		// a train is not blocked by its own route, or by a route granted to
+		// a train with a higher index
+		Assert.assertEquals(-1, index.firstBlocked(forward(line, 1, 0, 10),
+				0));
+		Assert.assertEquals(-1, index.firstBlocked(forward(line, 1, 7, 10),
+				1));
+		Assert.assertEquals(8, index.firstBlocked(forward(line, 1, 7, 10),
+				3));
+		Assert.assertEquals(1, index.firstBlocked(backward(line, 1, 0, 10),
+				3));
+
+		// the junction at the end of section 0 is on section 1 too
+		index.add(forward(line, 0, 8, 10), 4, false);
+		Assert.assertEquals(0, index.firstBlocked(forward(line, 1, 0, 3), 1));
+		Assert.assertEquals(10, index.firstBlocked(backward(line, 1, 7, 10),
+				1));
+		Assert.assertEquals(-1, index.firstBlocked(forward(line, 1, 1, 3), 1));
+		Assert.assertTrue(index.checkInvariant());
+	}
+
+	/**
+	 * Check the trains returned for a section, a location and a segment.
+	 */
+	@Test
+	public void testGetTrains() {
+		Section[] line = TrainRoutes.line(3);
+		SectionOccupancyIndex index = new SectionOccupancyIndex();
+		index.add(forward(line, 1, 2, 4), 3, false);
+		index.add(forward(line, 1, 4, 7), 1, true);
+		index.add(forward(line, 0, 6, 10), 5, false);
+
+		Assert.assertEquals(trains(1, 3), index.getTrains(line[1]));
+		Assert.assertEquals(trains(5), index.getTrains(line[0]));
+		Assert.assertEquals(trains(), index.getTrains(line[2]));
+
+		Assert.assertEquals(trains(1, 3), index.getTrains(new Location(
+				line[1], TrainRoutes.endPoint(1, Branch.FACING), 4)));
+		Assert.assertEquals(trains(1), index.getTrains(new Location(line[1],
+				TrainRoutes.endPoint(2, Branch.NORMAL), 4)));
+		Assert.assertEquals(trains(), index.getTrains(new Location(line[1],
+				TrainRoutes.endPoint(1, Branch.FACING), 8)));
+		// the location at junction j1 is on sections 0 and 1
+		Assert.assertEquals(trains(5), index.getTrains(new Location(line[1],
+				TrainRoutes.endPoint(1, Branch.FACING), 0)));
+
+		Assert.assertEquals(trains(3, 5), index.getTrains(forward(line, 1, 0,
+				2)));
+		Assert.assertEquals(trains(1), index.getTrains(backward(line, 1, 3,
+				5)));
+		Assert.assertEquals(trains(), index.getTrains(forward(line, 1, 8,
+				10)));
+	}
+
+	/**
+	 * Check that a segment recorded more than once must be removed as many
+	 * times, and that an index that is cleared can be reused.
+	 */
+	@Test
+	public void testRemoveAndClear() {
+		Section[] line = TrainRoutes.line(3);
+		SectionOccupancyIndex index = new SectionOccupancyIndex();
+		Segment segment = forward(line, 1, 3, 10);
+		index.add(segment, 0, false);
+		index.add(segment, 0, false);
+		index.remove(segment, 0, false);
+		Assert.assertEquals(3, index.firstBlocked(forward(line, 1, 0, 10), 1));
+		// the junction at the end of the segment is still reserved too
+		Assert.assertEquals(0, index.firstBlocked(forward(line, 2, 0, 10), 1));
+		// removing a segment with a different owner has no effect
+		index.remove(segment, 0, true);
+		index.remove(segment, 2, false);
+		Assert.assertEquals(trains(0), index.getTrains(line[1]));
+		index.remove(segment, 0, false);
+		Assert.assertEquals(-1, index.firstBlocked(forward(line, 1, 0, 10),
+				1));
+		Assert.assertEquals(trains(), index.getTrains(line[1]));
+		Assert.assertTrue(index.checkInvariant());
+
+		index.addRoute(TrainRoutes.occupied(line, 0, 10), 2, false);
+		index.addRoute(TrainRoutes.requested(line, 2, 5, 1, false), 1, true);
+		index.clear();
+		Assert.assertEquals(trains(), index.getTrains(line[0]));
+		Assert.assertEquals(trains(), index.getTrains(line[2]));
+		Assert.assertEquals(-1, index.firstBlocked(forward(line, 1, 0, 10),
+				0));
+		Assert.assertTrue(index.checkInvariant());
+
+		for (int round = 0; round < 3; round++) {
+			index.addRoute(TrainRoutes.occupied(line, 2, 4), 0, false);
+			Assert.assertEquals(6, index.firstBlocked(backward(line, 2, 0,
+					10), 1));
+			index.clear();
+		}
+		Assert.assertTrue(index.checkInvariant());
+	}
+
+	/**
+	 * Check that a full-length interval is found among many short intervals
+	 * that come before and after it in the order of the index, in both
+	 * directions of travel, and that it no longer blocks once it is removed.
+	 */
+	@Test
+	public void testLongIntervalAmongShortIntervals() {
+		Section section = new Section(1000, TrainRoutes.endPoint(0,
+				Branch.FACING), TrainRoutes.endPoint(1, Branch.NORMAL));
+		JunctionBranch start = TrainRoutes.endPoint(0, Branch.FACING);
+		JunctionBranch end = TrainRoutes.endPoint(1, Branch.NORMAL);
+		SectionOccupancyIndex index = new SectionOccupancyIndex();
+		// short intervals granted to trains that do not block train 1
+		for (int i = 0; i < 400; i++) {
+			index.add(new Segment(section, start, 2 * i + 100, 2 * i + 100),
+					10 + i, true);
+		}
+		Segment full = new Segment(section, start, 0, 1000);
+		index.add(full, 5, false);
+
+		Assert.assertEquals(900, index.firstBlocked(new Segment(section, start,
+				900, 950), 1));
+		Assert.assertEquals(50, index.firstBlocked(new Segment(section, end,
+				50, 60), 1));
+		Set<Integer> expected = trains(5, 150);
+		Assert.assertEquals(expected, index.getTrains(new Location(section,
+				start, 380)));
+		Assert.assertEquals(401, index.getTrains(section).size());
+		Assert.assertTrue(index.checkInvariant());
+
+		index.remove(full, 5, false);
+		Assert.assertEquals(-1, index.firstBlocked(new Segment(section, start,
+				900, 950), 1));
+		Assert.assertEquals(-1, index.firstBlocked(new Segment(section, start,
+				100, 900), 1));
+		Assert.assertEquals(100, index.firstBlocked(new Segment(section, start,
+				1, 900), 410));
+		Assert.assertTrue(index.checkInvariant());
+	}
+
+	/**
+	 * Check firstBlocked and getTrains against a list of the recorded
+	 * segments, after random additions and removals on a single section.
+	 */
+	@Test
+	public void testMatchesBruteForce() {
+		int length = 60;
+		JunctionBranch start = TrainRoutes.endPoint(0, Branch.FACING);
+		JunctionBranch end = TrainRoutes.endPoint(1, Branch.NORMAL);
+		Section section = new Section(length, start, end);
+		SectionOccupancyIndex index = new SectionOccupancyIndex();
+		// the segments in the index, with their trains and whether they
+		// have been granted
+		List<Segment> segments = new ArrayList<Segment>();
+		List<Integer> owners = new ArrayList<Integer>();
+		List<Boolean> granted = new ArrayList<Boolean>();
+		Random random = new Random(11);
+		for (int step = 0; step < 3000; step++) {
+			if (segments.isEmpty() || random.nextInt(3) > 0) {
+				Segment segment = randomSegment(random, section, start, end);
+				int train = random.nextInt(8);
+				boolean grant = random.nextBoolean();
+				index.add(segment, train, grant);
+				segments.add(segment);
+				owners.add(train);
+				granted.add(grant);
+			} else {
+				int i = random.nextInt(segments.size());
+				index.remove(segments.remove(i), owners.remove(i),
+						granted.remove(i));
+			}
+			if (step % 500 == 499) {
+				index.clear();
+				segments.clear();
+				owners.clear();
+				granted.clear();
+			}
+
+			Segment query = randomSegment(random, section, start, end);
+			int train = random.nextInt(8);
+			int blocked = -1;
+			Set<Integer> intersecting = new TreeSet<Integer>();
+			for (int offset = query.getEndOffset(); offset >= query
+					.getStartOffset(); offset--) {
+				int position = position(query, offset);
+				for (int i = 0; i < segments.size(); i++) {
+					if (covers(segments.get(i), position)) {
+						intersecting.add(owners.get(i));
+						int other = owners.get(i);
+						if (other != train && (!granted.get(i)
+								|| other < train)) {
+							blocked = offset;
+						}
+					}
+				}
+			}
+			Assert.assertEquals(blocked, index.firstBlocked(query, train));
+			Assert.assertEquals(intersecting, index.getTrains(query));
+		}
+		Assert.assertTrue(index.checkInvariant());
+	}
+
+	/**
+	 * Returns a random segment of the given section, from either end.
+	 */
+	private static Segment randomSegment(Random random, Section section,
+			JunctionBranch start, JunctionBranch end) {
+		int length = section.getLength();
+		int low = random.nextInt(length + 1);
+		int high = Math.min(length, low + random.nextInt(12));
+		return new Segment(section, random.nextBoolean() ? start : end, low,
+				high);
+	}
+
+	/**
+	 * Returns the offset from the departing end-point of the section of the
+	 * given segment that starts its line (its FACING end) of the location at
+	 * the given offset of the segment.
+	 */
+	private static int position(Segment segment, int offset) {
+		if (segment.getDepartingEndPoint().getBranch() == Branch.FACING) {
+			return offset;
+		}
+		return segment.getSection().getLength() - offset;
+	}
+
+	/**
+	 * Returns true if the given segment contains the location at the given
+	 * offset from the FACING end of its section.
+	 */
+	private static boolean covers(Segment segment, int position) {
+		int first = position(segment, segment.getStartOffset());
+		int last = position(segment, segment.getEndOffset());
+		return Math.min(first, last) <= position
+				&& position <= Math.max(first, last);
+	}
+
+	/**
+	 * Returns the segment of the given section of the line that runs between
+	 * the given offsets from its FACING end, away from the start of the line.
+	 */
+	private static Segment forward(Section[] line, int section, int start,
+			int end) {
+		return new Segment(line[section], TrainRoutes.endPoint(section,
+				Branch.FACING), start, end);
+	}
+
+	/**
+	 * Returns the segment of the given section of the line that runs between
+	 * the given offsets from its NORMAL end, towards the start of the line.
+	 */
+	private static Segment backward(Section[] line, int section, int start,
+			int end) {
+		return new Segment(line[section], TrainRoutes.endPoint(section + 1,
+				Branch.NORMAL), start, end);
+	}
+
+	/**
+	 * Returns a set of the given trains.
+	 */
+	private static Set<Integer> trains(int... trains) {
+		Set<Integer> result = new TreeSet<Integer>();
+		for (int train : trains) {
+			result.add(train);
+		}
+		return result;
+	}
+
+}
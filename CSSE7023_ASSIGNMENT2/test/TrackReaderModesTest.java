@@ -0,0 +1,209 @@
+package railway.test;
+
+import railway.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that {@link TrackReader#read(String)},
+ * {@link TrackReader#readMapped(Path)} and
+ * {@link TrackReader#readParallel(Path, ForkJoinPool)} read the same track
+ * from each file, and throw the same FormatException for each incorrectly
+ * formatted file.
+ *
+ * The files of test.zip, in the working directory, are compared, as well as
+ * generated files that are larger than a chunk of readParallel.
+ */
+public class TrackReaderModesTest {
+
+	// the number of lines of each generated file
+	private static final int LINES = 20000;
+
+	/**
+	 * Check that each reader gives the same result for each of the files in
+	 * test.zip.
+	 */
+	@Test
+	public void testZipFiles() throws IOException {
+		Path directory = Files.createTempDirectory("tracks");
+		try (ZipFile zip = new ZipFile("test.zip")) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (!entry.getName().startsWith("test_")) {
+					continue;
+				}
+				Path file = directory.resolve(entry.getName());
+				try (InputStream input = zip.getInputStream(entry)) {
+					Files.copy(input, file);
+				}
+				String result = checkSameResult(file);
+				if (entry.getName().contains("incorrectlyFormatted")) {
+					Assert.assertTrue(entry.getName() + ": " + result,
+							result.startsWith("FormatException"));
+				} else if (entry.getName().contains("correctlyFormatted")) {
+					Assert.assertTrue(entry.getName() + ": " + result,
+							result.startsWith("sections"));
+				} else {
+					Assert.assertEquals("IOException", result);
+				}
+			}
+		} finally {
+			delete(directory);
+		}
+	}
+
+	/**
+	 * Check that each reader gives the same result for files that are split
+	 * into many chunks by readParallel: a correctly formatted file, a file
+	 * with an incorrectly formatted line near its end, a file with a
+	 * duplicate section in a later chunk, and a file whose first error is a
+	 * duplicate section that comes before a badly formatted line.
+	 */
+	@Test
+	public void testLargeFiles() throws IOException {
+		Path directory = Files.createTempDirectory("tracks");
+		try {
+			Map<Integer, String> changes = new HashMap<Integer, String>();
+			Assert.assertEquals("sections " + LINES, checkSameResult(
+					largeFile(directory, changes)));
+
+			changes.put(LINES - 10, "5 x FACING y");
+			String result = checkSameResult(largeFile(directory, changes));
+			Assert.assertTrue(result, result.startsWith("FormatException"));
+
+			changes.clear();
+			changes.put(15000, line(10));
+			result = checkSameResult(largeFile(directory, changes));
+			Assert.assertTrue(result, result.startsWith("FormatException"));
+
+			changes.put(17000, "five x FACING y NORMAL");
+			Assert.assertEquals(result, checkSameResult(largeFile(directory,
+					changes)));
+		} finally {
+			delete(directory);
+		}
+	}
+
+	/**
+	 * Check that each reader rejects a file name without an extension, or
+	 * with an extension other than txt, with an IOException.
+	 */
+	@Test
+	public void testFileNames() throws IOException {
+		Path directory = Files.createTempDirectory("tracks");
+		try {
+			for (String name : new String[] { "track", "track.txt.html",
+					"track.", ".txt.zip" }) {
+				Path file = directory.resolve(name);
+				Files.write(file, (line(0) + "\n").getBytes(
+						StandardCharsets.UTF_8));
+				Assert.assertEquals(name, "IOException", checkSameResult(file));
+			}
+		} finally {
+			delete(directory);
+		}
+	}
+
+	/**
+	 * Reads the file with each of the readers, checks that they give the same
+	 * result, and returns a description of that result: the number of
+	 * sections of the track that was read, the message of the FormatException
+	 * that was thrown, or IOException.
+	 */
+	private static String checkSameResult(Path file) {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			String name = file.getFileName().toString();
+			Object result = read(file, 0, pool);
+			Assert.assertEquals(name, result, read(file, 1, pool));
+			Assert.assertEquals(name, result, read(file, 2, pool));
+			if (result instanceof Set) {
+				return "sections " + ((Set<?>) result).size();
+			}
+			return (String) result;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Reads the file with read(String) if reader is 0, readMapped if reader
+	 * is 1, or readParallel on the pool if reader is 2, and returns the set of
+	 * the sections of the track that was read, or a string that describes
+	 * the exception that was thrown.
+	 */
+	private static Object read(Path file, int reader, ForkJoinPool pool) {
+		Track track;
+		try {
+			if (reader == 0) {
+				track = TrackReader.read(file.toString());
+			} else if (reader == 1) {
+				track = TrackReader.readMapped(file);
+			} else {
+				track = TrackReader.readParallel(file, pool);
+			}
+		} catch (FormatException e) {
+			return "FormatException: " + e.getMessage();
+		} catch (IOException e) {
+			return "IOException";
+		}
+		Assert.assertTrue(track.checkInvariant());
+		Set<Section> sections = new HashSet<Section>();
+		for (Section section : track) {
+			sections.add(section);
+		}
+		return sections;
+	}
+
+	/**
+	 * Writes a file of LINES lines to the directory, in which each line
+	 * describes a section between two junctions of its own, except for the
+	 * lines with the given numbers (counting from 1), which are replaced by
+	 * the given text, and returns the file.
+	 */
+	private static Path largeFile(Path directory, Map<Integer, String> changes)
+			throws IOException {
+		Path file = directory.resolve("large.txt");
+		try (Writer writer = Files.newBufferedWriter(file,
+				StandardCharsets.UTF_8)) {
+			for (int i = 1; i <= LINES; i++) {
+				String line = changes.get(i);
+				writer.write(line == null ? line(i) : line);
+				writer.write('\n');
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Returns the line that describes the section of the given large file on
+	 * the given line.
+	 */
+	private static String line(int line) {
+		return (line % 97 + 1) + " a" + line + " FACING b" + line + " NORMAL";
+	}
+
+	/**
+	 * Deletes the directory and the files in it.
+	 */
+	private static void delete(Path directory) throws IOException {
+		File[] files = directory.toFile().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				Files.delete(file.toPath());
+			}
+		}
+		Files.delete(directory);
+	}
+
+}
@@ -0,0 +1,167 @@
+package railway.test;
+
+import railway.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link TrackSnapshot} class.
+ */
+public class TrackSnapshotTest {
+
+	/**
+	 * Check that a track written to a snapshot file is restored with the
+	 * same sections and junctions.
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		Track track = track();
+		Path path = Files.createTempFile("track", ".snapshot");
+		try {
+			TrackSnapshot.write(track, path);
+			checkSameTrack(track, TrackSnapshot.read(path));
+		} finally {
+			Files.delete(path);
+		}
+		checkSameTrack(new Track(), TrackSnapshot.read(ByteBuffer.wrap(
+				snapshot(new Track()))));
+	}
+
+	/**
+	 * Check that a snapshot is read from the current position of a buffer.
+	 */
+	@Test
+	public void testReadFromPosition() throws IOException {
+		Track track = track();
+		byte[] bytes = snapshot(track);
+		ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 3);
+		buffer.position(3);
+		buffer.put(bytes);
+		buffer.position(3);
+		checkSameTrack(track, TrackSnapshot.read(buffer));
+	}
+
+	/**
+	 * Check that every truncation of a snapshot is rejected.
+	 */
+	@Test
+	public void testTruncated() throws IOException {
+		byte[] bytes = snapshot(track());
+		for (int length = 0; length < bytes.length; length++) {
+			try {
+				TrackSnapshot.read(ByteBuffer.wrap(bytes, 0, length));
+				Assert.fail("A snapshot truncated to " + length
+						+ " bytes was read.");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Check that snapshots with a wrong header, a count that is too large,
+	 * or an end-point of a junction that is not in the snapshot are
+	 * rejected.
+	 */
+	@Test
+	public void testCorrupt() {
+		byte[] bytes = snapshot(track());
+		// the magic number, the version and the number of junctions
+		for (int offset : new int[] { 0, 4, 8 }) {
+			checkCorrupt(bytes, offset, Integer.MAX_VALUE);
+			checkCorrupt(bytes, offset, -1);
+		}
+		// the first end-point of the last section
+		int endPoint = bytes.length - 8;
+		checkCorrupt(bytes, endPoint, 4 * 100);
+		// the number of sections
+		checkCorrupt(bytes, bytes.length - 4 - 12 * 4, 1 << 28);
+	}
+
+	/**
+	 * Checks that the snapshot is rejected when the int at the given offset
+	 * is replaced by the given value.
+	 */
+	private static void checkCorrupt(byte[] snapshot, int offset, int value) {
+		ByteBuffer buffer = ByteBuffer.wrap(snapshot.clone());
+		buffer.putInt(offset, value);
+		try {
+			TrackSnapshot.read(buffer);
+			Assert.fail("A corrupt snapshot was read.");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Checks that the restored track has the same sections, and the same
+	 * section on each branch of each junction, as the original track.
+	 */
+	private static void checkSameTrack(Track original, Track restored) {
+		Assert.assertEquals(sections(original), sections(restored));
+		Assert.assertEquals(original.getJunctions(), restored.getJunctions());
+		for (Junction junction : original.getJunctions()) {
+			for (Branch branch : Branch.values()) {
+				Assert.assertEquals(original.getTrackSection(junction, branch),
+						restored.getTrackSection(junction, branch));
+			}
+		}
+		Assert.assertTrue(restored.checkInvariant());
+	}
+
+	/**
+	 * Returns the sections of the track.
+	 */
+	private static Set<Section> sections(Track track) {
+		Set<Section> sections = new HashSet<Section>();
+		for (Section section : track) {
+			sections.add(section);
+		}
+		return sections;
+	}
+
+	/**
+	 * Returns a snapshot of the track.
+	 */
+	private static byte[] snapshot(Track track) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			TrackSnapshot.write(track, output);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Returns a track of four sections, with a junction that has all three
+	 * branches connected and a junction whose name is not ASCII.
+	 */
+	private static Track track() {
+		Track track = new Track();
+		track.addSection(new Section(9, endPoint("j1", Branch.FACING),
+				endPoint("j2", Branch.NORMAL)));
+		track.addSection(new Section(4, endPoint("j2", Branch.FACING),
+				endPoint("\u00e9toile", Branch.NORMAL)));
+		track.addSection(new Section(12, endPoint("j2", Branch.REVERSE),
+				endPoint("j3", Branch.FACING)));
+		track.addSection(new Section(1, endPoint("j3", Branch.NORMAL),
+				endPoint("j1", Branch.REVERSE)));
+		return track;
+	}
+
+	/**
+	 * Returns the end-point on the given branch of the junction with the
+	 * given name.
+	 */
+	private static JunctionBranch endPoint(String junction, Branch branch) {
+		return new JunctionBranch(new Junction(junction), branch);
+	}
+
+}
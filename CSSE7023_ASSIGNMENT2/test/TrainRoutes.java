@@ -0,0 +1,98 @@
+package railway.test;
+
+import railway.*;
+
+import java.util.*;
+
+/**
+ * Routes of trains on a straight line of sections, shared by the tests of
+ * the allocators.
+ *
+ * Section i of a line has length 10 and joins (ji, FACING) to (j(i+1),
+ * NORMAL), so a train can travel along the line in either direction.
+ */
+final class TrainRoutes {
+
+	private TrainRoutes() {
+	}
+
+	/**
+	 * Returns the sections of a line with the given number of sections.
+	 */
+	static Section[] line(int count) {
+		Section[] sections = new Section[count];
+		for (int i = 0; i < count; i++) {
+			sections[i] = new Section(10, endPoint(i, Branch.FACING),
+					endPoint(i + 1, Branch.NORMAL));
+		}
+		return sections;
+	}
+
+	/**
+	 * Returns the end-point on the given branch of junction j of a line.
+	 */
+	static JunctionBranch endPoint(int junction, Branch branch) {
+		return new JunctionBranch(new Junction("j" + junction), branch);
+	}
+
+	/**
+	 * Returns the route occupied by a train on the given section of the
+	 * line, whose front is at the given offset from its FACING end (0 < offset
+	 * <= 10).
+	 */
+	static List<Segment> occupied(Section[] line, int section, int offset) {
+		return Arrays.asList(new Segment(line[section], endPoint(section,
+				Branch.FACING), Math.max(offset - 2, 0), offset));
+	}
+
+	/**
+	 * Returns the route requested by a train whose front is at the given
+	 * offset from the FACING end of the given section. The route covers at
+	 * most the given number of sections, away from the start of the line if
+	 * backwards is false, and towards it otherwise.
+	 */
+	static List<Segment> requested(Section[] line, int section, int offset,
+			int count, boolean backwards) {
+		List<Segment> route = new ArrayList<Segment>();
+		if (!backwards) {
+			route.add(new Segment(line[section], endPoint(section,
+					Branch.FACING), offset, 10));
+			for (int k = 1; k < count && section + k < line.length; k++) {
+				route.add(new Segment(line[section + k], endPoint(section + k,
+						Branch.FACING), 0, 10));
+			}
+		} else {
+			route.add(new Segment(line[section], endPoint(section + 1,
+					Branch.NORMAL), 10 - offset, 10));
+			for (int k = 1; k < count && section - k >= 0; k++) {
+				route.add(new Segment(line[section - k], endPoint(section - k
+						+ 1, Branch.NORMAL), 0, 10));
+			}
+		}
+		return route;
+	}
+
+	/**
+	 * Adds the occupied and requested routes of the given number of trains,
+	 * which start on different sections of the line, to the given lists, and
+	 * returns the section that each train starts on.
+	 */
+	static int[] scenario(Random random, Section[] line, int trains,
+			List<List<Segment>> occupied, List<List<Segment>> requested) {
+		List<Integer> sections = new ArrayList<Integer>();
+		for (int i = 0; i < line.length; i++) {
+			sections.add(i);
+		}
+		Collections.shuffle(sections, random);
+		int[] starts = new int[trains];
+		for (int t = 0; t < trains; t++) {
+			starts[t] = sections.get(t);
+			int offset = 2 + random.nextInt(7);
+			occupied.add(occupied(line, starts[t], offset));
+			requested.add(requested(line, starts[t], offset,
+					1 + random.nextInt(8), random.nextBoolean()));
+		}
+		return starts;
+	}
+
+}